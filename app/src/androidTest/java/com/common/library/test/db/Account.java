@@ -2,6 +2,8 @@ package com.common.library.test.db;
 
 import com.common.library.orm.annotation.Column;
 import com.common.library.orm.annotation.DefaultOrderBy;
+import com.common.library.orm.annotation.FullTextSearch;
+import com.common.library.orm.annotation.Index;
 import com.common.library.orm.annotation.Table;
 import com.common.library.orm.sqlite.BaseTable;
 
@@ -18,10 +20,12 @@ public class Account extends BaseTable {
 	public static final String COLUMN_IS_DEFAULT = "is_default";
 
 	@Column(notNull = true)
+	@Index
 	public String phone_number;
 
 	@Column(notNull = true)
 	@DefaultOrderBy
+	@FullTextSearch
 	public String display_name;
 
 	@Column(notNull = true)
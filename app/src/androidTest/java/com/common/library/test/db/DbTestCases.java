@@ -1,14 +1,37 @@
 package com.common.library.test.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
 import android.test.AndroidTestCase;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.common.library.orm.sqlite.AsyncDbUtils;
+import com.common.library.orm.sqlite.BaseTable;
 import com.common.library.orm.sqlite.BatchJobs;
 import com.common.library.orm.sqlite.DbUtils;
+import com.common.library.orm.sqlite.EntityCache;
+import com.common.library.orm.sqlite.GroupedAggregate;
+import com.common.library.orm.sqlite.LazyList;
+import com.common.library.orm.sqlite.LazyRelation;
+import com.common.library.orm.sqlite.Page;
+import com.common.library.thread.ThreadWork;
 
 public class DbTestCases extends AndroidTestCase{
 	private static final String TAG = "DbTestCases";
@@ -66,14 +89,235 @@ public class DbTestCases extends AndroidTestCase{
 			accs.add(acc1);
 		}
 		List<Long> saved = mDbUtils.saveAll(Account.class, accs);
-		System.out.println(saved.size());
+		assertEquals(accs.size(), saved.size());
+		for (long id : saved) {
+			assertTrue(id != -1);
+		}
+	}
+	
+	public void testUpsert(){
+		Account acc = new Account();
+		acc.password = "123456";
+		acc.phone_number = "15262430016";
+		acc.display_name = "upsert";
+		acc.id = mDbUtils.save(Account.class, acc);
+
+		acc.display_name = "upserted";
+		long id = mDbUtils.upsert(Account.class, acc, DbUtils.CONFLICT_UPDATE, null,
+				Account.COLUMN_DISPLAYING_NAME);
+		assertEquals(acc.id, id);
+		assertEquals("upserted", mDbUtils.findById(Account.class, id).display_name);
+
+		// existing record is kept
+		acc.display_name = "ignored";
+		assertEquals(-1, mDbUtils.upsert(Account.class, acc, DbUtils.CONFLICT_IGNORE, null));
+		assertEquals("upserted", mDbUtils.findById(Account.class, id).display_name);
 	}
 	
+	public void testExportImport() throws IOException{
+		for (int i = 0; i < 3; i++) {
+			Account acc = new Account();
+			acc.password = "123456";
+			acc.phone_number = "1526243000" + i;
+			acc.display_name = "export" + i;
+			mDbUtils.save(Account.class, acc);
+		}
+		int count = mDbUtils.count(Account.class);
+
+		int[] formats = { DbUtils.FORMAT_BINARY, DbUtils.FORMAT_JSON_LINES };
+		for (int format : formats) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(count, mDbUtils.exportTable(Account.class, out, format));
+			mDbUtils.deleteAll(Account.class);
+			assertEquals(0, mDbUtils.count(Account.class));
+
+			assertEquals(count, mDbUtils.importTable(Account.class, new ByteArrayInputStream(out.toByteArray()), format));
+			assertEquals(count, mDbUtils.count(Account.class));
+			assertEquals(1, mDbUtils.count(Account.class, Account.COLUMN_DISPLAYING_NAME + "=?", new String[] { "export2" }));
+		}
+	}
+
+	public void testFindForeign(){
+		List<Account> accounts = new ArrayList<Account>();
+		List<Permission> permissions = new ArrayList<Permission>();
+		for (int i = 0; i < 3; i++) {
+			Account acc = new Account();
+			acc.password = "123456";
+			acc.phone_number = "1526243001" + i;
+			acc.display_name = "foreign" + i;
+			acc.id = mDbUtils.save(Account.class, acc);
+			accounts.add(acc);
+			for (int j = 0; j <= i; j++) {
+				Permission permission = new Permission();
+				permission.accountId = acc.id;
+				permission.permission = j;
+				permission.id = mDbUtils.save(Permission.class, permission);
+				permissions.add(permission);
+			}
+		}
+
+		Map<Long, Account> parents = mDbUtils.findForeign(Permission.class, permissions,
+				Permission.COLUMN_ACCOUNT_ID, Account.class);
+		assertEquals(accounts.size(), parents.size());
+		LazyRelation<Permission, Account> lazyParents = mDbUtils.findForeignLazy(Permission.class, permissions,
+				Permission.COLUMN_ACCOUNT_ID, Account.class);
+		assertFalse(lazyParents.isLoaded());
+		for (Permission permission : permissions) {
+			assertEquals(permission.accountId, parents.get(permission.accountId).id);
+			assertEquals(permission.accountId, lazyParents.get(permission).id);
+		}
+
+		Map<Long, List<Permission>> children = mDbUtils.findChildren(Account.class, accounts,
+				Permission.COLUMN_ACCOUNT_ID, Permission.class);
+		LazyRelation<Account, List<Permission>> lazyChildren = mDbUtils.findChildrenLazy(Account.class, accounts,
+				Permission.COLUMN_ACCOUNT_ID, Permission.class);
+		for (int i = 0; i < accounts.size(); i++) {
+			assertEquals(i + 1, children.get(accounts.get(i).id).size());
+			assertEquals(i + 1, lazyChildren.get(accounts.get(i)).size());
+		}
+	}
+
+	public void testSearch(){
+		Account acc = new Account();
+		acc.password = "123456";
+		acc.phone_number = "15262430020";
+		acc.display_name = "searchable name";
+		acc.id = mDbUtils.save(Account.class, acc);
+
+		long[] ids = mDbUtils.search(Account.class, DbUtils.toPrefixQuery("searcha"), 0);
+		assertEquals(1, ids.length);
+		assertEquals(acc.id, ids[0]);
+
+		// shadow table is kept in sync by triggers
+		acc.display_name = "renamed";
+		mDbUtils.update(acc);
+		assertEquals(0, mDbUtils.search(Account.class, DbUtils.toPrefixQuery("searcha"), 0).length);
+		Cursor cursor = mDbUtils.searchToCursor(Account.class, DbUtils.toPrefixQuery("renam"), 0);
+		try {
+			assertTrue(cursor.moveToFirst());
+			assertEquals(acc.id, cursor.getLong(cursor.getColumnIndex(BaseTable._ID)));
+		} finally {
+			cursor.close();
+		}
+
+		mDbUtils.delete(acc);
+		assertEquals(0, mDbUtils.search(Account.class, DbUtils.toPrefixQuery("renam"), 0).length);
+	}
+
+	public void testSearchRanking(){
+		Account more = new Account();
+		more.password = "123456";
+		more.phone_number = "15262430021";
+		more.display_name = "ranked ranked ranked";
+		more.id = mDbUtils.save(Account.class, more);
+
+		// fewer matches at large offsets, whose offsets() text is longer
+		StringBuilder filler = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			filler.append('x');
+		}
+		Account fewer = new Account();
+		fewer.password = "123456";
+		fewer.phone_number = "15262430022";
+		fewer.display_name = filler + " ranked ranked";
+		fewer.id = mDbUtils.save(Account.class, fewer);
+
+		try {
+			long[] ids = mDbUtils.search(Account.class, "ranked", 0);
+			assertEquals(2, ids.length);
+			assertEquals(more.id, ids[0]);
+			assertEquals(fewer.id, ids[1]);
+		} finally {
+			mDbUtils.delete(more);
+			mDbUtils.delete(fewer);
+		}
+	}
+
+	public void testSearchAfterReplace(){
+		mDbUtils.deleteAll(Tag.class);
+		Tag tag = new Tag();
+		tag.code = "t1";
+		tag.name = "replacedold";
+		long oldId = mDbUtils.save(Tag.class, tag);
+		assertTrue(oldId != Tag.NOT_SAVED);
+
+		// replacing on unique column deletes the old record, which has another id
+		Tag replacement = new Tag();
+		replacement.code = "t1";
+		replacement.name = "replacednew";
+		long newId = mDbUtils.upsert(Tag.class, replacement, DbUtils.CONFLICT_REPLACE, Tag.COLUMN_CODE);
+		assertTrue(newId != oldId);
+		assertNull(mDbUtils.findById(Tag.class, oldId));
+
+		long[] ids = mDbUtils.search(Tag.class, DbUtils.toPrefixQuery("replaced"), 0);
+		assertEquals(1, ids.length);
+		assertEquals(newId, ids[0]);
+		// the old record is removed from shadow table too
+		Cursor c = TestDbHelper.getDbHelper(getContext()).getReadableDatabase().rawQuery(
+				"SELECT docid FROM tag_fts WHERE tag_fts MATCH ?", new String[] { "replacedold" });
+		try {
+			assertEquals(0, c.getCount());
+		} finally {
+			c.close();
+		}
+	}
+
 	public void testFindById(){
 		Account acc = mDbUtils.findById(Account.class, 1);
 		assertTrue(acc != null);
 	}
 	
+	public void testRestoreFields(){
+		Account acc = new Account();
+		acc.password = "123456";
+		acc.phone_number = "15262430016";
+		acc.display_name = "restore";
+		acc.role = 3;
+		acc.remember_pwd = true;
+		acc.is_default = true;
+		long id = mDbUtils.save(Account.class, acc);
+
+		Account restored = mDbUtils.findById(Account.class, id);
+		assertEquals(id, restored.id);
+		assertEquals(acc.phone_number, restored.phone_number);
+		assertEquals(acc.display_name, restored.display_name);
+		assertEquals(acc.role, restored.role);
+		assertTrue(restored.remember_pwd);
+		assertTrue(restored.is_default);
+		assertFalse(restored.deleted);
+		assertFalse(restored.auto_login);
+
+		// saved by compiled statements of saveAll
+		List<Account> accounts = new ArrayList<Account>();
+		accounts.add(acc);
+		acc.id = Account.NOT_SAVED;
+		acc.phone_number = "15262430017";
+		long savedId = mDbUtils.saveAll(Account.class, accounts).get(0);
+		restored = mDbUtils.findById(Account.class, savedId);
+		assertTrue(restored.remember_pwd);
+		assertFalse(restored.deleted);
+	}
+
+	public void testEntityCache(){
+		Permission permission = new Permission();
+		permission.accountId = 1;
+		permission.permission = 7;
+		long id = mDbUtils.save(Permission.class, permission);
+
+		EntityCache cache = mDbUtils.getEntityCache();
+		Permission first = mDbUtils.findById(Permission.class, id);
+		int hitCount = cache.hitCount();
+		assertSame(first, mDbUtils.findById(Permission.class, id));
+		assertEquals(hitCount + 1, cache.hitCount());
+
+		// update invalidates cached record
+		first.permission = 8;
+		mDbUtils.update(first);
+		Permission updated = mDbUtils.findById(Permission.class, id);
+		assertNotSame(first, updated);
+		assertEquals(8, updated.permission);
+	}
+	
 	public void testFindFirst(){
 		Account acc = mDbUtils.findFirst(
 				Account.class, 
@@ -93,12 +337,80 @@ public class DbTestCases extends AndroidTestCase{
 		assertTrue(accounts != null && accounts.size() > 0);
 	}
 	
+	public void testFindWithProjection(){
+		List<Account> accounts = mDbUtils.find(
+				Account.class,
+				new String[]{Account.COLUMN_DISPLAYING_NAME},
+				null, null, null, null, null);
+		assertTrue(accounts.size() > 0);
+		for (Account acc : accounts) {
+			assertTrue(acc.isSaved());
+			assertNotNull(acc.display_name);
+			// column not in projection is not loaded
+			assertNull(acc.password);
+		}
+	}
+	
 	public void testFindAll(){
 		List<Account> accounts = mDbUtils.findAll(Account.class);
 		Log.d(TAG, "all accounts size:" + accounts);
 		assertTrue(accounts != null && accounts.size() > 0);
 	}
 	
+	public void testFindAllLazy(){
+		LazyList<Account> accounts = mDbUtils.findAllLazy(Account.class);
+		try {
+			assertEquals(mDbUtils.count(Account.class), accounts.size());
+			for (Account acc : accounts) {
+				assertTrue(acc.isSaved());
+			}
+		} finally {
+			accounts.close();
+		}
+		assertTrue(accounts.isClosed());
+	}
+	
+	public void testFindPage(){
+		mDbUtils.deleteAll(Note.class);
+		// records with NULL sort key come first, page boundaries fall inside
+		// the NULL keys and between NULL and non-NULL keys
+		String[] titles = { "b", null, "a", null, "c", null, null, "a" };
+		for (String title : titles) {
+			Note note = new Note();
+			note.title = title;
+			assertTrue(mDbUtils.save(Note.class, note) != Note.NOT_SAVED);
+		}
+
+		List<Note> paged = new ArrayList<Note>();
+		Set<Long> ids = new HashSet<Long>();
+		String token = null;
+		do {
+			Page<Note> page = mDbUtils.findPage(Note.class, null, null, token, 3);
+			assertTrue(page.getItems().size() <= 3);
+			for (Note note : page.getItems()) {
+				// no record is returned twice
+				assertTrue(ids.add(note.id));
+				paged.add(note);
+			}
+			token = page.getNextPageToken();
+		} while (token != null);
+		assertEquals(titles.length, paged.size());
+
+		for (int i = 0; i < 4; i++) {
+			assertNull(paged.get(i).title);
+		}
+		String[] sorted = { "a", "a", "b", "c" };
+		for (int i = 0; i < sorted.length; i++) {
+			assertEquals(sorted[i], paged.get(i + 4).title);
+		}
+		// ties are ordered by id
+		for (int i = 1; i < paged.size(); i++) {
+			if (TextUtils.equals(paged.get(i - 1).title, paged.get(i).title)) {
+				assertTrue(paged.get(i - 1).id < paged.get(i).id);
+			}
+		}
+	}
+	
 	// 还有用于分页查找的findWithLimit 
 	
 	public void testCountAll(){
@@ -114,6 +426,31 @@ public class DbTestCases extends AndroidTestCase{
 		assertTrue(count > 0);
 	}
 	
+	public void testIndexCreated(){
+		Cursor c = mDbUtils.getDatabase().rawQuery(
+				"SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+				new String[]{"idx_account_phone_number"});
+		try {
+			assertTrue(c.moveToFirst());
+		} finally {
+			c.close();
+		}
+	}
+	
+	public void testAggregate(){
+		double sum = mDbUtils.sum(Account.class, Account.COLUMN_ROLE, null, null);
+		double max = mDbUtils.max(Account.class, Account.COLUMN_ROLE, null, null);
+		assertTrue(sum >= max);
+
+		GroupedAggregate counts = mDbUtils.aggregateGroupBy(Account.class, DbUtils.AGGREGATE_COUNT, "*",
+				Account.COLUMN_ROLE, null, null);
+		int total = 0;
+		for (double count : counts.getValues()) {
+			total += (int) count;
+		}
+		assertEquals(mDbUtils.count(Account.class), total);
+	}
+	
 	public void testUpdate(){
 		// update by specified ContentVaues
 		ContentValues values = new ContentValues();
@@ -144,6 +481,45 @@ public class DbTestCases extends AndroidTestCase{
 		assertTrue(deletedCount != Account.NOT_SAVED);
 	}
 	
+	public void testTableObserver(){
+		final List<Class<? extends BaseTable>> changed = new ArrayList<Class<? extends BaseTable>>();
+		DbUtils.OnTableChangedListener listener = new DbUtils.OnTableChangedListener() {
+
+			@Override
+			public void onTableChanged(Set<Class<? extends BaseTable>> tableClasses) {
+				changed.addAll(tableClasses);
+			}
+		};
+		mDbUtils.registerTableObserver(listener, Account.class);
+		try {
+			Permission permission = new Permission();
+			permission.accountId = 1;
+			mDbUtils.save(Permission.class, permission);
+			// not observed table
+			assertTrue(changed.isEmpty());
+
+			Account acc = new Account();
+			acc.password = "123456";
+			acc.phone_number = "15262430016";
+			acc.display_name = "observed";
+			mDbUtils.save(Account.class, acc);
+			assertEquals(1, changed.size());
+			assertEquals(Account.class, changed.get(0));
+
+			// failed write does not notify observers
+			ContentValues values = new ContentValues();
+			values.put("display_name", "failed");
+			try {
+				mDbUtils.update(Account.class, "no_such_column=1", null, values);
+				fail("update of unknown column should fail");
+			} catch (SQLiteException e) {
+			}
+			assertEquals(1, changed.size());
+		} finally {
+			mDbUtils.unregisterTableObserver(listener);
+		}
+	}
+	
 	public void testTransaction(){
 		// add job
 		BatchJobs jobs = new BatchJobs();
@@ -167,4 +543,294 @@ public class DbTestCases extends AndroidTestCase{
 		
 		mDbUtils.executeBatchJobs(jobs);
 	}
+
+	public void testBatchJobsBindArgs(){
+		Account acc = new Account();
+		acc.password = "123456";
+		acc.phone_number = "15262430016";
+		acc.display_name = "what's up?";
+		long id = mDbUtils.save(Account.class, acc);
+
+		// values containing "?" and "'" are bound, not inlined into SQL
+		BatchJobs jobs = new BatchJobs();
+		ContentValues values = new ContentValues();
+		values.put(Account.COLUMN_PASSWORD, "?'?");
+		jobs.addUpdateJob(Account.class, Account.COLUMN_DISPLAYING_NAME + "=?",
+				new String[]{"what's up?"}, values);
+		mDbUtils.executeBatchJobs(jobs);
+
+		Account updated = mDbUtils.findById(Account.class, id);
+		assertEquals("?'?", updated.password);
+	}
+
+	public void testChunkedBatchJobs(){
+		BatchJobs jobs = new BatchJobs();
+		for (int i = 0; i < 25; i++) {
+			Account acc = new Account();
+			acc.password = "123456";
+			acc.phone_number = "15262430016";
+			acc.display_name = "chunk" + i;
+			jobs.addInsertJob(acc);
+		}
+
+		final int[] lastExecuted = new int[1];
+		final int[] chunks = new int[1];
+		mDbUtils.executeBatchJobs(jobs, 10, new BatchJobs.OnBatchProgressListener() {
+
+			@Override
+			public void onProgress(int executedCount, int totalCount, long chunkTimeMillis) {
+				assertTrue(executedCount > lastExecuted[0]);
+				lastExecuted[0] = executedCount;
+				chunks[0]++;
+			}
+		});
+		assertEquals(25, lastExecuted[0]);
+		assertEquals(3, chunks[0]);
+	}
+
+	public void testSchemaMigration(){
+		getContext().deleteDatabase(MigrationDbHelper.DATABASE_NAME);
+		MigrationDbHelper helper = new MigrationDbHelper(getContext(), 1, MigrationDbHelper.V1.class);
+		SQLiteDatabase db = helper.getWritableDatabase();
+		db.execSQL("INSERT INTO migration (name, legacy) VALUES ('a', 'old')");
+		db.execSQL("INSERT INTO migration (name, legacy) VALUES (NULL, 'old')");
+		helper.close();
+
+		// add column
+		helper = new MigrationDbHelper(getContext(), 2, MigrationDbHelper.V2.class);
+		db = helper.getWritableDatabase();
+		assertEquals("[_id, name, legacy, extra]", readColumnNames(db).toString());
+		assertEquals("[a, null]", readNames(db).toString());
+		helper.close();
+
+		// drop column
+		helper = new MigrationDbHelper(getContext(), 3, MigrationDbHelper.V3.class);
+		db = helper.getWritableDatabase();
+		assertEquals("[_id, name, extra]", readColumnNames(db).toString());
+		assertEquals("[a, null]", readNames(db).toString());
+		helper.close();
+
+		// NULL values of column which became not null are replaced by default value
+		helper = new MigrationDbHelper(getContext(), 4, MigrationDbHelper.V4.class);
+		db = helper.getWritableDatabase();
+		assertEquals("[a, unnamed]", readNames(db).toString());
+		// migration is recorded, and not run again when schema is not changed
+		db.execSQL("UPDATE _schema_migrations SET migrated_at = 0 WHERE table_name = ?",
+				new Object[] { MigrationDbHelper.TABLE_NAME });
+		helper.close();
+
+		helper = new MigrationDbHelper(getContext(), 5, MigrationDbHelper.V4.class);
+		db = helper.getWritableDatabase();
+		Cursor c = db.rawQuery("SELECT migrated_at FROM _schema_migrations WHERE table_name = ?",
+				new String[] { MigrationDbHelper.TABLE_NAME });
+		try {
+			assertTrue(c.moveToFirst());
+			assertEquals(0, c.getLong(0));
+		} finally {
+			c.close();
+		}
+		helper.close();
+
+		// NULL values of column which became not null without default value are refused
+		helper = new MigrationDbHelper(getContext(), 6, MigrationDbHelper.V5.class);
+		try {
+			helper.getWritableDatabase();
+			fail("column with NULL values cannot become not null without default value");
+		} catch (SQLiteException e) {
+		} finally {
+			helper.close();
+		}
+		// and the database is left unchanged
+		helper = new MigrationDbHelper(getContext(), 5, MigrationDbHelper.V4.class);
+		db = helper.getWritableDatabase();
+		assertEquals("[_id, name, extra]", readColumnNames(db).toString());
+		assertEquals("[a, unnamed]", readNames(db).toString());
+		helper.close();
+	}
+
+	private static List<String> readColumnNames(SQLiteDatabase db){
+		List<String> names = new ArrayList<String>();
+		Cursor c = db.rawQuery("PRAGMA table_info(" + MigrationDbHelper.TABLE_NAME + ")", null);
+		try {
+			while (c.moveToNext()) {
+				names.add(c.getString(c.getColumnIndex("name")));
+			}
+		} finally {
+			c.close();
+		}
+		return names;
+	}
+
+	private static List<String> readNames(SQLiteDatabase db){
+		List<String> names = new ArrayList<String>();
+		Cursor c = db.rawQuery("SELECT name FROM " + MigrationDbHelper.TABLE_NAME + " ORDER BY _id", null);
+		try {
+			while (c.moveToNext()) {
+				names.add(c.getString(0));
+			}
+		} finally {
+			c.close();
+		}
+		return names;
+	}
+
+	public void testAsyncCoalescedReads() throws Exception{
+		mDbUtils.deleteAll(Note.class);
+		assertTrue(mDbUtils.save(Note.class, new Note()) != Note.NOT_SAVED);
+
+		final AsyncDbUtils asyncDbUtils = new AsyncDbUtils(mDbUtils, null);
+		final RecordingCallback<List<Note>> first = new RecordingCallback<List<Note>>();
+		final RecordingCallback<List<Note>> second = new RecordingCallback<List<Note>>();
+		CountDownLatch release = blockDbExecutor();
+		runOnMainThread(new Runnable() {
+
+			@Override
+			public void run() {
+				asyncDbUtils.findAll(Note.class, first);
+				asyncDbUtils.findAll(Note.class, second);
+			}
+		});
+		release.countDown();
+
+		assertTrue(first.await());
+		assertTrue(second.await());
+		// the second read joins the first one and shares its result
+		assertSame(first.result, second.result);
+		assertEquals(1, first.result.size());
+	}
+
+	public void testAsyncWriteInvalidatesCoalescedReads() throws Exception{
+		mDbUtils.deleteAll(Note.class);
+		final AsyncDbUtils asyncDbUtils = new AsyncDbUtils(mDbUtils, null);
+		final RecordingCallback<List<Note>> before = new RecordingCallback<List<Note>>();
+		final RecordingCallback<Long> saved = new RecordingCallback<Long>();
+		final RecordingCallback<List<Note>> after = new RecordingCallback<List<Note>>();
+		CountDownLatch release = blockDbExecutor();
+		runOnMainThread(new Runnable() {
+
+			@Override
+			public void run() {
+				asyncDbUtils.findAll(Note.class, before);
+				asyncDbUtils.save(Note.class, new Note(), saved);
+				asyncDbUtils.findAll(Note.class, after);
+			}
+		});
+		release.countDown();
+
+		assertTrue(before.await());
+		assertTrue(saved.await());
+		assertTrue(after.await());
+		assertTrue(saved.result != Note.NOT_SAVED);
+		// read submitted after the write does not join the one before it
+		assertNotSame(before.result, after.result);
+	}
+
+	public void testAsyncCancel() throws Exception{
+		mDbUtils.deleteAll(Note.class);
+		final AsyncDbUtils asyncDbUtils = new AsyncDbUtils(mDbUtils, null);
+		final RecordingCallback<List<Note>> leader = new RecordingCallback<List<Note>>();
+		final RecordingCallback<List<Note>> joiner = new RecordingCallback<List<Note>>();
+		final RecordingCallback<List<Note>> cancelledJoiner = new RecordingCallback<List<Note>>();
+		final RecordingCallback<Long> saved = new RecordingCallback<Long>();
+		final List<ThreadWork<Void, Void, Exception, Long>> writes = new ArrayList<ThreadWork<Void, Void, Exception, Long>>();
+		CountDownLatch release = blockDbExecutor();
+		runOnMainThread(new Runnable() {
+
+			@Override
+			public void run() {
+				ThreadWork<Void, Void, Exception, List<Note>> read = asyncDbUtils.findAll(Note.class, leader);
+				asyncDbUtils.findAll(Note.class, joiner);
+				asyncDbUtils.findAll(Note.class, cancelledJoiner).cancel(true);
+				read.cancel(true);
+				ThreadWork<Void, Void, Exception, Long> write = asyncDbUtils.save(Note.class, new Note(), saved);
+				write.cancel(true);
+				writes.add(write);
+			}
+		});
+		release.countDown();
+
+		// cancelled write is still executed
+		ThreadWork<Void, Void, Exception, Long> write = writes.get(0);
+		long id = write.get();
+		assertTrue(id != Note.NOT_SAVED);
+		assertFalse(write.isCancelled());
+		assertNotNull(mDbUtils.findById(Note.class, id));
+
+		// the joined read keeps running for the joiner after it is cancelled
+		assertTrue(joiner.await());
+		// callbacks of the cancelled read and write are dropped
+		runOnMainThread(new Runnable() {
+
+			@Override
+			public void run() {
+			}
+		});
+		assertEquals(1, joiner.callCount);
+		assertEquals(0, leader.callCount);
+		assertEquals(0, cancelledJoiner.callCount);
+		assertEquals(0, saved.callCount);
+	}
+
+	/**
+	 * Occupy all threads of {@link AsyncDbUtils#DB_EXECUTOR}, so jobs submitted
+	 * later stay queued until the returned latch is released.
+	 */
+	private static CountDownLatch blockDbExecutor(){
+		final CountDownLatch release = new CountDownLatch(1);
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) AsyncDbUtils.DB_EXECUTOR;
+		for (int i = 0; i < executor.getCorePoolSize(); i++) {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		return release;
+	}
+
+	private static void runOnMainThread(final Runnable runnable) throws InterruptedException{
+		final CountDownLatch done = new CountDownLatch(1);
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+
+	private static class RecordingCallback<R> implements AsyncDbUtils.Callback<R> {
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile int callCount;
+		volatile R result;
+
+		@Override
+		public void onSuccess(R result) {
+			this.result = result;
+			callCount++;
+			done.countDown();
+		}
+
+		@Override
+		public void onError(Exception error) {
+			Log.e(TAG, "async job failed", error);
+			callCount++;
+			done.countDown();
+		}
+
+		boolean await() throws InterruptedException {
+			return done.await(10, TimeUnit.SECONDS) && result != null;
+		}
+	}
 }
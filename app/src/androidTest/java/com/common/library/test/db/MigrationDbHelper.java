@@ -0,0 +1,84 @@
+package com.common.library.test.db;
+
+import android.content.Context;
+
+import com.common.library.orm.annotation.Column;
+import com.common.library.orm.annotation.Table;
+import com.common.library.orm.sqlite.BaseDbHelper;
+import com.common.library.orm.sqlite.BaseTable;
+
+/**
+ * Opens a database holding one version of table "migration", so upgrades
+ * between versions can be tested.
+ */
+public class MigrationDbHelper extends BaseDbHelper {
+	public static final String DATABASE_NAME = "migration_test.db";
+	public static final String TABLE_NAME = "migration";
+
+	public MigrationDbHelper(Context context, int version, Class<? extends BaseTable> tableClass) {
+		super(context, DATABASE_NAME, version);
+		addTableClass(tableClass);
+	}
+
+	@Table(name = TABLE_NAME)
+	public static class V1 extends BaseTable {
+		private static final long serialVersionUID = 1L;
+
+		@Column
+		public String name;
+
+		@Column
+		public String legacy;
+	}
+
+	// column added
+	@Table(name = TABLE_NAME)
+	public static class V2 extends BaseTable {
+		private static final long serialVersionUID = 1L;
+
+		@Column
+		public String name;
+
+		@Column
+		public String legacy;
+
+		@Column
+		public String extra;
+	}
+
+	// column dropped
+	@Table(name = TABLE_NAME)
+	public static class V3 extends BaseTable {
+		private static final long serialVersionUID = 1L;
+
+		@Column
+		public String name;
+
+		@Column
+		public String extra;
+	}
+
+	// column became not null with a default value
+	@Table(name = TABLE_NAME)
+	public static class V4 extends BaseTable {
+		private static final long serialVersionUID = 1L;
+
+		@Column(notNull = true, defaultValue = "unnamed")
+		public String name;
+
+		@Column
+		public String extra;
+	}
+
+	// column became not null without a default value
+	@Table(name = TABLE_NAME)
+	public static class V5 extends BaseTable {
+		private static final long serialVersionUID = 1L;
+
+		@Column(notNull = true, defaultValue = "unnamed")
+		public String name;
+
+		@Column(notNull = true)
+		public String extra;
+	}
+}
@@ -0,0 +1,17 @@
+package com.common.library.test.db;
+
+import com.common.library.orm.annotation.Column;
+import com.common.library.orm.annotation.DefaultOrderBy;
+import com.common.library.orm.annotation.Table;
+import com.common.library.orm.sqlite.BaseTable;
+
+@Table(name = "note")
+public class Note extends BaseTable {
+	private static final long serialVersionUID = 1L;
+	public static final String COLUMN_TITLE = "title";
+
+	// nullable sort key, so paging across null and non-null keys is tested
+	@Column
+	@DefaultOrderBy(sortType = DefaultOrderBy.ASC)
+	public String title;
+}
@@ -5,7 +5,7 @@ import com.common.library.orm.annotation.Foreign;
 import com.common.library.orm.annotation.Table;
 import com.common.library.orm.sqlite.BaseTable;
 
-@Table(name = "permission")
+@Table(name = "permission", cacheable = true)
 public class Permission extends BaseTable {
 
 	private static final long serialVersionUID = 1L;
@@ -0,0 +1,20 @@
+package com.common.library.test.db;
+
+import com.common.library.orm.annotation.Column;
+import com.common.library.orm.annotation.FullTextSearch;
+import com.common.library.orm.annotation.Table;
+import com.common.library.orm.sqlite.BaseTable;
+
+@Table(name = "tag")
+public class Tag extends BaseTable {
+	private static final long serialVersionUID = 1L;
+	public static final String COLUMN_CODE = "code";
+	public static final String COLUMN_NAME = "name";
+
+	@Column(unique = true)
+	public String code;
+
+	@Column
+	@FullTextSearch
+	public String name;
+}
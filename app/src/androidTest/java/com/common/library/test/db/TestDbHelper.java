@@ -7,7 +7,7 @@ import com.common.library.orm.sqlite.BaseDbHelper;
 
 public class TestDbHelper extends BaseDbHelper {
 	private static final String DATABASE_NAME = "mict_partient.db";
-	private static final int VERSION = 1;
+	private static final int VERSION = 3;
 	private static TestDbHelper instance;
 	
 	public static TestDbHelper getDbHelper(Context context){
@@ -27,10 +27,13 @@ public class TestDbHelper extends BaseDbHelper {
 	protected void onSQLiteOpen() {
 		addTableClass(Account.class);
 		addTableClass(Permission.class);
+		addTableClass(Note.class);
+		addTableClass(Tag.class);
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		super.onUpgrade(db, oldVersion, newVersion);
 	}
 
 }
@@ -1,29 +1,488 @@
 package com.common.library.test.http;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.common.library.http.HttpDispatcher;
 import com.common.library.http.body.ByteArrayBody;
 import com.common.library.http.body.FileBody;
 import com.common.library.http.body.JsonBody;
 import com.common.library.http.body.TextBody;
 import com.common.library.http.body.UrlEncodedFormBody;
 import com.common.library.http.body.multipart.MultipartBody;
+import com.common.library.http.httpclient.AbstractHttpClient;
 import com.common.library.http.httpclient.ByteArrayHttpClient;
+import com.common.library.http.httpclient.GsonHttpClient;
 import com.common.library.http.httpclient.JsonHttpClient;
 import com.common.library.http.httpclient.TextHttpClient;
 import com.common.library.http.method.GetMethod;
 import com.common.library.http.method.HttpMethod;
 import com.common.library.http.method.PostMethod;
+import com.common.library.http.transport.CachingTransport;
+import com.common.library.http.transport.ConnectionPool;
+import com.common.library.http.transport.PooledTransport;
+import com.common.library.http.transport.ResponseCache;
+import com.common.library.http.transport.UrlConnectionTransport;
 import com.common.library.io.OnProgressListener;
 
 import android.test.AndroidTestCase;
 
 public class HttpTests extends AndroidTestCase{
 
+	/**
+	 * Start a loopback server which answers every request of a connection
+	 * with the given response, until the connection is closed.
+	 */
+	private static ServerSocket startLoopbackServer(final String response, final AtomicInteger acceptedCount)
+			throws IOException {
+		return startLoopbackServer(response, acceptedCount, 0);
+	}
+
+	private static ServerSocket startLoopbackServer(final String response, final AtomicInteger acceptedCount,
+			final long delayMillis) throws IOException {
+		return startLoopbackServer(response, null, acceptedCount, delayMillis);
+	}
+
+	/**
+	 * @param conditionalResponse
+	 *            sent for requests with If-None-Match header, null to send
+	 *            response.
+	 */
+	private static ServerSocket startLoopbackServer(final String response, final String conditionalResponse,
+			final AtomicInteger acceptedCount, final long delayMillis) throws IOException {
+		final ServerSocket server = new ServerSocket(0);
+		new Thread("loopback server") {
+			@Override
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						final Socket socket = server.accept();
+						acceptedCount.incrementAndGet();
+						new Thread("loopback connection") {
+							@Override
+							public void run() {
+								try {
+									BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+									OutputStream out = socket.getOutputStream();
+									String line;
+									boolean conditional = false;
+									while ((line = reader.readLine()) != null) {
+										if (line.toLowerCase().startsWith("if-none-match:")) {
+											conditional = true;
+										} else if (line.length() == 0) {
+											Thread.sleep(delayMillis);
+											String sent = conditional && conditionalResponse != null ? conditionalResponse
+													: response;
+											out.write(sent.getBytes("ISO-8859-1"));
+											out.flush();
+											conditional = false;
+										}
+									}
+									socket.close();
+								} catch (IOException e) {
+									// connection closed by client
+								} catch (InterruptedException e) {
+								}
+							}
+						}.start();
+					} catch (IOException e) {
+						// server closed
+					}
+				}
+			}
+		}.start();
+		return server;
+	}
+
+	/**
+	 * Start a loopback server which reads body of every request by its
+	 * Content-Length and sends it back as response body.
+	 */
+	private static ServerSocket startEchoServer(final AtomicInteger acceptedCount) throws IOException {
+		final ServerSocket server = new ServerSocket(0);
+		new Thread("echo server") {
+			@Override
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						final Socket socket = server.accept();
+						acceptedCount.incrementAndGet();
+						new Thread("echo connection") {
+							@Override
+							public void run() {
+								try {
+									DataInputStream in = new DataInputStream(socket.getInputStream());
+									OutputStream out = socket.getOutputStream();
+									String line;
+									int contentLength = 0;
+									while ((line = readLine(in)) != null) {
+										if (line.toLowerCase().startsWith("content-length:")) {
+											contentLength = Integer.parseInt(line.substring(15).trim());
+										} else if (line.length() == 0) {
+											byte[] body = new byte[contentLength];
+											in.readFully(body);
+											out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + contentLength + "\r\n\r\n")
+													.getBytes("ISO-8859-1"));
+											out.write(body);
+											out.flush();
+											contentLength = 0;
+										}
+									}
+									socket.close();
+								} catch (IOException e) {
+									// connection closed by client
+								}
+							}
+						}.start();
+					} catch (IOException e) {
+						// server closed
+					}
+				}
+			}
+		}.start();
+		return server;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != -1) {
+			if (b == '\n') {
+				return line.toString();
+			} else if (b != '\r') {
+				line.append((char) b);
+			}
+		}
+		return line.length() > 0 ? line.toString() : null;
+	}
+
+	public void testPooledTransportReuse() throws IOException{
+		AtomicInteger acceptedCount = new AtomicInteger();
+		ServerSocket server = startLoopbackServer("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello", acceptedCount);
+		try {
+			ConnectionPool pool = new ConnectionPool();
+			TextHttpClient client = new TextHttpClient();
+			client.setTransport(new PooledTransport(pool));
+			for (int i = 0; i < 3; i++) {
+				assertEquals("hello", client.execute(new GetMethod("http://127.0.0.1:" + server.getLocalPort() + "/")));
+			}
+			assertEquals(1, acceptedCount.get());
+			assertEquals(1, pool.getCreatedCount());
+			assertEquals(2, pool.getReusedCount());
+			assertEquals(1, pool.getIdleConnectionCount());
+
+			pool.evictAll();
+			assertEquals(0, pool.getIdleConnectionCount());
+		} finally {
+			server.close();
+		}
+	}
+
+	public void testRedirectBodyReturned() throws IOException{
+		AtomicInteger acceptedCount = new AtomicInteger();
+		ServerSocket server = startLoopbackServer("HTTP/1.1 302 Found\r\nLocation: /moved\r\nContent-Length: 5\r\n\r\nmoved",
+				acceptedCount);
+		try {
+			String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+			// pooled transport is opt-in
+			assertTrue(AbstractHttpClient.getDefaultTransport() instanceof UrlConnectionTransport);
+			TextHttpClient client = new TextHttpClient();
+			client.setCoalesceRequests(false);
+			assertEquals("moved", client.execute(new GetMethod(url)));
+
+			client.setTransport(new PooledTransport(new ConnectionPool()));
+			assertEquals("moved", client.execute(new GetMethod(url)));
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Send the same GET request with every client at the same time.
+	 */
+	private static String[] executeConcurrently(final TextHttpClient[] clients, final String url)
+			throws InterruptedException {
+		final String[] results = new String[clients.length];
+		Thread[] threads = new Thread[clients.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					GetMethod method = new GetMethod(url);
+					method.addFormData("key", "value");
+					try {
+						results[index] = clients[index].execute(method);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return results;
+	}
+
+	public void testCoalesceIdenticalGets() throws Exception{
+		AtomicInteger acceptedCount = new AtomicInteger();
+		final ServerSocket server = startLoopbackServer("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello",
+				acceptedCount, 300);
+		try {
+			String url = "http://127.0.0.1:" + server.getLocalPort() + "/same";
+			TextHttpClient client = new TextHttpClient();
+			client.setTransport(new PooledTransport(new ConnectionPool()));
+			for (String result : executeConcurrently(new TextHttpClient[] { client, client, client }, url)) {
+				assertEquals("hello", result);
+			}
+			assertEquals(1, acceptedCount.get());
+
+			// requests on different transports are not shared
+			TextHttpClient other = new TextHttpClient();
+			other.setTransport(new PooledTransport(new ConnectionPool()));
+			for (String result : executeConcurrently(new TextHttpClient[] { client, other }, url)) {
+				assertEquals("hello", result);
+			}
+			assertEquals(2, acceptedCount.get());
+		} finally {
+			server.close();
+		}
+	}
+
+	public void testResponseCache() throws IOException{
+		AtomicInteger acceptedCount = new AtomicInteger();
+		ServerSocket fresh = startLoopbackServer(
+				"HTTP/1.1 200 OK\r\nContent-Length: 5\r\nCache-Control: max-age=60\r\n\r\nhello", acceptedCount);
+		ServerSocket stale = startLoopbackServer(
+				"HTTP/1.1 200 OK\r\nContent-Length: 5\r\nCache-Control: max-age=0\r\nETag: \"v1\"\r\n\r\nhello",
+				"HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n", acceptedCount, 0);
+		ResponseCache cache = ResponseCache.open(new File(getContext().getCacheDir(), "response-cache-test"),
+				1024 * 1024);
+		try {
+			TextHttpClient client = new TextHttpClient();
+			client.setTransport(new CachingTransport(new PooledTransport(new ConnectionPool()), cache));
+			for (int i = 0; i < 3; i++) {
+				assertEquals("hello", client.execute(new GetMethod("http://127.0.0.1:" + fresh.getLocalPort() + "/fresh")));
+				assertEquals("hello", client.execute(new GetMethod("http://127.0.0.1:" + stale.getLocalPort() + "/stale")));
+			}
+			assertEquals(6, cache.getRequestCount());
+			assertEquals(2, cache.getMissCount());
+			// fresh response is served from cache, stale one is revalidated
+			assertEquals(2, cache.getHitCount());
+			assertEquals(2, cache.getConditionalHitCount());
+		} finally {
+			fresh.close();
+			stale.close();
+			cache.delete();
+		}
+	}
+
+	public void testResponseCacheStorage() throws IOException{
+		AtomicInteger acceptedCount = new AtomicInteger();
+		String json = "{\"name\":\"hello\",\"count\":3}";
+		ServerSocket server = startLoopbackServer("HTTP/1.1 200 OK\r\nContent-Length: " + json.length()
+				+ "\r\nCache-Control: max-age=60\r\n\r\n" + json, acceptedCount);
+		ServerSocket privateServer = startLoopbackServer("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n"
+				+ "Cache-Control: private, max-age=60\r\n\r\nhello", acceptedCount);
+		ResponseCache cache = ResponseCache.open(new File(getContext().getCacheDir(), "response-cache-storage-test"),
+				1024 * 1024);
+		try {
+			CachingTransport transport = new CachingTransport(new PooledTransport(new ConnectionPool()), cache);
+			// Gson stops at the end of JSON without reading end of stream
+			GsonHttpClient<Greeting> gsonClient = new GsonHttpClient<Greeting>(Greeting.class);
+			gsonClient.setTransport(transport);
+			for (int i = 0; i < 2; i++) {
+				assertEquals(3, gsonClient.execute(new GetMethod("http://127.0.0.1:" + server.getLocalPort() + "/json")).count);
+			}
+			assertEquals(1, cache.getHitCount());
+
+			TextHttpClient client = new TextHttpClient();
+			client.setTransport(transport);
+			for (int i = 0; i < 2; i++) {
+				assertEquals("hello", client.execute(new GetMethod("http://127.0.0.1:" + privateServer.getLocalPort()
+						+ "/private")));
+			}
+			assertEquals(1, cache.getHitCount());
+
+			// response to request with Authorization may differ by user, it bypasses cache
+			int requestCount = cache.getRequestCount();
+			GetMethod method = new GetMethod("http://127.0.0.1:" + server.getLocalPort() + "/json");
+			method.addHeader("Authorization", "Bearer token");
+			assertEquals(3, gsonClient.execute(method).count);
+			assertEquals(requestCount, cache.getRequestCount());
+		} finally {
+			server.close();
+			privateServer.close();
+			cache.delete();
+		}
+	}
+
+	public static class Greeting {
+		String name;
+		int count;
+	}
+
+	public void testGsonHttpClient() throws IOException{
+		AtomicInteger acceptedCount = new AtomicInteger();
+		String json = "{\"name\":\"hello\",\"count\":3}";
+		ServerSocket server = startLoopbackServer("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: "
+				+ json.length() + "\r\n\r\n" + json, acceptedCount);
+		try {
+			GsonHttpClient<Greeting> client = new GsonHttpClient<Greeting>(Greeting.class);
+			client.setTransport(new PooledTransport(new ConnectionPool()));
+			GetMethod method = new GetMethod("http://127.0.0.1:" + server.getLocalPort() + "/greeting");
+			method.setCharset("UTF-8");
+			Greeting greeting = client.execute(method);
+			assertEquals("hello", greeting.name);
+			assertEquals(3, greeting.count);
+		} finally {
+			server.close();
+		}
+	}
+
+	public void testMultipartContentLength() throws IOException{
+		File file = new File(getContext().getCacheDir(), "multipart-test.bin");
+		byte[] data = new byte[200 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+
+		try {
+			MultipartBody body = new MultipartBody();
+			body.addPart("text", new TextBody("hello"));
+			body.addPart("bytes", new ByteArrayBody(new byte[] { 1, 2, 3 }));
+			body.addPart("file", new FileBody(file));
+
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			body.writeTo(encoded);
+			assertEquals(encoded.size(), body.getContentLength());
+
+			String content = new String(encoded.toByteArray(), "ISO-8859-1");
+			assertTrue(content.contains("name=\"text\"\r\n\r\nhello\r\n"));
+			assertTrue(content.contains("filename=\"multipart-test.bin\""));
+			assertTrue(content.endsWith("--\r\n"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testPooledTransportPostBody() throws IOException{
+		AtomicInteger acceptedCount = new AtomicInteger();
+		ServerSocket server = startEchoServer(acceptedCount);
+		try {
+			ConnectionPool pool = new ConnectionPool();
+			TextHttpClient client = new TextHttpClient();
+			client.setTransport(new PooledTransport(pool));
+			String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+
+			// Content-Length is counted in bytes, otherwise the next request is read as rest of this body
+			PostMethod method = new PostMethod(url);
+			method.setBody(new TextBody("\u4f60\u597d, world"));
+			assertEquals("\u4f60\u597d, world", client.execute(method));
+
+			UrlEncodedFormBody form = new UrlEncodedFormBody();
+			form.addFormData("name", "\u5f20\u4e09");
+			method = new PostMethod(url);
+			method.setBody(form);
+			assertEquals("name=%E5%BC%A0%E4%B8%89", client.execute(method));
+			assertEquals(1, acceptedCount.get());
+			assertEquals(1, pool.getIdleConnectionCount());
+
+			// body shorter than its Content-Length fails, and its connection is not reused
+			method = new PostMethod(url);
+			method.setBody(new ByteArrayBody(new byte[] { 1, 2, 3 }) {
+				@Override
+				public long getContentLength() {
+					return 10;
+				}
+			});
+			try {
+				client.execute(method);
+				fail("body shorter than Content-Length should fail");
+			} catch (IOException e) {
+			}
+			assertEquals(0, pool.getIdleConnectionCount());
+		} finally {
+			server.close();
+		}
+	}
+
+	public void testPooledTransportChunked() throws IOException{
+		AtomicInteger acceptedCount = new AtomicInteger();
+		ServerSocket server = startLoopbackServer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n", acceptedCount);
+		try {
+			ConnectionPool pool = new ConnectionPool();
+			TextHttpClient client = new TextHttpClient();
+			client.setTransport(new PooledTransport(pool));
+			for (int i = 0; i < 2; i++) {
+				assertEquals("hello world", client.execute(new GetMethod("http://127.0.0.1:" + server.getLocalPort())));
+			}
+			assertEquals(1, pool.getCreatedCount());
+		} finally {
+			server.close();
+		}
+	}
+
+	public void testDispatcherLimits() throws InterruptedException{
+		HttpDispatcher dispatcher = new HttpDispatcher(2, 1, 1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(3);
+		Runnable blocking = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+				finished.countDown();
+			}
+		};
+
+		dispatcher.dispatch(blocking, "a", HttpDispatcher.PRIORITY_UI);
+		// waits for host "a"
+		dispatcher.dispatch(blocking, "a", HttpDispatcher.PRIORITY_UI);
+		dispatcher.dispatch(blocking, "b", HttpDispatcher.PRIORITY_BACKGROUND);
+		assertEquals(2, dispatcher.getRunningCount());
+		assertEquals(1, dispatcher.getQueuedCount(HttpDispatcher.PRIORITY_UI));
+
+		try {
+			dispatcher.dispatch(blocking, "c", HttpDispatcher.PRIORITY_UI);
+			fail("lane is full");
+		} catch (RejectedExecutionException e) {
+			assertEquals(1, dispatcher.getRejectedCount(HttpDispatcher.PRIORITY_UI));
+		}
+
+		release.countDown();
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertEquals(0, dispatcher.getQueuedCount(HttpDispatcher.PRIORITY_UI));
+		assertEquals(2, dispatcher.getDispatchedCount(HttpDispatcher.PRIORITY_UI));
+	}
+
 	public void testGetMethod(){
 		TextHttpClient client = new TextHttpClient();
 		
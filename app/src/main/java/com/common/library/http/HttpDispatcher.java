@@ -0,0 +1,300 @@
+package com.common.library.http;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.SystemClock;
+
+/**
+ * Dispatcher of HTTP requests with bounded concurrency.
+ * <p>
+ * At most {@link #getMaxRequests()} requests run at the same time, and at
+ * most {@link #getMaxRequestsPerHost()} of them to the same host. Waiting
+ * requests are queued in priority lanes, {@link #PRIORITY_UI} requests always
+ * run before {@link #PRIORITY_PREFETCH} ones, which run before
+ * {@link #PRIORITY_BACKGROUND} ones, and background requests may use only half
+ * of the slots so UI requests never wait behind a long sync. When a lane is
+ * full, new requests are rejected with {@link RejectedExecutionException}
+ * instead of being dropped silently.
+ *
+ * <pre>
+ * Executor executor = HttpDispatcher.getDefault().getExecutor(method.getUrl(), HttpDispatcher.PRIORITY_PREFETCH);
+ * task.executeOnExecutor(executor, method);
+ * </pre>
+ *
+ */
+public final class HttpDispatcher {
+	/** Priority lanes, request in lower lane runs first. */
+	public static final int PRIORITY_UI = 0;
+	public static final int PRIORITY_PREFETCH = 1;
+	public static final int PRIORITY_BACKGROUND = 2;
+	private static final int LANE_COUNT = 3;
+
+	public static final int DEFAULT_MAX_REQUESTS = 16;
+	public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+	public static final int DEFAULT_MAX_QUEUED_PER_LANE = 256;
+
+	private static HttpDispatcher sDefault;
+
+	private final int maxRequests;
+	private final int maxRequestsPerHost;
+	private final int maxBackgroundRequests;
+	private final int maxQueuedPerLane;
+	private final ThreadPoolExecutor executor;
+
+	private final LinkedList<Call>[] lanes;
+	private final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+	private int runningCount;
+	private int runningBackgroundCount;
+
+	// metrics of each lane
+	private final long[] dispatchedCounts = new long[LANE_COUNT];
+	private final long[] totalWaitMillis = new long[LANE_COUNT];
+	private final long[] maxWaitMillis = new long[LANE_COUNT];
+	private final long[] rejectedCounts = new long[LANE_COUNT];
+
+	private final class Call implements Runnable {
+		final Runnable runnable;
+		final String host;
+		final int priority;
+		final long enqueuedAt = SystemClock.uptimeMillis();
+
+		Call(Runnable runnable, String host, int priority) {
+			this.runnable = runnable;
+			this.host = host;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			try {
+				runnable.run();
+			} finally {
+				finished(this);
+			}
+		}
+	}
+
+	public HttpDispatcher() {
+		this(DEFAULT_MAX_REQUESTS, DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_MAX_QUEUED_PER_LANE);
+	}
+
+	/**
+	 * @param maxRequests
+	 *            max count of requests running at the same time
+	 * @param maxRequestsPerHost
+	 *            max count of requests to the same host running at the same
+	 *            time
+	 * @param maxQueuedPerLane
+	 *            max count of waiting requests of each priority lane
+	 */
+	@SuppressWarnings("unchecked")
+	public HttpDispatcher(int maxRequests, int maxRequestsPerHost, int maxQueuedPerLane) {
+		if (maxRequests <= 0 || maxRequestsPerHost <= 0 || maxQueuedPerLane <= 0) {
+			throw new IllegalArgumentException("Limits of dispatcher must be positive");
+		}
+		this.maxRequests = maxRequests;
+		this.maxRequestsPerHost = maxRequestsPerHost;
+		this.maxBackgroundRequests = Math.max(1, maxRequests / 2);
+		this.maxQueuedPerLane = maxQueuedPerLane;
+		this.lanes = new LinkedList[LANE_COUNT];
+		for (int i = 0; i < LANE_COUNT; i++) {
+			lanes[i] = new LinkedList<Call>();
+		}
+
+		// concurrency is limited by the dispatcher itself, so the executor never queues or rejects
+		this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger(1);
+
+					@Override
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "HttpDispatcher #" + mCount.getAndIncrement());
+					}
+				});
+	}
+
+	/**
+	 * @return dispatcher shared by {@link HttpTask}.
+	 */
+	public static synchronized HttpDispatcher getDefault() {
+		if (sDefault == null) {
+			sDefault = new HttpDispatcher();
+		}
+		return sDefault;
+	}
+
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	public int getMaxRequestsPerHost() {
+		return maxRequestsPerHost;
+	}
+
+	/**
+	 * Get an executor which dispatches runnables as requests to host of URL
+	 * with priority, e.g. for
+	 * {@link com.common.library.thread.ThreadWork#executeOnExecutor(Executor, Object...)}.
+	 * 
+	 * @param url
+	 *            request URL
+	 * @param priority
+	 *            one of {@link #PRIORITY_UI}, {@link #PRIORITY_PREFETCH} and
+	 *            {@link #PRIORITY_BACKGROUND}
+	 * @return executor whose execute() throws
+	 *         {@link RejectedExecutionException} if the lane is full.
+	 */
+	public Executor getExecutor(String url, final int priority) {
+		final String host = getHost(url);
+		return new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				dispatch(command, host, priority);
+			}
+		};
+	}
+
+	/**
+	 * Run the runnable as a request to host when a slot is free.
+	 * 
+	 * @param runnable
+	 * @param host
+	 * @param priority
+	 *            one of {@link #PRIORITY_UI}, {@link #PRIORITY_PREFETCH} and
+	 *            {@link #PRIORITY_BACKGROUND}
+	 * @throws RejectedExecutionException
+	 *             if too many requests are waiting in the lane.
+	 */
+	public void dispatch(Runnable runnable, String host, int priority) {
+		if (priority < PRIORITY_UI || priority > PRIORITY_BACKGROUND) {
+			throw new IllegalArgumentException("Unknown priority: " + priority);
+		}
+
+		synchronized (this) {
+			if (lanes[priority].size() >= maxQueuedPerLane) {
+				rejectedCounts[priority]++;
+				throw new RejectedExecutionException("Too many requests waiting in lane " + priority + ", limit is "
+						+ maxQueuedPerLane);
+			}
+			lanes[priority].add(new Call(runnable, host, priority));
+		}
+		promoteCalls();
+	}
+
+	private void finished(Call call) {
+		synchronized (this) {
+			runningCount--;
+			if (call.priority == PRIORITY_BACKGROUND) {
+				runningBackgroundCount--;
+			}
+			int hostCount = runningPerHost.get(call.host) - 1;
+			if (hostCount == 0) {
+				runningPerHost.remove(call.host);
+			} else {
+				runningPerHost.put(call.host, hostCount);
+			}
+		}
+		promoteCalls();
+	}
+
+	/**
+	 * Move waiting calls to executor while there are free slots, lanes are
+	 * scanned by priority, calls to busy hosts are skipped.
+	 */
+	private void promoteCalls() {
+		LinkedList<Call> ready = new LinkedList<Call>();
+		synchronized (this) {
+			long now = SystemClock.uptimeMillis();
+			for (int priority = 0; priority < LANE_COUNT && runningCount < maxRequests; priority++) {
+				Iterator<Call> iterator = lanes[priority].iterator();
+				while (iterator.hasNext() && runningCount < maxRequests) {
+					if (priority == PRIORITY_BACKGROUND && runningBackgroundCount >= maxBackgroundRequests) {
+						break;
+					}
+					Call call = iterator.next();
+					Integer hostCount = runningPerHost.get(call.host);
+					if (hostCount != null && hostCount >= maxRequestsPerHost) {
+						continue;
+					}
+
+					iterator.remove();
+					runningCount++;
+					if (priority == PRIORITY_BACKGROUND) {
+						runningBackgroundCount++;
+					}
+					runningPerHost.put(call.host, hostCount == null ? 1 : hostCount + 1);
+
+					long waitMillis = now - call.enqueuedAt;
+					dispatchedCounts[priority]++;
+					totalWaitMillis[priority] += waitMillis;
+					maxWaitMillis[priority] = Math.max(maxWaitMillis[priority], waitMillis);
+					ready.add(call);
+				}
+			}
+		}
+
+		for (Call call : ready) {
+			executor.execute(call);
+		}
+	}
+
+	/**
+	 * @return count of requests waiting in lane.
+	 */
+	public synchronized int getQueuedCount(int priority) {
+		return lanes[priority].size();
+	}
+
+	public synchronized int getRunningCount() {
+		return runningCount;
+	}
+
+	/**
+	 * @return count of requests which were dispatched from lane.
+	 */
+	public synchronized long getDispatchedCount(int priority) {
+		return dispatchedCounts[priority];
+	}
+
+	/**
+	 * @return average milliseconds requests of lane waited before running.
+	 */
+	public synchronized long getAverageWaitMillis(int priority) {
+		return dispatchedCounts[priority] == 0 ? 0 : totalWaitMillis[priority] / dispatchedCounts[priority];
+	}
+
+	/**
+	 * @return max milliseconds a request of lane waited before running.
+	 */
+	public synchronized long getMaxWaitMillis(int priority) {
+		return maxWaitMillis[priority];
+	}
+
+	/**
+	 * @return count of requests rejected because lane was full.
+	 */
+	public synchronized long getRejectedCount(int priority) {
+		return rejectedCounts[priority];
+	}
+
+	private static String getHost(String url) {
+		try {
+			return new URL(url).getHost();
+		} catch (MalformedURLException e) {
+			return url;
+		}
+	}
+}
@@ -5,12 +5,12 @@ import java.io.IOException;
 import android.util.Log;
 
 import com.common.library.http.HttpTask.TaskResponse;
+import com.common.library.http.httpclient.GsonHttpClient;
 import com.common.library.http.httpclient.TextHttpClient;
 import com.common.library.http.method.GetMethod;
 import com.common.library.http.method.HttpMethod;
 import com.common.library.http.method.PostMethod;
 import com.common.library.thread.ThreadWork;
-import com.google.gson.Gson;
 
 public abstract class HttpTask extends ThreadWork<HttpMethod, Void, String, TaskResponse> {
 	private static final String TAG = "HttpTask";
@@ -54,12 +54,36 @@ public abstract class HttpTask extends ThreadWork<HttpMethod, Void, String, Task
 		}
 	}
 	
+	/**
+	 * Send request with {@link HttpDispatcher#PRIORITY_UI}, see
+	 * {@link #doRequest(HttpMethod, int, boolean)}.
+	 */
 	public void doRequest(HttpMethod method, boolean cancelPreviewTasks) {
-		executeParallel(cancelPreviewTasks, method);
+		doRequest(method, HttpDispatcher.PRIORITY_UI, cancelPreviewTasks);
 	}
 	
 	public void doRequest(HttpMethod method) {
-		executeParallel(false, method);
+		doRequest(method, HttpDispatcher.PRIORITY_UI, false);
+	}
+
+	/**
+	 * Send request through the default {@link HttpDispatcher} in priority
+	 * lane. If too many requests are waiting in the lane, the request is
+	 * rejected and {@link #onCancelled(Object)} is called instead.
+	 * 
+	 * @param method
+	 * @param priority
+	 *            one of {@link HttpDispatcher#PRIORITY_UI},
+	 *            {@link HttpDispatcher#PRIORITY_PREFETCH} and
+	 *            {@link HttpDispatcher#PRIORITY_BACKGROUND}
+	 * @param cancelPreviewTasks
+	 *            whether to cancel previous tasks of the same class tracked
+	 *            by the same tracker, they are kept if this request is
+	 *            rejected.
+	 */
+	public void doRequest(HttpMethod method, int priority, boolean cancelPreviewTasks) {
+		executeOnExecutor(HttpDispatcher.getDefault().getExecutor(method.getUrl(), priority), cancelPreviewTasks,
+				method);
 	}
 
 	public static class TaskResponse {
@@ -80,11 +104,11 @@ public abstract class HttpTask extends ThreadWork<HttpMethod, Void, String, Task
 		}
 
 		public <T> T getRequest(Class<T> requestClass) {
-			return new Gson().fromJson(request, requestClass);
+			return GsonHttpClient.getGson().fromJson(request, requestClass);
 		}
 
 		public <T> T getResponseContent(Class<T> responseClass) {
-			return new Gson().fromJson(response, responseClass);
+			return GsonHttpClient.getGson().fromJson(response, responseClass);
 		}
 	}
 
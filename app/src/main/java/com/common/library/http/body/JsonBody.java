@@ -24,9 +24,4 @@ public class JsonBody extends TextBody {
 		return text;
 	}
 
-	@Override
-	public long getContentLength() {
-		return text.length();
-	}
-
 }
@@ -2,10 +2,13 @@ package com.common.library.http.body;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 
 import com.common.library.http.ContentType;
 
 public class TextBody extends HttpBody {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	protected String text;
 	
 	public TextBody(String text) {
@@ -24,15 +27,30 @@ public class TextBody extends HttpBody {
 
 	@Override
 	public long getContentLength() {
-		return text.length();
+		return getBytes().length;
 	}
 
 	@Override
 	public void writeTo(OutputStream outputStream) throws IOException {
-		outputStream.write(text.getBytes());
+		outputStream.write(getBytes());
 		outputStream.flush();
 	}
 
+	/**
+	 * Encoded text to be written, content length is counted in bytes of it
+	 * instead of chars.
+	 */
+	protected byte[] getBytes() {
+		return getText().getBytes(UTF_8);
+	}
+
+	/**
+	 * Text to be written, it is {@link #text} by default.
+	 */
+	protected String getText() {
+		return text;
+	}
+
 	@Override
 	public boolean isStreaming() {
 		return false;
@@ -1,7 +1,5 @@
 package com.common.library.http.body;
 
-import java.io.IOException;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.HashMap;
@@ -55,12 +53,9 @@ public class UrlEncodedFormBody extends TextBody {
 	}
 
 	@Override
-	public void writeTo(OutputStream outputStream) throws IOException {
-		String dataToWrite = buildFormDataParams(formData);
-		if(dataToWrite != null && dataToWrite.length() > 0){
-			outputStream.write(dataToWrite.getBytes());
-			outputStream.flush();
-		}
+	protected String getText() {
+		String content = getContent();
+		return content == null ? "" : content;
 	}
 	
 	private String buildFormDataParams(Map<String, String> properties) throws UnsupportedEncodingException {
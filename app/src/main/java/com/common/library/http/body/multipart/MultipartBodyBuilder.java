@@ -8,6 +8,7 @@ import com.common.library.http.body.HttpBody;
 class MultipartBodyBuilder {
 	private List<WrappedFormBody> bodyParts = null;
 	private String boundary;
+	private HttpBody body;
 
 	public static MultipartBodyBuilder create(String boundary) {
 		return new MultipartBodyBuilder(boundary);
@@ -18,7 +19,7 @@ class MultipartBodyBuilder {
 		this.boundary = boundary;
 	}
 
-	public MultipartBodyBuilder addPart(String fieldName, final HttpBody bodyPart) {
+	public synchronized MultipartBodyBuilder addPart(String fieldName, final HttpBody bodyPart) {
 		if (bodyPart == null) {
 			return this;
 		}
@@ -26,11 +27,19 @@ class MultipartBodyBuilder {
 			this.bodyParts = new ArrayList<WrappedFormBody>();
 		}
 		this.bodyParts.add(new WrappedFormBody(fieldName, bodyPart));
+		this.body = null;
 		return this;
 	}
 
-	public HttpBody build() {
-		return new MultipartFormBody(boundary, bodyParts);
+	/**
+	 * @return body of the parts, it is built again only after a part is added,
+	 *         so its length and content are encoded once.
+	 */
+	public synchronized HttpBody build() {
+		if (body == null) {
+			body = new MultipartFormBody(boundary, bodyParts);
+		}
+		return body;
 	}
 
 }
@@ -1,18 +1,41 @@
 package com.common.library.http.body.multipart;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.List;
 
 import com.common.library.http.body.FileBody;
 import com.common.library.http.body.HttpBody;
+import com.common.library.http.body.InputStreamBody;
 import com.common.library.io.OnProgressListener;
 import com.common.library.io.ProgressAwareOutputStream;
 
+/**
+ * Encoder of multipart/form-data. Part headers are encoded once and the
+ * total length is computed before writing, so the body can be sent with
+ * fixed length streaming. Files are transferred by {@link FileChannel}.
+ */
 class MultipartFormBody extends HttpBody {
-	private List<WrappedFormBody> bodyParts;
-	private String boundary;
+	private static final byte[] CRLF = { '\r', '\n' };
+	/** max bytes transferred per call, so progress is reported while uploading */
+	private static final long TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+	private final List<WrappedFormBody> bodyParts;
+	private final String boundary;
+	private final Charset charset = Charset.defaultCharset();
+
+	private byte[][] partHeaders;
+	/** encoded content of text parts, null for streaming parts */
+	private byte[][] partContents;
+	private long[] partLengths;
+	private byte[] closingBoundary;
+	private long contentLength;
 
 	public MultipartFormBody(String boundary, List<WrappedFormBody> bodyParts) {
 		this.boundary = boundary;
@@ -21,12 +44,16 @@ class MultipartFormBody extends HttpBody {
 
 	@Override
 	public String getContentType() {
-		throw new UnsupportedOperationException("Multipart form body does not implement #getConentType()");
+		return "multipart/form-data; boundary=" + boundary;
 	}
 
+	/**
+	 * @return exact length of encoded body, -1 if length of a part is unknown.
+	 */
 	@Override
 	public long getContentLength() {
-		throw new UnsupportedOperationException("Multipart form body does not implement #getContentLength()");
+		prepare();
+		return contentLength;
 	}
 
 	@Override
@@ -38,81 +65,125 @@ class MultipartFormBody extends HttpBody {
 		return bodyParts;
 	}
 
-	@Override
-	public void writeTo(OutputStream outputStream) throws IOException {
-		if (bodyParts != null && bodyParts.size() > 0) {
-			for (WrappedFormBody body : bodyParts) {
-				if(body.getHttpBody().isStreaming()){
-					addBinaryPart(outputStream, body);
-				}else{
-					addTextPart(outputStream, body);
+	/**
+	 * Encode part headers and text contents, and compute lengths of parts.
+	 * Lengths of files are fixed here, so a file changed after this is
+	 * reported by {@link #writeTo(OutputStream)}.
+	 */
+	private synchronized void prepare() {
+		if (partHeaders != null) {
+			return;
+		}
+		int count = bodyParts != null ? bodyParts.size() : 0;
+		byte[][] headers = new byte[count][];
+		byte[][] contents = new byte[count][];
+		long[] lengths = new long[count];
+		long total = 0;
+		StringBuilder builder = new StringBuilder(128);
+		for (int i = 0; i < count; i++) {
+			WrappedFormBody part = bodyParts.get(i);
+			HttpBody body = part.getHttpBody();
+			builder.setLength(0);
+			builder.append("--").append(boundary).append("\r\n");
+			builder.append("Content-Disposition: form-data; name=\"").append(part.getFieldName()).append('"');
+			if (body.isStreaming()) {
+				if (body instanceof FileBody) {
+					builder.append("; filename=\"").append(((FileBody) body).getFile().getName()).append('"');
 				}
+				builder.append("\r\nContent-Type: ").append(body.getContentType());
+				lengths[i] = getPartLength(body);
+			} else {
+				contents[i] = body.getContent().getBytes(charset);
+				lengths[i] = contents[i].length;
+			}
+			builder.append("\r\n\r\n");
+			headers[i] = builder.toString().getBytes(charset);
+
+			if (total >= 0) {
+				total = lengths[i] < 0 ? -1 : total + headers[i].length + lengths[i] + CRLF.length;
 			}
-			outputStream.write(("--" + boundary + "--\r\n").getBytes());
-			outputStream.flush();
+		}
+
+		closingBoundary = count > 0 ? ("--" + boundary + "--\r\n").getBytes(charset) : new byte[0];
+		contentLength = total < 0 ? -1 : total + closingBoundary.length;
+		partContents = contents;
+		partLengths = lengths;
+		partHeaders = headers;
+	}
+
+	private static long getPartLength(HttpBody body) {
+		if (body instanceof InputStreamBody) {
+			// it returns available() which is not the real length
+			return -1;
+		}
+		try {
+			return body.getContentLength();
+		} catch (UnsupportedOperationException e) {
+			return -1;
 		}
 	}
 
 	@Override
-	public boolean isStreaming() {
-		for(WrappedFormBody body : bodyParts){
-			if(body.getHttpBody().isStreaming()){
-				return true;
+	public void writeTo(OutputStream outputStream) throws IOException {
+		prepare();
+		if (partHeaders.length == 0) {
+			return;
+		}
+		for (int i = 0; i < partHeaders.length; i++) {
+			HttpBody body = bodyParts.get(i).getHttpBody();
+			outputStream.write(partHeaders[i]);
+			if (partContents[i] != null) {
+				outputStream.write(partContents[i]);
+			} else if (body instanceof FileBody) {
+				transferFile((FileBody) body, partLengths[i], outputStream);
+			} else {
+				body.writeTo(outputStream);
 			}
+			outputStream.write(CRLF);
 		}
-		return false;
+		outputStream.write(closingBoundary);
+		outputStream.flush();
 	}
 
-	private void addTextPart(OutputStream outputStream, WrappedFormBody body) {
-		try {
-			StringBuilder builder = new StringBuilder();
-			builder.append("--" + boundary + "\r\n");
-			builder.append("Content-Disposition: form-data; name=\"" + body.getFieldName() + "\r\n");
-			builder.append("\r\n");
-			builder.append(body.getHttpBody().getContent());
-			builder.append("\r\n");
-			outputStream.write(builder.toString().getBytes());
-		} catch (IOException e) {
-			e.printStackTrace();
+	private void transferFile(FileBody fileBody, long length, OutputStream outputStream) throws IOException {
+		File uploadFile = fileBody.getFile();
+		OnProgressListener listener = fileBody.getProgressListener();
+		if (listener != null) {
+			ProgressAwareOutputStream progressAwareOutputStream = new ProgressAwareOutputStream(outputStream, length,
+					fileBody.getUploadedSize(), uploadFile.getAbsolutePath());
+			progressAwareOutputStream.setOnProgressListener(listener);
+			outputStream = progressAwareOutputStream;
 		}
-	}
 
-	private void addBinaryPart(OutputStream outputStream, WrappedFormBody body) {
+		FileInputStream in = new FileInputStream(uploadFile);
 		try {
-			StringBuilder builder = new StringBuilder();
-			builder.append("--" + boundary + "\r\n");
-			
-			if(body.getHttpBody() instanceof FileBody){
-				FileBody fileBody = (FileBody) body.getHttpBody();
-				builder.append("Content-Disposition: form-data; name=\"" + body.getFieldName() + "\"; filename=\"" + fileBody.getFile().getName() + "\r\n");
-			}else{
-				builder.append("Content-Disposition: form-data; name=\"" + body.getFieldName() + "\";\r\n");
-			}
-			
-			builder.append("Content-Type: " + body.getHttpBody().getContentType() + "\r\n");
-			builder.append("\r\n");
-			outputStream.write(builder.toString().getBytes());
-			
-			if(body.getHttpBody() instanceof FileBody){
-				FileBody fileBody = (FileBody) body.getHttpBody();
-				File uploadFile = fileBody.getFile();
-				OnProgressListener listener = fileBody.getProgressListener();
-				
-				if(listener != null){
-					ProgressAwareOutputStream progressAwareOutputStream = new ProgressAwareOutputStream(outputStream, 
-							uploadFile.length(), fileBody.getUploadedSize(), uploadFile.getAbsolutePath());
-					progressAwareOutputStream.setOnProgressListener(listener);
-					body.getHttpBody().writeTo(progressAwareOutputStream);
-				}else{
-					body.getHttpBody().writeTo(outputStream);
+			FileChannel channel = in.getChannel();
+			// not closed, it would close the output stream
+			WritableByteChannel target = Channels.newChannel(outputStream);
+			long position = 0;
+			while (position < length) {
+				long transferred = channel.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, length - position), target);
+				if (transferred <= 0) {
+					throw new IOException("File was truncated while uploading: " + uploadFile);
 				}
-			}else{
-				body.getHttpBody().writeTo(outputStream);				
+				position += transferred;
 			}
-			outputStream.write("\r\n".getBytes());
-		} catch (final IOException e) {
-			e.printStackTrace();
+		} finally {
+			in.close();
 		}
 	}
-	
+
+	@Override
+	public boolean isStreaming() {
+		if (bodyParts == null) {
+			return false;
+		}
+		for (WrappedFormBody body : bodyParts) {
+			if (body.getHttpBody().isStreaming()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 }
@@ -3,122 +3,136 @@ package com.common.library.http.httpclient;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Map;
-import java.util.zip.GZIPInputStream;
-
-import android.annotation.TargetApi;
-import android.net.http.HttpResponseCache;
-import android.os.Build;
-import android.text.TextUtils;
+
 import android.util.Log;
 
-import com.common.library.http.body.HttpBody;
 import com.common.library.http.method.GetMethod;
 import com.common.library.http.method.HttpMethod;
-import com.common.library.http.method.PostMethod;
+import com.common.library.http.transport.CachingTransport;
+import com.common.library.http.transport.HttpResponse;
+import com.common.library.http.transport.PooledTransport;
+import com.common.library.http.transport.ResponseCache;
+import com.common.library.http.transport.Transport;
+import com.common.library.http.transport.UrlConnectionTransport;
 import com.common.library.io.utils.IOUtils;
 
 public abstract class AbstractHttpClient<T> {
 	private static final String TAG = "http client";
 	protected final int CACHE_SIZE = 10 * 1024 * 1024; // 10 MiB
+	private static Transport sDefaultTransport;
+	private static final RequestCoalescer sCoalescer = new RequestCoalescer();
+	private Transport transport;
+	private boolean coalesceRequests = true;
 
 	public abstract T execute(HttpMethod httpMethod) throws IOException;
 
-	protected InputStream doHttpRequest(HttpMethod httpMethod) throws IOException {
-		HttpURLConnection connection = null;
-		InputStream inputStream = null;
-		OutputStream outputStream = null;
-		
-		// create URL for POST method or GET method
-		URL url = null;
-		if(GetMethod.METHOD.equals(httpMethod.getMethod())){
-			url = new URL(httpMethod.getUrl() + "?" + httpMethod.getRequest());
-		}else{
-			url = new URL(httpMethod.getUrl());
+	/**
+	 * Get transport shared by clients which have no transport of their own,
+	 * it is a {@link UrlConnectionTransport} if not set.
+	 * <p>
+	 * A {@link PooledTransport} bounds sockets per host and reuses them, but
+	 * it does not follow redirects, use proxies or set SNI on old platforms,
+	 * so it is opt-in:
+	 * 
+	 * <pre>
+	 * AbstractHttpClient.setDefaultTransport(new PooledTransport(new ConnectionPool()));
+	 * </pre>
+	 */
+	public static synchronized Transport getDefaultTransport() {
+		if (sDefaultTransport == null) {
+			sDefaultTransport = new UrlConnectionTransport();
 		}
+		return sDefaultTransport;
+	}
 
-		try {
-			connection = (HttpURLConnection) url.openConnection();
-			
-			// only "POST" method need do as follows
-			if(PostMethod.METHOD.equals(httpMethod.getMethod())){
-				connection.setDoInput(true);
-				connection.setDoOutput(true);
-			}
-			
-			connection.setRequestMethod(httpMethod.getMethod());
-			connection.setUseCaches(false);
-			connection.setInstanceFollowRedirects(false);
-			connection.setReadTimeout(httpMethod.getReadTimeout());
-			connection.setConnectTimeout(httpMethod.getConnectTimeout());
-			connection.setRequestProperty("Charset", httpMethod.getCharset());
-			
-			if(httpMethod.isKeepAlive()){
-				connection.setRequestProperty("Connection", "Keep-Alive");
-			}
-			
-			if(!TextUtils.isEmpty(httpMethod.getUserAgent())){
-				connection.setRequestProperty("User-Agent", httpMethod.getUserAgent());
-			}
-			
-			if(httpMethod.isAcceptEncoding()){
-				connection.setRequestProperty("Accept-Encoding", "gzip");
-			}
-			
-			if(PostMethod.METHOD.equals(httpMethod.getMethod())){
-				// set content type for POST
-				PostMethod httpPost = (PostMethod) httpMethod;
-				HttpBody httpBody = httpPost.getBody();
-				connection.setRequestProperty("Content-Type", httpBody.getContentType());
-				 connection.setRequestProperty("Content-Length", String.valueOf(httpBody.getContentLength()));
-				
-				// disable cache for write output stream
-				if(httpBody.isStreaming()){
-					// connection.setFixedLengthStreamingMode(fileSize);// not available until API 19
-					connection.setChunkedStreamingMode(0);
-				}
-			}
-			
-			// set extra headers
-			Map<String, String> headers = httpMethod.getHeaders();
-			if (headers != null && headers.size() > 0) {
-				for (String key : headers.keySet()) {
-					connection.setRequestProperty(key, headers.get(key));
-				}
-			}
-			
-			// do connect
-			connection.connect();
-			outputStream = connection.getOutputStream();
-
-			// write data for POST
-			if(PostMethod.METHOD.equals(httpMethod.getMethod())){
-				PostMethod httpPost = (PostMethod) httpMethod;
-				HttpBody httpBody = httpPost.getBody();
-				httpBody.writeTo(outputStream);
-			}
-			
-			// read data if need
-			// note: getInputStream() must be called after data has been write to OutputStream
-			inputStream = connection.getInputStream();
-			if(httpMethod.haveResponse()){
-				String encoding  = connection.getContentEncoding();
-				if(!TextUtils.isEmpty(encoding) && encoding.contains("gzip")){
-					return new GZIPInputStream(inputStream);
-				}else{
-					return inputStream;
-				}
-			}else{
-				printLog(httpMethod);
-				return null;
-			}
-		} finally {
-			IOUtils.closeQuietly(inputStream);
-			IOUtils.closeQuietly(outputStream);
-			IOUtils.close(connection);
+	public static synchronized void setDefaultTransport(Transport transport) {
+		sDefaultTransport = transport;
+	}
+
+	public Transport getTransport() {
+		return transport != null ? transport : getDefaultTransport();
+	}
+
+	/**
+	 * Use the specified transport for this client instead of the default one.
+	 */
+	public void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Whether identical GET requests in flight at the same time share one
+	 * network call, it is enabled by default. The response body is buffered
+	 * in memory only if another request joined the call before its response
+	 * arrived, so it should be disabled for large downloads which are
+	 * streamed.
+	 */
+	public void setCoalesceRequests(boolean coalesceRequests) {
+		this.coalesceRequests = coalesceRequests;
+	}
+
+	public boolean isCoalesceRequests() {
+		return coalesceRequests;
+	}
+
+	/**
+	 * @return count of GET requests which shared the network call of an
+	 *         identical request in flight, by all clients.
+	 */
+	public static int getCoalescedRequestCount() {
+		return sCoalescer.getCoalescedCount();
+	}
+
+	/**
+	 * Send request with transport and return response body, which must be
+	 * closed after read.
+	 * <p>
+	 * Identical GET requests in flight on the same transport share one
+	 * network call if {@link #setCoalesceRequests(boolean)} is enabled, the
+	 * key is built from {@link HttpMethod#getUrl()},
+	 * {@link HttpMethod#getRequest()} and headers. A joined request waits at
+	 * most connect and read timeout of its method.
+	 * 
+	 * @return body stream, null if method has no response. Redirects are not
+	 *         followed, body of 3xx response is returned too.
+	 * @throws IOException
+	 *             network error or status code is 4xx or 5xx.
+	 */
+	protected InputStream doHttpRequest(final HttpMethod httpMethod) throws IOException {
+		if (coalesceRequests && httpMethod.haveResponse() && GetMethod.METHOD.equals(httpMethod.getMethod())) {
+			// 0 timeout means no limit
+			long timeout = httpMethod.getConnectTimeout() > 0 && httpMethod.getReadTimeout() > 0 ? httpMethod
+					.getConnectTimeout() + httpMethod.getReadTimeout() : 0;
+			return sCoalescer.execute(getTransport(), RequestCoalescer.keyOf(httpMethod), timeout,
+					new RequestCoalescer.Fetcher() {
+
+						@Override
+						public InputStream open() throws IOException {
+							return sendHttpRequest(httpMethod);
+						}
+					});
+		}
+		return sendHttpRequest(httpMethod);
+	}
+
+	/**
+	 * Send request with transport without coalescing, response body is
+	 * streamed from the connection.
+	 */
+	private InputStream sendHttpRequest(HttpMethod httpMethod) throws IOException {
+		HttpResponse response = getTransport().execute(httpMethod);
+		if (response.getCode() >= 400) {
+			IOUtils.closeQuietly(response);
+			throw new IOException("HTTP " + response.getCode() + " " + response.getMessage() + " for "
+					+ httpMethod.getUrl());
+		}
+
+		if (httpMethod.haveResponse()) {
+			return response.getBody();
+		} else {
+			IOUtils.closeQuietly(response);
+			printLog(httpMethod);
+			return null;
 		}
 	}
 	
@@ -151,23 +165,38 @@ public abstract class AbstractHttpClient<T> {
 		}
 	}
 
-	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
-	protected void enableHttpCache(long cacheSize, File httpCacheDir) {
-		if (Build.VERSION.SDK_INT > Build.VERSION_CODES.ICE_CREAM_SANDWICH){
-			try {
-				HttpResponseCache.install(httpCacheDir, cacheSize);
-			} catch (IOException e) {
-				Log.e(TAG, e.getMessage(), e);
-			}
-		} else {
-			try {
-				Class.forName("android.net.http.HttpResponseCache").getMethod("install", File.class, long.class)
-						.invoke(null, httpCacheDir, cacheSize);
-			} catch (Exception e) {
-				Log.e(TAG, e.getMessage(), e);
-			}
+	/**
+	 * Serve GET requests of this client from a {@link ResponseCache} in
+	 * directory, the transport of client is wrapped by a
+	 * {@link CachingTransport}.
+	 * 
+	 * @return the opened cache, null if failed to open it.
+	 */
+	protected ResponseCache enableHttpCache(long cacheSize, File httpCacheDir) {
+		try {
+			ResponseCache cache = ResponseCache.open(httpCacheDir, cacheSize);
+			setTransport(new CachingTransport(getTransport(), cache));
+			return cache;
+		} catch (IOException e) {
+			Log.e(TAG, e.getMessage(), e);
+			return null;
 		}
 	}
+
+	/**
+	 * Serve GET requests of all clients using the default transport from a
+	 * {@link ResponseCache} in directory.
+	 * 
+	 * @return the opened cache, it reports hit and miss counts.
+	 * @throws IOException
+	 *             failed to open cache
+	 */
+	public static synchronized ResponseCache installResponseCache(File httpCacheDir, long cacheSize)
+			throws IOException {
+		ResponseCache cache = ResponseCache.open(httpCacheDir, cacheSize);
+		setDefaultTransport(new CachingTransport(getDefaultTransport(), cache));
+		return cache;
+	}
 	
 	public int getCACHE_SIZE() {
 		return CACHE_SIZE;
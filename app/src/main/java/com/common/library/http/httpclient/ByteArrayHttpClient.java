@@ -12,9 +12,13 @@ public class ByteArrayHttpClient extends AbstractHttpClient<byte[]> {
 	@Override
 	public byte[] execute(HttpMethod httpMethod) throws IOException {
 		InputStream inputStream  = doHttpRequest(httpMethod);
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-		IOUtils.copyLarge(inputStream, outputStream);
-		return outputStream.toByteArray();
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			IOUtils.copyLarge(inputStream, outputStream);
+			return outputStream.toByteArray();
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
 	}
 
 }
@@ -0,0 +1,78 @@
+package com.common.library.http.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+
+import com.common.library.http.method.HttpMethod;
+import com.common.library.io.utils.IOUtils;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Client which parses JSON response into the target type with a streaming
+ * {@link JsonReader}, so the body is never held as a whole String.
+ * <p>
+ * Identical GET requests are coalesced like other clients, the body is
+ * buffered only if another request joined, and every caller parses its own
+ * copy, see {@link #setCoalesceRequests(boolean)}.
+ *
+ * @param <T>
+ *            type of response
+ */
+public class GsonHttpClient<T> extends AbstractHttpClient<T> {
+	private static final Gson GSON = new Gson();
+
+	private final Gson gson;
+	private final Type type;
+
+	public GsonHttpClient(Class<T> responseClass) {
+		this(GSON, responseClass);
+	}
+
+	/**
+	 * @param type
+	 *            type of response, such as generic type got from
+	 *            {@link com.google.gson.reflect.TypeToken#getType()}.
+	 */
+	public GsonHttpClient(Type type) {
+		this(GSON, type);
+	}
+
+	public GsonHttpClient(Gson gson, Type type) {
+		this.gson = gson;
+		this.type = type;
+	}
+
+	/**
+	 * @return Gson shared by clients and
+	 *         {@link com.common.library.http.HttpTask.TaskResponse}, it is
+	 *         thread safe.
+	 */
+	public static Gson getGson() {
+		return GSON;
+	}
+
+	/**
+	 * @return parsed response, null if body is empty.
+	 * @throws IOException
+	 *             network error, or response is not valid JSON of the type.
+	 */
+	@Override
+	public T execute(HttpMethod httpMethod) throws IOException {
+		InputStream inputStream = doHttpRequest(httpMethod);
+		if (inputStream == null) {
+			return null;
+		}
+		JsonReader reader = new JsonReader(new InputStreamReader(inputStream, httpMethod.getCharset()));
+		try {
+			return gson.fromJson(reader, type);
+		} catch (JsonParseException e) {
+			throw new IOException("Invalid JSON response of " + httpMethod.getUrl(), e);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+}
@@ -14,7 +14,12 @@ public class JsonHttpClient extends AbstractHttpClient<JSONObject> {
 	@Override
 	public JSONObject execute(HttpMethod httpMethod) throws IOException {
 		InputStream inputStream = doHttpRequest(httpMethod);
-		String jsonStr = IOUtils.toString(inputStream);
+		String jsonStr;
+		try {
+			jsonStr = IOUtils.toString(inputStream);
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
 		try {
 			return new JSONObject(jsonStr);
 		} catch (JSONException e) {
@@ -15,6 +15,7 @@ public class NoFeedbackHttpClient extends AbstractHttpClient<Void> {
 
 	@Override
 	public Void execute(HttpMethod httpMethod) throws IOException {
+		doHttpRequest(httpMethod);
 		return null;
 	}
 
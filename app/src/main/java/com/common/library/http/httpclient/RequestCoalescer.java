@@ -0,0 +1,187 @@
+package com.common.library.http.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.common.library.http.method.HttpMethod;
+import com.common.library.http.transport.Transport;
+import com.common.library.io.utils.IOUtils;
+
+/**
+ * Share one network call among identical requests which are in flight at the
+ * same time.
+ * <p>
+ * Identical requests join the call until its response arrives. If none has
+ * joined by then, the body is streamed to the first caller as usual,
+ * otherwise it is read once into memory and handed to every caller.
+ */
+final class RequestCoalescer {
+
+	interface Fetcher {
+		/**
+		 * Send request and return its response body.
+		 */
+		InputStream open() throws IOException;
+	}
+
+	private static final class Key {
+		final Transport transport;
+		final String request;
+
+		Key(Transport transport, String request) {
+			this.transport = transport;
+			this.request = request;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return transport == other.transport && request.equals(other.request);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(transport) + request.hashCode();
+		}
+	}
+
+	private static final class Call {
+		final CountDownLatch done = new CountDownLatch(1);
+		// guarded by coalescer
+		int joinedCount;
+		byte[] body;
+		IOException error;
+	}
+
+	private final Map<Key, Call> inFlight = new HashMap<Key, Call>();
+	private int coalescedCount;
+
+	/**
+	 * Build request part of key from method, URL, request content and headers.
+	 */
+	static String keyOf(HttpMethod httpMethod) {
+		StringBuilder key = new StringBuilder();
+		key.append(httpMethod.getMethod()).append(' ').append(httpMethod.getUrl()).append('?')
+				.append(httpMethod.getRequest()).append('\n');
+		key.append(httpMethod.getCharset()).append('\n').append(httpMethod.getUserAgent()).append('\n');
+		if (httpMethod.getHeaders() != null) {
+			// header order does not matter
+			for (Map.Entry<String, String> header : new TreeMap<String, String>(httpMethod.getHeaders()).entrySet()) {
+				key.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Fetch body of request, or wait for the identical request in flight on
+	 * the same transport and share its body.
+	 *
+	 * @param transport
+	 *            transport which sends the request, requests on different
+	 *            transports are not shared.
+	 * @param request
+	 *            built by {@link #keyOf(HttpMethod)}
+	 * @param timeoutMillis
+	 *            max time to wait for the identical request, 0 to wait
+	 *            until it is done.
+	 * @param fetcher
+	 *            sends request if there is no identical one in flight
+	 * @return response body, which must be closed after read.
+	 * @throws IOException
+	 *             error of the shared request, or timed out waiting for it.
+	 */
+	InputStream execute(Transport transport, String request, long timeoutMillis, Fetcher fetcher)
+			throws IOException {
+		Key key = new Key(transport, request);
+		Call call;
+		boolean owner = false;
+		synchronized (this) {
+			call = inFlight.get(key);
+			if (call == null) {
+				call = new Call();
+				inFlight.put(key, call);
+				owner = true;
+			} else {
+				call.joinedCount++;
+				coalescedCount++;
+			}
+		}
+
+		if (owner) {
+			return fetch(key, call, fetcher);
+		}
+
+		try {
+			if (timeoutMillis > 0) {
+				if (!call.done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					throw new SocketTimeoutException("Timed out waiting for identical request");
+				}
+			} else {
+				call.done.await();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for identical request");
+		}
+		if (call.error != null) {
+			throw new IOException(call.error.getMessage(), call.error);
+		}
+		if (call.body == null) {
+			// the owner failed with an unchecked exception
+			throw new IOException("Identical request failed");
+		}
+		return new ByteArrayInputStream(call.body);
+	}
+
+	private InputStream fetch(Key key, Call call, Fetcher fetcher) throws IOException {
+		InputStream in = null;
+		boolean shared = false;
+		try {
+			in = fetcher.open();
+		} catch (IOException e) {
+			call.error = e;
+			throw e;
+		} finally {
+			// response arrived, later identical requests send their own
+			synchronized (this) {
+				inFlight.remove(key);
+				shared = call.joinedCount > 0;
+			}
+			if (in == null || !shared) {
+				call.done.countDown();
+			}
+		}
+
+		if (!shared || in == null) {
+			return in;
+		}
+		try {
+			call.body = IOUtils.toByteArray(in);
+			return new ByteArrayInputStream(call.body);
+		} catch (IOException e) {
+			call.error = e;
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(in);
+			call.done.countDown();
+		}
+	}
+
+	/**
+	 * @return count of requests which shared the call of another one.
+	 */
+	synchronized int getCoalescedCount() {
+		return coalescedCount;
+	}
+}
@@ -11,6 +11,10 @@ public class TextHttpClient extends AbstractHttpClient<String> {
 	@Override
 	public String execute(HttpMethod httpMethod) throws IOException {
 		InputStream inputStream = doHttpRequest(httpMethod);
-		return IOUtils.toString(inputStream);
+		try {
+			return IOUtils.toString(inputStream);
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
 	}
 }
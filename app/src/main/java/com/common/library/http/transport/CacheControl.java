@@ -0,0 +1,83 @@
+package com.common.library.http.transport;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Directives of Cache-Control header which are honoured by
+ * {@link CachingTransport}.
+ *
+ */
+final class CacheControl {
+	boolean noCache;
+	boolean noStore;
+	boolean mustRevalidate;
+	boolean isPrivate;
+	/** seconds, -1 if not present */
+	int maxAge = -1;
+	/** seconds, -1 if not present */
+	int staleWhileRevalidate = -1;
+
+	/**
+	 * @param cacheControl
+	 *            values of Cache-Control header
+	 * @param pragma
+	 *            values of Pragma header, may be null
+	 */
+	static CacheControl parse(List<String> cacheControl, List<String> pragma) {
+		CacheControl control = new CacheControl();
+		if (cacheControl != null) {
+			for (String value : cacheControl) {
+				if (value == null) {
+					continue;
+				}
+				for (String directive : value.split(",")) {
+					String name = directive.trim().toLowerCase(Locale.US);
+					String argument = null;
+					int equals = name.indexOf('=');
+					if (equals >= 0) {
+						argument = name.substring(equals + 1).trim();
+						name = name.substring(0, equals).trim();
+						if (argument.length() > 1 && argument.startsWith("\"") && argument.endsWith("\"")) {
+							argument = argument.substring(1, argument.length() - 1);
+						}
+					}
+
+					if ("no-cache".equals(name)) {
+						control.noCache = true;
+					} else if ("no-store".equals(name)) {
+						control.noStore = true;
+					} else if ("must-revalidate".equals(name) || "proxy-revalidate".equals(name)) {
+						control.mustRevalidate = true;
+					} else if ("private".equals(name)) {
+						control.isPrivate = true;
+					} else if ("max-age".equals(name)) {
+						control.maxAge = parseSeconds(argument);
+					} else if ("stale-while-revalidate".equals(name)) {
+						control.staleWhileRevalidate = parseSeconds(argument);
+					}
+				}
+			}
+		}
+		if (pragma != null) {
+			for (String value : pragma) {
+				if (value != null && value.toLowerCase(Locale.US).contains("no-cache")) {
+					control.noCache = true;
+				}
+			}
+		}
+		return control;
+	}
+
+	private static int parseSeconds(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			long seconds = Long.parseLong(value);
+			return seconds < 0 ? -1 : (int) Math.min(seconds, Integer.MAX_VALUE);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
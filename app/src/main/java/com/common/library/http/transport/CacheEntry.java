@@ -0,0 +1,236 @@
+package com.common.library.http.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.common.library.images.DiskLruCache;
+import com.common.library.io.utils.IOUtils;
+
+/**
+ * Response stored by {@link ResponseCache}. Body is stored decoded, so
+ * headers which describe the transfer are dropped.
+ *
+ */
+final class CacheEntry {
+	private static final int INDEX_METADATA = 0;
+	private static final int INDEX_BODY = 1;
+	static final int VALUE_COUNT = 2;
+
+	/** headers which are not stored, or not updated by 304 response */
+	private static final List<String> HOP_BY_HOP_HEADERS = Arrays.asList("connection", "keep-alive",
+			"transfer-encoding", "content-encoding", "content-length", "trailer", "upgrade");
+
+	final String url;
+	final int code;
+	final String message;
+	final Map<String, List<String>> headers;
+	final byte[] body;
+	final long sentMillis;
+	final long receivedMillis;
+
+	CacheEntry(String url, int code, String message, Map<String, List<String>> headers, byte[] body,
+			long sentMillis, long receivedMillis) {
+		this.url = url;
+		this.code = code;
+		this.message = message;
+		this.headers = stripHeaders(headers);
+		this.body = body;
+		this.sentMillis = sentMillis;
+		this.receivedMillis = receivedMillis;
+	}
+
+	private static Map<String, List<String>> stripHeaders(Map<String, List<String>> headers) {
+		Map<String, List<String>> stripped = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (header.getKey() != null && !HOP_BY_HOP_HEADERS.contains(header.getKey())) {
+				stripped.put(header.getKey(), header.getValue());
+			}
+		}
+		return stripped;
+	}
+
+	String getHeader(String name) {
+		List<String> values = headers.get(name);
+		return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+	}
+
+	CacheControl getCacheControl() {
+		return CacheControl.parse(headers.get("cache-control"), headers.get("pragma"));
+	}
+
+	/**
+	 * @return current age of response, see RFC 7234 section 4.2.3.
+	 */
+	long getAgeMillis(long now) {
+		long apparentAge = 0;
+		Date date = parseDate(getHeader("date"));
+		if (date != null) {
+			apparentAge = Math.max(0, receivedMillis - date.getTime());
+		}
+		String age = getHeader("age");
+		if (age != null) {
+			try {
+				apparentAge = Math.max(apparentAge, Long.parseLong(age.trim()) * 1000);
+			} catch (NumberFormatException e) {
+				// ignore invalid age
+			}
+		}
+		return apparentAge + (receivedMillis - sentMillis) + (now - receivedMillis);
+	}
+
+	/**
+	 * @return how long response is fresh from its creation, from max-age,
+	 *         Expires or 10% of time since Last-Modified.
+	 */
+	long getFreshnessMillis() {
+		CacheControl cacheControl = getCacheControl();
+		if (cacheControl.maxAge >= 0) {
+			return cacheControl.maxAge * 1000L;
+		}
+
+		Date date = parseDate(getHeader("date"));
+		long served = date != null ? date.getTime() : receivedMillis;
+		Date expires = parseDate(getHeader("expires"));
+		if (expires != null) {
+			return Math.max(0, expires.getTime() - served);
+		}
+
+		Date lastModified = parseDate(getHeader("last-modified"));
+		if (lastModified != null && !url.contains("?")) {
+			// heuristic freshness is not used for query URL
+			return Math.max(0, (served - lastModified.getTime()) / 10);
+		}
+		return 0;
+	}
+
+	boolean hasValidator() {
+		return getHeader("etag") != null || getHeader("last-modified") != null;
+	}
+
+	/**
+	 * @return entry with headers updated by 304 response, body is kept.
+	 */
+	CacheEntry revalidated(Map<String, List<String>> notModifiedHeaders, long sentMillis, long receivedMillis) {
+		Map<String, List<String>> merged = new LinkedHashMap<String, List<String>>(headers);
+		for (Map.Entry<String, List<String>> header : notModifiedHeaders.entrySet()) {
+			if (header.getKey() != null && !HOP_BY_HOP_HEADERS.contains(header.getKey())) {
+				merged.put(header.getKey(), header.getValue());
+			}
+		}
+		return new CacheEntry(url, code, message, merged, body, sentMillis, receivedMillis);
+	}
+
+	HttpResponse toResponse() {
+		Map<String, List<String>> responseHeaders = new LinkedHashMap<String, List<String>>(headers);
+		responseHeaders.put("content-length", Arrays.asList(String.valueOf(body.length)));
+		return new HttpResponse(code, message, responseHeaders, new ByteArrayInputStream(body));
+	}
+
+	/**
+	 * Write metadata and body to editor, it is not committed.
+	 */
+	void writeTo(DiskLruCache.Editor editor) throws IOException {
+		StringBuilder metadata = new StringBuilder();
+		metadata.append(url).append('\n');
+		metadata.append(code).append('\n');
+		metadata.append(message == null ? "" : message).append('\n');
+		metadata.append(sentMillis).append('\n');
+		metadata.append(receivedMillis).append('\n');
+		int count = 0;
+		for (List<String> values : headers.values()) {
+			count += values.size();
+		}
+		metadata.append(count).append('\n');
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			for (String value : header.getValue()) {
+				metadata.append(header.getKey()).append(':').append(value).append('\n');
+			}
+		}
+		editor.set(INDEX_METADATA, metadata.toString());
+
+		OutputStream out = editor.newOutputStream(INDEX_BODY);
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return entry read from snapshot, null if it is not stored by the same
+	 *         URL.
+	 */
+	static CacheEntry readFrom(DiskLruCache.Snapshot snapshot, String url) throws IOException {
+		String[] lines = snapshot.getString(INDEX_METADATA).split("\n", -1);
+		if (lines.length < 6 || !url.equals(lines[0])) {
+			return null;
+		}
+		try {
+			int code = Integer.parseInt(lines[1]);
+			String message = lines[2];
+			long sentMillis = Long.parseLong(lines[3]);
+			long receivedMillis = Long.parseLong(lines[4]);
+			int count = Integer.parseInt(lines[5]);
+			if (lines.length < 6 + count) {
+				return null;
+			}
+			Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+			for (int i = 6; i < 6 + count; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon <= 0) {
+					continue;
+				}
+				String name = lines[i].substring(0, colon);
+				List<String> values = headers.get(name);
+				if (values == null) {
+					values = new ArrayList<String>(1);
+					headers.put(name, values);
+				}
+				values.add(lines[i].substring(colon + 1));
+			}
+
+			InputStream in = snapshot.getInputStream(INDEX_BODY);
+			byte[] body;
+			try {
+				body = IOUtils.toByteArray(in);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+			return new CacheEntry(url, code, message, headers, body, sentMillis, receivedMillis);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return size of entry in memory, it is approximately the size of body.
+	 */
+	int size() {
+		return body.length + 256;
+	}
+
+	static Date parseDate(String value) {
+		if (value == null) {
+			return null;
+		}
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(value.trim());
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,369 @@
+package com.common.library.http.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import android.util.Log;
+
+import com.common.library.http.HttpDispatcher;
+import com.common.library.http.method.GetMethod;
+import com.common.library.http.method.HttpMethod;
+import com.common.library.io.utils.IOUtils;
+
+/**
+ * Transport which serves GET requests from {@link ResponseCache}, it honours
+ * Cache-Control, Expires, ETag and Last-Modified of responses and revalidates
+ * stale responses with conditional requests. Other requests are sent by the
+ * delegate and invalidate the cached response of their URL.
+ * <p>
+ * Responses are keyed by URL only, so GET requests with headers other than
+ * Cache-Control and Pragma, e.g. Authorization, bypass the cache, and
+ * responses with "Cache-Control: private" are not stored.
+ * <p>
+ * In stale-while-revalidate mode, a stale response is returned immediately
+ * and revalidated in background, unless it must be revalidated. Without this
+ * mode it is only done within the stale-while-revalidate window given by the
+ * server.
+ *
+ */
+public class CachingTransport implements Transport {
+	private static final String TAG = "caching transport";
+
+	private final Transport delegate;
+	private final ResponseCache cache;
+	private volatile boolean staleWhileRevalidate;
+	private final Set<String> revalidating = Collections.synchronizedSet(new HashSet<String>());
+
+	public CachingTransport(Transport delegate, ResponseCache cache) {
+		this.delegate = delegate;
+		this.cache = cache;
+	}
+
+	public ResponseCache getCache() {
+		return cache;
+	}
+
+	public boolean isStaleWhileRevalidate() {
+		return staleWhileRevalidate;
+	}
+
+	/**
+	 * Serve stale responses immediately and revalidate them in background.
+	 */
+	public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+		this.staleWhileRevalidate = staleWhileRevalidate;
+	}
+
+	@Override
+	public HttpResponse execute(HttpMethod httpMethod) throws IOException {
+		String url = Requests.buildUrl(httpMethod).toString();
+		if (!GetMethod.METHOD.equals(httpMethod.getMethod())) {
+			HttpResponse response = delegate.execute(httpMethod);
+			if (response.isSuccessful() && !"HEAD".equals(httpMethod.getMethod())) {
+				cache.remove(url);
+			}
+			return response;
+		}
+
+		CacheControl requestControl = CacheControl.parse(getRequestHeaders(httpMethod, "Cache-Control"),
+				getRequestHeaders(httpMethod, "Pragma"));
+		if (requestControl.noStore || hasVaryingHeaders(httpMethod)) {
+			return delegate.execute(httpMethod);
+		}
+
+		CacheEntry entry = cache.get(url);
+		if (entry != null && !requestControl.noCache) {
+			CacheControl responseControl = entry.getCacheControl();
+			if (!responseControl.noCache) {
+				long now = System.currentTimeMillis();
+				long age = entry.getAgeMillis(now);
+				long freshness = entry.getFreshnessMillis();
+				if (age < freshness) {
+					cache.trackResponse(true, false);
+					return entry.toResponse();
+				}
+
+				boolean withinWindow = responseControl.staleWhileRevalidate >= 0
+						&& age < freshness + responseControl.staleWhileRevalidate * 1000L;
+				if (!responseControl.mustRevalidate && (staleWhileRevalidate || withinWindow)) {
+					cache.trackResponse(true, false);
+					revalidateInBackground(httpMethod, url, entry);
+					return entry.toResponse();
+				}
+			}
+		}
+		return fetch(httpMethod, url, entry, requestControl, true);
+	}
+
+	/**
+	 * Send request with delegate, conditional if entry has validators, and
+	 * store the response.
+	 * 
+	 * @param track
+	 *            whether the response is counted by cache, it is false for
+	 *            background revalidation which is counted as hit already.
+	 */
+	private HttpResponse fetch(HttpMethod httpMethod, String url, CacheEntry entry, CacheControl requestControl,
+			boolean track) throws IOException {
+		boolean conditional = entry != null && entry.hasValidator();
+		HttpMethod networkMethod = httpMethod;
+		if (conditional) {
+			// request of caller is not modified
+			networkMethod = copyOf(httpMethod, url);
+			String etag = entry.getHeader("etag");
+			if (etag != null) {
+				networkMethod.addHeader("If-None-Match", etag);
+			}
+			String lastModified = entry.getHeader("last-modified");
+			if (lastModified != null) {
+				networkMethod.addHeader("If-Modified-Since", lastModified);
+			}
+		}
+
+		long sentMillis = System.currentTimeMillis();
+		HttpResponse response = delegate.execute(networkMethod);
+		long receivedMillis = System.currentTimeMillis();
+		if (conditional && response.getCode() == 304) {
+			IOUtils.closeQuietly(response);
+			CacheEntry revalidated = entry.revalidated(response.getHeaders(), sentMillis, receivedMillis);
+			cache.put(url, revalidated);
+			if (track) {
+				cache.trackResponse(false, true);
+			}
+			return revalidated.toResponse();
+		}
+
+		if (track) {
+			cache.trackResponse(false, false);
+		}
+		if (!isCacheable(response, requestControl)) {
+			if (entry != null && response.isSuccessful()) {
+				cache.remove(url);
+			}
+			return response;
+		}
+
+		Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>(response.getHeaders());
+		// body is decoded by the caching stream
+		headers.remove("content-encoding");
+		headers.remove("content-length");
+		CacheEntry template = new CacheEntry(url, response.getCode(), response.getMessage(), response.getHeaders(),
+				null, sentMillis, receivedMillis);
+		return new HttpResponse(response.getCode(), response.getMessage(), headers, new CacheWritingStream(response,
+				template));
+	}
+
+	private boolean isCacheable(HttpResponse response, CacheControl requestControl) {
+		if (response.getCode() != 200 || requestControl.noStore) {
+			return false;
+		}
+		CacheControl responseControl = CacheControl.parse(response.getHeaders("Cache-Control"),
+				response.getHeaders("Pragma"));
+		if (responseControl.noStore || responseControl.isPrivate) {
+			return false;
+		}
+		for (String vary : response.getHeaders("Vary")) {
+			for (String name : vary.split(",")) {
+				// request headers are not part of the key
+				if (!"accept-encoding".equalsIgnoreCase(name.trim())) {
+					return false;
+				}
+			}
+		}
+		String contentLength = response.getHeader("Content-Length");
+		if (contentLength != null && response.getHeader("Content-Encoding") == null) {
+			try {
+				if (Long.parseLong(contentLength.trim()) > cache.getMaxEntrySize()) {
+					return false;
+				}
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return responseControl.maxAge >= 0 || response.getHeader("Expires") != null
+				|| response.getHeader("ETag") != null || response.getHeader("Last-Modified") != null;
+	}
+
+	private void revalidateInBackground(final HttpMethod httpMethod, final String url, final CacheEntry entry) {
+		if (!revalidating.add(url)) {
+			return;
+		}
+		final HttpMethod copy = copyOf(httpMethod, url);
+		try {
+			HttpDispatcher.getDefault().getExecutor(url, HttpDispatcher.PRIORITY_BACKGROUND).execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						HttpResponse response = fetch(copy, url, entry, new CacheControl(), false);
+						InputStream body = response.getBody();
+						try {
+							// the response is stored when body is read to the end
+							IOUtils.toByteArray(body);
+						} finally {
+							IOUtils.closeQuietly(body);
+						}
+					} catch (IOException e) {
+						Log.e(TAG, "revalidate failed: " + url, e);
+					} finally {
+						revalidating.remove(url);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			revalidating.remove(url);
+		}
+	}
+
+	// response may depend on headers, such as Authorization or a token, which are not part of the key
+	private static boolean hasVaryingHeaders(HttpMethod httpMethod) {
+		if (httpMethod.getHeaders() != null) {
+			for (String name : httpMethod.getHeaders().keySet()) {
+				if (!"Cache-Control".equalsIgnoreCase(name) && !"Pragma".equalsIgnoreCase(name)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static List<String> getRequestHeaders(HttpMethod httpMethod, String name) {
+		List<String> values = new ArrayList<String>(1);
+		if (httpMethod.getHeaders() != null) {
+			for (Map.Entry<String, String> header : httpMethod.getHeaders().entrySet()) {
+				if (name.equalsIgnoreCase(header.getKey())) {
+					values.add(header.getValue());
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @return GET method of the built URL with the same settings and headers.
+	 */
+	private static HttpMethod copyOf(HttpMethod httpMethod, String url) {
+		GetMethod copy = new GetMethod(url);
+		if (httpMethod.getHeaders() != null) {
+			copy.getHeaders().putAll(httpMethod.getHeaders());
+		}
+		copy.setCharset(httpMethod.getCharset());
+		copy.setUserAgent(httpMethod.getUserAgent());
+		copy.setAcceptEncoding(httpMethod.isAcceptEncoding());
+		copy.setKeepAlive(httpMethod.isKeepAlive());
+		copy.setConnectTimeout(httpMethod.getConnectTimeout());
+		copy.setReadTimeout(httpMethod.getReadTimeout());
+		return copy;
+	}
+
+	/**
+	 * Decoded body of response, which is copied to cache when it is read to
+	 * the end, or when Content-Length bytes are read, since readers such as
+	 * Gson stop at the end of content without reading end of stream. It is
+	 * not stored if it exceeds max entry size.
+	 */
+	private final class CacheWritingStream extends FilterInputStream {
+		private final HttpResponse response;
+		private final CacheEntry template;
+		// -1 if unknown or body is decoded
+		private final long contentLength;
+		private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+		CacheWritingStream(HttpResponse response, CacheEntry template) throws IOException {
+			super(response.getBody());
+			this.response = response;
+			this.template = template;
+			this.contentLength = parseContentLength(response);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				store();
+			} else if (copy != null) {
+				copy.write(b);
+				checkSize();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			int read = super.read(buffer, offset, count);
+			if (read == -1) {
+				store();
+			} else if (copy != null) {
+				copy.write(buffer, offset, read);
+				checkSize();
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long byteCount) throws IOException {
+			// skipped bytes are not copied
+			copy = null;
+			return super.skip(byteCount);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void checkSize() {
+			if (copy.size() > cache.getMaxEntrySize()) {
+				copy = null;
+			} else if (copy.size() == contentLength) {
+				store();
+			}
+		}
+
+		private void store() {
+			if (copy != null) {
+				cache.put(template.url, new CacheEntry(template.url, template.code, template.message,
+						template.headers, copy.toByteArray(), template.sentMillis, template.receivedMillis));
+				copy = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (copy != null) {
+				// reader may have stopped just before end of stream, e.g. end of chunked body
+				try {
+					if (super.read() == -1) {
+						store();
+					}
+				} catch (IOException e) {
+					// not stored
+				}
+				copy = null;
+			}
+			response.close();
+		}
+	}
+
+	private static long parseContentLength(HttpResponse response) {
+		String contentLength = response.getHeader("Content-Length");
+		if (contentLength == null || response.getHeader("Content-Encoding") != null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(contentLength.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.common.library.http.transport;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+/**
+ * Pool of keep-alive connections used by {@link PooledTransport}.
+ * <p>
+ * At most {@link #getMaxConnectionsPerHost()} connections are opened to the
+ * same host, more requests wait for a connection until their connect timeout.
+ * Released connections are reused by the next request to the same host, and
+ * closed after they have been idle for keep alive duration.
+ *
+ */
+public final class ConnectionPool {
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 5 * 60 * 1000L;
+
+	// one daemon thread shared by all pools to close expired idle connections
+	private static final ScheduledExecutorService CLEANER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ConnectionPool cleaner");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final int maxConnectionsPerHost;
+	private final long keepAliveMillis;
+	private final Map<String, Route> routes = new HashMap<String, Route>();
+	private boolean cleanupScheduled;
+	private int createdCount;
+	private int reusedCount;
+
+	private final Runnable cleanupRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			long nextCleanup = evictIdle(SystemClock.uptimeMillis());
+			synchronized (ConnectionPool.this) {
+				cleanupScheduled = nextCleanup >= 0;
+				if (cleanupScheduled) {
+					CLEANER.schedule(this, nextCleanup, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+	};
+
+	private static final class Route {
+		// most recently released first
+		final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+		int active;
+	}
+
+	public ConnectionPool() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE_MILLIS);
+	}
+
+	/**
+	 * @param maxConnectionsPerHost
+	 *            max count of connections to the same host, both active and
+	 *            idle.
+	 * @param keepAliveMillis
+	 *            how long an idle connection is kept, 0 to disable reuse.
+	 */
+	public ConnectionPool(int maxConnectionsPerHost, long keepAliveMillis) {
+		if (maxConnectionsPerHost <= 0) {
+			throw new IllegalArgumentException("maxConnectionsPerHost must be positive: " + maxConnectionsPerHost);
+		}
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Get an idle connection to host, or open a new one if there is none and
+	 * the host limit is not reached, otherwise wait for a released one.
+	 * 
+	 * @param host
+	 * @param port
+	 * @param secure
+	 *            whether TLS is used
+	 * @param connectTimeout
+	 *            max time in milliseconds to wait for and open connection, 0
+	 *            to wait forever.
+	 * @return connection which must be released by
+	 *         {@link #release(PooledConnection, boolean)}
+	 * @throws IOException
+	 */
+	PooledConnection acquire(String host, int port, boolean secure, int connectTimeout) throws IOException {
+		String key = (secure ? "https://" : "http://") + host + ":" + port;
+		long deadline = connectTimeout > 0 ? SystemClock.uptimeMillis() + connectTimeout : 0;
+		while (true) {
+			PooledConnection candidate;
+			synchronized (this) {
+				// route is looked up again after waiting, it may have been evicted meanwhile
+				Route route = getRoute(key);
+				candidate = route.idle.poll();
+				if (candidate == null) {
+					if (route.active < maxConnectionsPerHost) {
+						// reserve a slot, connect out of lock
+						route.active++;
+						break;
+					}
+
+					long waitMillis = deadline == 0 ? 0 : deadline - SystemClock.uptimeMillis();
+					if (deadline != 0 && waitMillis <= 0) {
+						throw new SocketTimeoutException("Timed out waiting for connection to " + key);
+					}
+					try {
+						wait(waitMillis);
+					} catch (InterruptedException e) {
+						throw new IOException("Interrupted while waiting for connection to " + key);
+					}
+					continue;
+				}
+				// reserve its slot, health check reads the socket out of lock
+				route.active++;
+			}
+
+			if (candidate.isHealthy()) {
+				synchronized (this) {
+					candidate.useCount++;
+					reusedCount++;
+				}
+				return candidate;
+			}
+			release(candidate, false);
+		}
+
+		try {
+			int timeout = deadline == 0 ? 0 : (int) Math.max(1, deadline - SystemClock.uptimeMillis());
+			PooledConnection connection = PooledConnection.connect(key, host, port, secure, timeout);
+			connection.useCount++;
+			synchronized (this) {
+				createdCount++;
+			}
+			return connection;
+		} catch (IOException e) {
+			synchronized (this) {
+				getRoute(key).active--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	// route is removed by evictIdle when it has no connection, so it is created again on demand
+	private Route getRoute(String key) {
+		Route route = routes.get(key);
+		if (route == null) {
+			route = new Route();
+			routes.put(key, route);
+		}
+		return route;
+	}
+
+	/**
+	 * Return connection to pool.
+	 * 
+	 * @param connection
+	 * @param reusable
+	 *            false if the connection cannot be used for another request,
+	 *            e.g. response was not read to the end, it will be closed.
+	 */
+	void release(PooledConnection connection, boolean reusable) {
+		synchronized (this) {
+			Route route = getRoute(connection.route);
+			route.active--;
+			notifyAll();
+			if (reusable && keepAliveMillis > 0) {
+				connection.idleAtMillis = SystemClock.uptimeMillis();
+				route.idle.addFirst(connection);
+				if (!cleanupScheduled) {
+					cleanupScheduled = true;
+					CLEANER.schedule(cleanupRunnable, keepAliveMillis, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+		}
+		connection.close();
+	}
+
+	/**
+	 * Close connections which have been idle longer than keep alive duration.
+	 * 
+	 * @return milliseconds until the next idle connection expires, -1 if no
+	 *         idle connection is left.
+	 */
+	private long evictIdle(long now) {
+		List<PooledConnection> expired = new ArrayList<PooledConnection>();
+		long nextCleanup = -1;
+		synchronized (this) {
+			Iterator<Route> routeIterator = routes.values().iterator();
+			while (routeIterator.hasNext()) {
+				Route route = routeIterator.next();
+				Iterator<PooledConnection> iterator = route.idle.iterator();
+				while (iterator.hasNext()) {
+					PooledConnection connection = iterator.next();
+					long expireIn = connection.idleAtMillis + keepAliveMillis - now;
+					if (expireIn <= 0) {
+						iterator.remove();
+						expired.add(connection);
+					} else if (nextCleanup < 0 || expireIn < nextCleanup) {
+						nextCleanup = expireIn;
+					}
+				}
+				if (route.idle.isEmpty() && route.active == 0) {
+					routeIterator.remove();
+				}
+			}
+		}
+		for (PooledConnection connection : expired) {
+			connection.close();
+		}
+		return nextCleanup;
+	}
+
+	/**
+	 * Close all idle connections, e.g. when app is in background or low on
+	 * memory. Active connections are not affected.
+	 */
+	public void evictAll() {
+		List<PooledConnection> idle = new ArrayList<PooledConnection>();
+		synchronized (this) {
+			for (Route route : routes.values()) {
+				idle.addAll(route.idle);
+				route.idle.clear();
+			}
+		}
+		for (PooledConnection connection : idle) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * @return count of connections in use by requests.
+	 */
+	public synchronized int getActiveConnectionCount() {
+		int count = 0;
+		for (Route route : routes.values()) {
+			count += route.active;
+		}
+		return count;
+	}
+
+	public synchronized int getIdleConnectionCount() {
+		int count = 0;
+		for (Route route : routes.values()) {
+			count += route.idle.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return count of connections opened by this pool.
+	 */
+	public synchronized int getCreatedCount() {
+		return createdCount;
+	}
+
+	/**
+	 * @return count of requests which reused a pooled connection.
+	 */
+	public synchronized int getReusedCount() {
+		return reusedCount;
+	}
+}
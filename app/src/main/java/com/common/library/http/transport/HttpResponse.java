@@ -0,0 +1,115 @@
+package com.common.library.http.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Status, headers and streaming body of a response returned by
+ * {@link Transport}. The body stays open until it is closed, so it can be
+ * read after the request returned, closing it releases the connection.
+ *
+ */
+public class HttpResponse implements Closeable {
+	private final int code;
+	private final String message;
+	private final Map<String, List<String>> headers;
+	private final InputStream rawBody;
+	private InputStream body;
+
+	/**
+	 * @param code
+	 *            HTTP status code
+	 * @param message
+	 *            reason phrase
+	 * @param headers
+	 *            response headers with lower case names
+	 * @param body
+	 *            raw body stream, content encoding is not decoded yet.
+	 */
+	public HttpResponse(int code, String message, Map<String, List<String>> headers, InputStream body) {
+		this.code = code;
+		this.message = message;
+		this.headers = headers;
+		this.rawBody = body != null ? body : new ByteArrayInputStream(new byte[0]);
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return true if status code is 2xx.
+	 */
+	public boolean isSuccessful() {
+		return code >= 200 && code < 300;
+	}
+
+	/**
+	 * @return all headers with lower case names.
+	 */
+	public Map<String, List<String>> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * @param name
+	 *            header name, case insensitive
+	 * @return all values of header, empty list if not exist.
+	 */
+	public List<String> getHeaders(String name) {
+		List<String> values = headers.get(name.toLowerCase(Locale.US));
+		return values != null ? values : Collections.<String> emptyList();
+	}
+
+	/**
+	 * @param name
+	 *            header name, case insensitive
+	 * @return the last value of header, null if not exist.
+	 */
+	public String getHeader(String name) {
+		List<String> values = headers.get(name.toLowerCase(Locale.US));
+		return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+	}
+
+	/**
+	 * Get body stream, gzip content encoding is decoded.
+	 * 
+	 * @return body stream, it must be closed after read.
+	 * @throws IOException
+	 */
+	public InputStream getBody() throws IOException {
+		if (body == null) {
+			String encoding = getHeader("Content-Encoding");
+			if (encoding != null && encoding.contains("gzip")) {
+				body = new GZIPInputStream(rawBody);
+			} else {
+				body = rawBody;
+			}
+		}
+		return body;
+	}
+
+	/**
+	 * Close body stream, connection is returned to pool if body has been
+	 * read to the end, otherwise it is discarded.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (body != null) {
+			body.close();
+		} else {
+			rawBody.close();
+		}
+	}
+}
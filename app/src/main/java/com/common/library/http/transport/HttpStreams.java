@@ -0,0 +1,346 @@
+package com.common.library.http.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+
+/**
+ * Streams of HTTP/1.1 message bodies used by {@link PooledTransport}.
+ */
+final class HttpStreams {
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+	// bytes left of a response which are read on close so its connection can be reused
+	private static final int DISCARD_LIMIT = 8 * 1024;
+
+	private HttpStreams() {
+	}
+
+	/**
+	 * Read one line ended with CRLF or LF.
+	 * 
+	 * @return line without line terminator, null if stream ended before any
+	 *         byte was read.
+	 */
+	static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(80);
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				if (line.size() == 0) {
+					return null;
+				}
+				throw new ProtocolException("Unexpected end of stream");
+			}
+			if (line.size() == MAX_LINE_LENGTH) {
+				throw new ProtocolException("Line is too long");
+			}
+			line.write(b);
+		}
+		byte[] bytes = line.toByteArray();
+		int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+		return new String(bytes, 0, length, "ISO-8859-1");
+	}
+
+	/**
+	 * Response body which returns its connection to pool exactly once, when
+	 * it is read to the end or closed.
+	 */
+	abstract static class ResponseBody extends InputStream {
+		private final ConnectionPool pool;
+		private final PooledConnection connection;
+		private final boolean keepAlive;
+		protected final InputStream in;
+		private boolean released;
+		private boolean closed;
+
+		ResponseBody(ConnectionPool pool, PooledConnection connection, boolean keepAlive) {
+			this.pool = pool;
+			this.connection = connection;
+			this.keepAlive = keepAlive;
+			this.in = connection.in;
+		}
+
+		/**
+		 * Called by subclass when the body has been read to the end.
+		 */
+		protected final void endOfBody(boolean reusable) {
+			if (!released) {
+				released = true;
+				pool.release(connection, keepAlive && reusable);
+			}
+		}
+
+		protected final void checkNotClosed() throws IOException {
+			if (closed) {
+				throw new IOException("Response body has been closed");
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			int count = read(buffer, 0, 1);
+			return count == -1 ? -1 : buffer[0] & 0xff;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			// drain a small remainder, so the connection is still reusable
+			try {
+				byte[] buffer = new byte[1024];
+				int discarded = 0;
+				while (!released && discarded < DISCARD_LIMIT) {
+					int count = read(buffer, 0, buffer.length);
+					if (count == -1) {
+						break;
+					}
+					discarded += count;
+				}
+			} catch (IOException e) {
+				// connection will be discarded
+			}
+			closed = true;
+			endOfBody(false);
+		}
+	}
+
+	static final class EmptyBody extends ResponseBody {
+
+		EmptyBody(ConnectionPool pool, PooledConnection connection, boolean keepAlive) {
+			super(pool, connection, keepAlive);
+			endOfBody(true);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			checkNotClosed();
+			return -1;
+		}
+	}
+
+	static final class FixedLengthBody extends ResponseBody {
+		private long remaining;
+
+		FixedLengthBody(ConnectionPool pool, PooledConnection connection, boolean keepAlive, long length) {
+			super(pool, connection, keepAlive);
+			this.remaining = length;
+			if (remaining == 0) {
+				endOfBody(true);
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			checkNotClosed();
+			if (remaining == 0) {
+				return -1;
+			}
+			int read = in.read(buffer, offset, (int) Math.min(count, remaining));
+			if (read == -1) {
+				endOfBody(false);
+				throw new ProtocolException("Unexpected end of stream, " + remaining + " bytes left");
+			}
+			remaining -= read;
+			if (remaining == 0) {
+				endOfBody(true);
+			}
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(remaining, in.available());
+		}
+	}
+
+	static final class ChunkedBody extends ResponseBody {
+		private long chunkRemaining;
+		private boolean hasMoreChunks = true;
+
+		ChunkedBody(ConnectionPool pool, PooledConnection connection, boolean keepAlive) {
+			super(pool, connection, keepAlive);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			checkNotClosed();
+			if (!hasMoreChunks) {
+				return -1;
+			}
+			if (chunkRemaining == 0) {
+				readChunkSize();
+				if (!hasMoreChunks) {
+					return -1;
+				}
+			}
+
+			int read = in.read(buffer, offset, (int) Math.min(count, chunkRemaining));
+			if (read == -1) {
+				endOfBody(false);
+				throw new ProtocolException("Unexpected end of stream in chunk");
+			}
+			chunkRemaining -= read;
+			if (chunkRemaining == 0) {
+				HttpStreams.readLine(in); // CRLF after chunk data
+			}
+			return read;
+		}
+
+		private void readChunkSize() throws IOException {
+			String line = HttpStreams.readLine(in);
+			if (line == null) {
+				endOfBody(false);
+				throw new ProtocolException("Unexpected end of stream, expected chunk size");
+			}
+			int extension = line.indexOf(';');
+			if (extension != -1) {
+				line = line.substring(0, extension);
+			}
+			try {
+				chunkRemaining = Long.parseLong(line.trim(), 16);
+			} catch (NumberFormatException e) {
+				endOfBody(false);
+				throw new ProtocolException("Invalid chunk size: " + line);
+			}
+
+			if (chunkRemaining == 0) {
+				// skip trailers
+				String trailer;
+				while ((trailer = HttpStreams.readLine(in)) != null && trailer.length() > 0) {
+				}
+				hasMoreChunks = false;
+				endOfBody(true);
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			return hasMoreChunks ? (int) Math.min(chunkRemaining, in.available()) : 0;
+		}
+	}
+
+	/**
+	 * Body without length, it ends when server closes the connection, so the
+	 * connection cannot be reused.
+	 */
+	static final class UntilCloseBody extends ResponseBody {
+		private boolean ended;
+
+		UntilCloseBody(ConnectionPool pool, PooledConnection connection) {
+			super(pool, connection, false);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			checkNotClosed();
+			if (ended) {
+				return -1;
+			}
+			int read = in.read(buffer, offset, count);
+			if (read == -1) {
+				ended = true;
+				endOfBody(false);
+			}
+			return read;
+		}
+	}
+
+	/**
+	 * Stream of request body with Content-Length, closing it only flushes,
+	 * since the socket belongs to the connection. Written bytes are counted,
+	 * {@link BodyLengthException} is thrown if body is longer or shorter than
+	 * the declared length, the connection cannot be reused then.
+	 */
+	static final class FixedLengthOutputStream extends FilterOutputStream {
+		private final long length;
+		private long written;
+
+		FixedLengthOutputStream(OutputStream out, long length) {
+			super(out);
+			this.length = length;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int count) throws IOException {
+			if (count > length - written) {
+				throw new BodyLengthException("Request body is longer than Content-Length " + length);
+			}
+			out.write(buffer, offset, count);
+			written += count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (written != length) {
+				throw new BodyLengthException("Request body has " + written + " bytes, but Content-Length is "
+						+ length);
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * Request body does not match its Content-Length, sending it again does
+	 * not help.
+	 */
+	static final class BodyLengthException extends ProtocolException {
+		private static final long serialVersionUID = 1L;
+
+		BodyLengthException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Stream of request body with unknown length, written with chunked
+	 * transfer encoding, closing it writes the last chunk.
+	 */
+	static final class ChunkedOutputStream extends FilterOutputStream {
+		private static final byte[] CRLF = { '\r', '\n' };
+		private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+		private boolean closed;
+
+		ChunkedOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int count) throws IOException {
+			if (closed) {
+				throw new IOException("Request body has been closed");
+			}
+			if (count == 0) {
+				return;
+			}
+			out.write(Integer.toHexString(count).getBytes("ISO-8859-1"));
+			out.write(CRLF);
+			out.write(buffer, offset, count);
+			out.write(CRLF);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				out.write(LAST_CHUNK);
+				out.flush();
+			}
+		}
+	}
+}
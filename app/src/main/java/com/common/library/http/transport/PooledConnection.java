@@ -0,0 +1,98 @@
+package com.common.library.http.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.common.library.io.utils.IOUtils;
+
+/**
+ * One socket connection to a host, owned by {@link ConnectionPool}.
+ */
+final class PooledConnection {
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	final String route;
+	final Socket socket;
+	final InputStream in;
+	final OutputStream out;
+	// time when it became idle, used by pool to evict it
+	long idleAtMillis;
+	int useCount;
+
+	private PooledConnection(String route, Socket socket) throws IOException {
+		this.route = route;
+		this.socket = socket;
+		this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+	}
+
+	/**
+	 * Open socket to host, TLS handshake is done and host name is verified
+	 * for secure connection.
+	 */
+	static PooledConnection connect(String route, String host, int port, boolean secure, int connectTimeout)
+			throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			socket.setTcpNoDelay(true);
+			if (secure) {
+				SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(
+						socket, host, port, true);
+				sslSocket.startHandshake();
+				if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+					throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+				}
+				socket = sslSocket;
+			}
+			return new PooledConnection(route, socket);
+		} catch (IOException e) {
+			IOUtils.closeQuietly(socket);
+			throw e;
+		}
+	}
+
+	/**
+	 * Check whether idle connection is still usable, server may have closed
+	 * it since it was returned to pool.
+	 */
+	boolean isHealthy() {
+		if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+			return false;
+		}
+
+		try {
+			int readTimeout = socket.getSoTimeout();
+			try {
+				socket.setSoTimeout(1);
+				in.mark(1);
+				if (in.read() == -1) {
+					return false; // closed by server
+				}
+				in.reset();
+				return false; // unexpected data of an idle connection
+			} finally {
+				socket.setSoTimeout(readTimeout);
+			}
+		} catch (SocketTimeoutException e) {
+			return true; // nothing to read, still open
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	void close() {
+		IOUtils.closeQuietly(socket);
+	}
+}
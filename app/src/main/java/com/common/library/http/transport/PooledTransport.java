@@ -0,0 +1,199 @@
+package com.common.library.http.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.common.library.http.body.HttpBody;
+import com.common.library.http.method.GetMethod;
+import com.common.library.http.method.HttpMethod;
+
+/**
+ * HTTP/1.1 transport over sockets from a {@link ConnectionPool}, connections
+ * are kept alive and reused by later requests to the same host, and at most
+ * {@link ConnectionPool#getMaxConnectionsPerHost()} sockets are opened to a
+ * host however many requests are sent at the same time.
+ * <p>
+ * Response body is streamed from the socket, the connection is returned to
+ * pool when the body is read to the end or closed. Redirects are not
+ * followed, proxies are not supported, and SNI is only sent where the
+ * platform's default SSL socket sends it, so it is not the default transport.
+ *
+ */
+public class PooledTransport implements Transport {
+	private static final String CRLF = "\r\n";
+
+	private final ConnectionPool pool;
+
+	public PooledTransport(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	public ConnectionPool getConnectionPool() {
+		return pool;
+	}
+
+	@Override
+	public HttpResponse execute(HttpMethod httpMethod) throws IOException {
+		URL url = Requests.buildUrl(httpMethod);
+		boolean secure;
+		if ("https".equalsIgnoreCase(url.getProtocol())) {
+			secure = true;
+		} else if ("http".equalsIgnoreCase(url.getProtocol())) {
+			secure = false;
+		} else {
+			throw new ProtocolException("Unsupported protocol: " + url.getProtocol());
+		}
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+		while (true) {
+			PooledConnection connection = pool.acquire(url.getHost(), port, secure, httpMethod.getConnectTimeout());
+			boolean reused = connection.useCount > 1;
+			boolean requestSent = false;
+			try {
+				connection.socket.setSoTimeout(httpMethod.getReadTimeout());
+				writeRequest(connection, url, httpMethod);
+				requestSent = true;
+				return readResponse(connection, httpMethod);
+			} catch (IOException e) {
+				pool.release(connection, false);
+				// pooled connection may be closed by server just before reuse, try another one
+				if (reused && canRetry(httpMethod, requestSent) && !(e instanceof HttpStreams.BodyLengthException)) {
+					continue;
+				}
+				throw e;
+			}
+		}
+	}
+
+	private static boolean canRetry(HttpMethod httpMethod, boolean requestSent) {
+		if (GetMethod.METHOD.equals(httpMethod.getMethod())) {
+			return true;
+		}
+		// body may have been consumed if it is streaming, and server may have handled the request if it was sent
+		HttpBody body = Requests.getBody(httpMethod);
+		return !requestSent && (body == null || !body.isStreaming());
+	}
+
+	private void writeRequest(PooledConnection connection, URL url, HttpMethod httpMethod) throws IOException {
+		String path = url.getFile();
+		StringBuilder head = new StringBuilder(256);
+		head.append(httpMethod.getMethod()).append(' ').append(path.length() == 0 ? "/" : path)
+				.append(" HTTP/1.1").append(CRLF);
+		head.append("Host: ").append(url.getHost());
+		if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+			head.append(':').append(url.getPort());
+		}
+		head.append(CRLF);
+
+		for (Map.Entry<String, String> header : Requests.buildHeaders(httpMethod).entrySet()) {
+			head.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+		}
+
+		HttpBody body = Requests.getBody(httpMethod);
+		long contentLength = -1;
+		if (body != null) {
+			contentLength = Requests.getContentLength(body);
+			if (contentLength >= 0) {
+				head.append("Content-Length: ").append(contentLength).append(CRLF);
+			} else {
+				head.append("Transfer-Encoding: chunked").append(CRLF);
+			}
+		}
+		head.append(CRLF);
+
+		OutputStream out = connection.out;
+		out.write(head.toString().getBytes("UTF-8"));
+		if (body != null) {
+			OutputStream bodyOut = contentLength >= 0 ? new HttpStreams.FixedLengthOutputStream(out, contentLength)
+					: new HttpStreams.ChunkedOutputStream(out);
+			body.writeTo(bodyOut);
+			bodyOut.close();
+		}
+		out.flush();
+	}
+
+	private HttpResponse readResponse(PooledConnection connection, HttpMethod httpMethod) throws IOException {
+		String statusLine;
+		int code;
+		Map<String, List<String>> headers;
+		do {
+			statusLine = HttpStreams.readLine(connection.in);
+			if (statusLine == null) {
+				throw new ProtocolException("Connection closed before response");
+			}
+			code = parseStatusCode(statusLine);
+			headers = readHeaders(connection);
+			// skip interim responses such as "100 Continue"
+		} while (code >= 100 && code < 200);
+
+		String version = statusLine.substring(0, statusLine.indexOf(' '));
+		String connectionHeader = getHeader(headers, "connection");
+		boolean keepAlive = "HTTP/1.0".equals(version) ? "keep-alive".equalsIgnoreCase(connectionHeader)
+				: !"close".equalsIgnoreCase(connectionHeader);
+		keepAlive &= httpMethod.isKeepAlive();
+
+		HttpStreams.ResponseBody body;
+		String transferEncoding = getHeader(headers, "transfer-encoding");
+		String contentLength = getHeader(headers, "content-length");
+		if ("HEAD".equals(httpMethod.getMethod()) || code == 204 || code == 304) {
+			body = new HttpStreams.EmptyBody(pool, connection, keepAlive);
+		} else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+			body = new HttpStreams.ChunkedBody(pool, connection, keepAlive);
+		} else if (contentLength != null) {
+			try {
+				body = new HttpStreams.FixedLengthBody(pool, connection, keepAlive, Long.parseLong(contentLength.trim()));
+			} catch (NumberFormatException e) {
+				throw new ProtocolException("Invalid Content-Length: " + contentLength);
+			}
+		} else {
+			body = new HttpStreams.UntilCloseBody(pool, connection);
+		}
+
+		int messageStart = statusLine.indexOf(' ', statusLine.indexOf(' ') + 1);
+		String message = messageStart == -1 ? "" : statusLine.substring(messageStart + 1);
+		return new HttpResponse(code, message, headers, body);
+	}
+
+	private static int parseStatusCode(String statusLine) throws ProtocolException {
+		// HTTP/1.1 200 OK
+		if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12 || statusLine.charAt(8) != ' ') {
+			throw new ProtocolException("Unexpected status line: " + statusLine);
+		}
+		try {
+			return Integer.parseInt(statusLine.substring(9, 12));
+		} catch (NumberFormatException e) {
+			throw new ProtocolException("Unexpected status line: " + statusLine);
+		}
+	}
+
+	private static Map<String, List<String>> readHeaders(PooledConnection connection) throws IOException {
+		Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+		String line;
+		while ((line = HttpStreams.readLine(connection.in)) != null && line.length() > 0) {
+			int index = line.indexOf(':');
+			if (index <= 0) {
+				throw new ProtocolException("Unexpected header: " + line);
+			}
+			String name = line.substring(0, index).trim().toLowerCase(Locale.US);
+			List<String> values = headers.get(name);
+			if (values == null) {
+				values = new ArrayList<String>(1);
+				headers.put(name, values);
+			}
+			values.add(line.substring(index + 1).trim());
+		}
+		return headers;
+	}
+
+	private static String getHeader(Map<String, List<String>> headers, String name) {
+		List<String> values = headers.get(name);
+		return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+	}
+}
@@ -0,0 +1,95 @@
+package com.common.library.http.transport;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.text.TextUtils;
+
+import com.common.library.http.body.HttpBody;
+import com.common.library.http.body.InputStreamBody;
+import com.common.library.http.method.GetMethod;
+import com.common.library.http.method.HttpMethod;
+import com.common.library.http.method.PostMethod;
+
+/**
+ * Request line and headers shared by transports.
+ */
+final class Requests {
+
+	private Requests() {
+	}
+
+	/**
+	 * @return URL of request, form data of GET method is appended as query.
+	 */
+	static URL buildUrl(HttpMethod httpMethod) throws MalformedURLException {
+		if (GetMethod.METHOD.equals(httpMethod.getMethod())) {
+			String query = httpMethod.getRequest();
+			if (!TextUtils.isEmpty(query)) {
+				String url = httpMethod.getUrl();
+				return new URL(url + (url.indexOf('?') < 0 ? "?" : "&") + query);
+			}
+		}
+		return new URL(httpMethod.getUrl());
+	}
+
+	/**
+	 * @return body of POST method, null for other methods.
+	 */
+	static HttpBody getBody(HttpMethod httpMethod) {
+		if (PostMethod.METHOD.equals(httpMethod.getMethod())) {
+			return ((PostMethod) httpMethod).getBody();
+		}
+		return null;
+	}
+
+	/**
+	 * @return length of body, -1 if unknown and body should be sent chunked.
+	 */
+	static long getContentLength(HttpBody body) {
+		if (body instanceof InputStreamBody) {
+			// it returns available() which is not the real length
+			return -1;
+		}
+		try {
+			return body.getContentLength();
+		} catch (UnsupportedOperationException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Build request headers except Host, Content-Length and
+	 * Transfer-Encoding, which are set by transport.
+	 */
+	static Map<String, String> buildHeaders(HttpMethod httpMethod) {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("Charset", httpMethod.getCharset());
+		headers.put("Connection", httpMethod.isKeepAlive() ? "Keep-Alive" : "close");
+
+		if (!TextUtils.isEmpty(httpMethod.getUserAgent())) {
+			headers.put("User-Agent", httpMethod.getUserAgent());
+		}
+
+		if (httpMethod.isAcceptEncoding()) {
+			headers.put("Accept-Encoding", "gzip");
+		}
+
+		HttpBody body = getBody(httpMethod);
+		if (body != null) {
+			try {
+				headers.put("Content-Type", body.getContentType());
+			} catch (UnsupportedOperationException e) {
+				// body without content type, it may be set by extra headers
+			}
+		}
+
+		Map<String, String> extraHeaders = httpMethod.getHeaders();
+		if (extraHeaders != null) {
+			headers.putAll(extraHeaders);
+		}
+		return headers;
+	}
+}
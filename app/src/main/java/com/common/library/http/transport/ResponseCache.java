@@ -0,0 +1,245 @@
+package com.common.library.http.transport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.common.library.images.DiskLruCache;
+
+/**
+ * Cache of GET responses used by {@link CachingTransport}, entries are kept
+ * in a memory tier in front of a {@link DiskLruCache}.
+ *
+ */
+public final class ResponseCache implements Closeable {
+	private static final String TAG = "response cache";
+	private static final int APP_VERSION = 1;
+	public static final int DEFAULT_MEMORY_CACHE_SIZE = 1024 * 1024; // 1 MiB
+
+	private final DiskLruCache diskCache;
+	private final LruCache<String, CacheEntry> memoryCache;
+	private final int maxMemoryEntrySize;
+
+	private int requestCount;
+	private int hitCount;
+	private int conditionalHitCount;
+	private int missCount;
+
+	private ResponseCache(DiskLruCache diskCache, int memoryCacheSize) {
+		this.diskCache = diskCache;
+		this.maxMemoryEntrySize = memoryCacheSize / 4;
+		this.memoryCache = memoryCacheSize > 0 ? new LruCache<String, CacheEntry>(memoryCacheSize) {
+
+			@Override
+			protected int sizeOf(String key, CacheEntry value) {
+				return value.size();
+			}
+		} : null;
+	}
+
+	/**
+	 * Open cache with memory tier of {@link #DEFAULT_MEMORY_CACHE_SIZE}.
+	 * 
+	 * @param directory
+	 *            directory of disk cache, it should be used by this cache only.
+	 * @param diskCacheSize
+	 *            max bytes of disk cache
+	 */
+	public static ResponseCache open(File directory, long diskCacheSize) throws IOException {
+		return open(directory, diskCacheSize, DEFAULT_MEMORY_CACHE_SIZE);
+	}
+
+	/**
+	 * @param directory
+	 *            directory of disk cache, it should be used by this cache only.
+	 * @param diskCacheSize
+	 *            max bytes of disk cache
+	 * @param memoryCacheSize
+	 *            max bytes of memory tier, 0 to disable it.
+	 */
+	public static ResponseCache open(File directory, long diskCacheSize, int memoryCacheSize) throws IOException {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Can not create cache directory " + directory);
+		}
+		return new ResponseCache(DiskLruCache.open(directory, APP_VERSION, CacheEntry.VALUE_COUNT, diskCacheSize),
+				memoryCacheSize);
+	}
+
+	/**
+	 * @return max bytes of a response body which is stored.
+	 */
+	public long getMaxEntrySize() {
+		return diskCache.maxSize() / 8;
+	}
+
+	/**
+	 * @return stored entry of URL, null if not found or failed to read.
+	 */
+	CacheEntry get(String url) {
+		String key = keyOf(url);
+		if (memoryCache != null) {
+			CacheEntry entry = memoryCache.get(key);
+			if (entry != null) {
+				return entry;
+			}
+		}
+
+		DiskLruCache.Snapshot snapshot = null;
+		try {
+			snapshot = diskCache.get(key);
+			if (snapshot == null) {
+				return null;
+			}
+			CacheEntry entry = CacheEntry.readFrom(snapshot, url);
+			if (entry != null) {
+				putInMemory(key, entry);
+			}
+			return entry;
+		} catch (IOException e) {
+			Log.e(TAG, e.getMessage(), e);
+			return null;
+		} finally {
+			if (snapshot != null) {
+				snapshot.close();
+			}
+		}
+	}
+
+	/**
+	 * Store entry, it is skipped if the same entry is being written by another
+	 * thread.
+	 */
+	void put(String url, CacheEntry entry) {
+		String key = keyOf(url);
+		putInMemory(key, entry);
+
+		DiskLruCache.Editor editor = null;
+		try {
+			editor = diskCache.edit(key);
+			if (editor == null) {
+				return;
+			}
+			entry.writeTo(editor);
+			editor.commit();
+		} catch (IOException e) {
+			Log.e(TAG, e.getMessage(), e);
+			if (editor != null) {
+				try {
+					editor.abort();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	private void putInMemory(String key, CacheEntry entry) {
+		if (memoryCache != null && entry.size() <= maxMemoryEntrySize) {
+			memoryCache.put(key, entry);
+		}
+	}
+
+	/**
+	 * Remove stored response of URL.
+	 */
+	public void remove(String url) {
+		String key = keyOf(url);
+		if (memoryCache != null) {
+			memoryCache.remove(key);
+		}
+		try {
+			diskCache.remove(key);
+		} catch (IOException e) {
+			Log.e(TAG, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Remove all stored responses from memory, disk cache is kept.
+	 */
+	public void evictMemory() {
+		if (memoryCache != null) {
+			memoryCache.evictAll();
+		}
+	}
+
+	public long getDiskSize() {
+		return diskCache.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		evictMemory();
+		diskCache.close();
+	}
+
+	/**
+	 * Close cache and delete all stored responses.
+	 */
+	public void delete() throws IOException {
+		evictMemory();
+		diskCache.delete();
+	}
+
+	synchronized void trackResponse(boolean hit, boolean conditionalHit) {
+		requestCount++;
+		if (hit) {
+			hitCount++;
+		} else if (conditionalHit) {
+			conditionalHitCount++;
+		} else {
+			missCount++;
+		}
+	}
+
+	/**
+	 * @return count of GET requests handled by cache.
+	 */
+	public synchronized int getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return count of responses served from cache without network, including
+	 *         stale responses served while revalidating.
+	 */
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return count of responses validated by server with 304 Not Modified.
+	 */
+	public synchronized int getConditionalHitCount() {
+		return conditionalHitCount;
+	}
+
+	/**
+	 * @return count of responses fetched from network.
+	 */
+	public synchronized int getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return MD5 of URL in hex, which is a valid key of disk cache.
+	 */
+	private static String keyOf(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+			StringBuilder key = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return String.valueOf(url.hashCode());
+		} catch (IOException e) {
+			return String.valueOf(url.hashCode());
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.common.library.http.transport;
+
+import java.io.IOException;
+
+import com.common.library.http.method.HttpMethod;
+
+/**
+ * Engine which sends {@link HttpMethod} over the network, it is plugged into
+ * {@link com.common.library.http.httpclient.AbstractHttpClient}.
+ * Implementations must be thread safe.
+ *
+ * @see PooledTransport
+ * @see UrlConnectionTransport
+ */
+public interface Transport {
+
+	/**
+	 * Send request and read response status and headers, response body is
+	 * streamed from the connection.
+	 * 
+	 * @param httpMethod
+	 * @return response which must be closed by caller, or its body fully read
+	 *         and closed, so the connection can be reused.
+	 * @throws IOException
+	 */
+	HttpResponse execute(HttpMethod httpMethod) throws IOException;
+}
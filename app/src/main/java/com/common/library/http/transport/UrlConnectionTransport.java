@@ -0,0 +1,108 @@
+package com.common.library.http.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.common.library.http.body.HttpBody;
+import com.common.library.http.method.HttpMethod;
+import com.common.library.io.utils.IOUtils;
+
+/**
+ * Transport with platform {@link HttpURLConnection}, connections are pooled
+ * by the platform. Response body is streamed from the connection, which is
+ * disconnected only if the body was not read to the end.
+ *
+ */
+public class UrlConnectionTransport implements Transport {
+
+	@Override
+	public HttpResponse execute(HttpMethod httpMethod) throws IOException {
+		URL url = Requests.buildUrl(httpMethod);
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			HttpBody body = Requests.getBody(httpMethod);
+			connection.setRequestMethod(httpMethod.getMethod());
+			connection.setUseCaches(false);
+			connection.setInstanceFollowRedirects(false);
+			connection.setReadTimeout(httpMethod.getReadTimeout());
+			connection.setConnectTimeout(httpMethod.getConnectTimeout());
+			for (Map.Entry<String, String> header : Requests.buildHeaders(httpMethod).entrySet()) {
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			}
+
+			if (body != null) {
+				connection.setDoOutput(true);
+				long contentLength = Requests.getContentLength(body);
+				if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+					connection.setFixedLengthStreamingMode((int) contentLength);
+				} else {
+					connection.setChunkedStreamingMode(0);
+				}
+
+				OutputStream outputStream = connection.getOutputStream();
+				try {
+					body.writeTo(outputStream);
+				} finally {
+					outputStream.close();
+				}
+			}
+
+			int code = connection.getResponseCode();
+			InputStream in = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			if (in == null) {
+				in = new ByteArrayInputStream(new byte[0]);
+			}
+			InputStream responseBody = new FilterInputStream(in) {
+				private boolean ended;
+
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					ended |= b == -1;
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int count) throws IOException {
+					int read = super.read(buffer, offset, count);
+					ended |= read == -1;
+					return read;
+				}
+
+				@Override
+				public void close() throws IOException {
+					super.close();
+					if (!ended) {
+						// unread response cannot be reused
+						IOUtils.close(connection);
+					}
+				}
+			};
+			return new HttpResponse(code, connection.getResponseMessage(), readHeaders(connection), responseBody);
+		} catch (IOException e) {
+			IOUtils.close(connection);
+			throw e;
+		}
+	}
+
+	private static Map<String, List<String>> readHeaders(HttpURLConnection connection) {
+		Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, List<String>> field : connection.getHeaderFields().entrySet()) {
+			// null key is the status line
+			if (field.getKey() != null) {
+				headers.put(field.getKey().toLowerCase(Locale.US), new ArrayList<String>(field.getValue()));
+			}
+		}
+		return headers;
+	}
+}
@@ -0,0 +1,21 @@
+package com.common.library.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Create a secondary index on several columns of table, column order matters
+ * as SQLite can only use the leftmost columns. Use {@link CompositeIndexes} to
+ * declare more than one composite index.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CompositeIndex {
+	public String name() default "";
+
+	public String[] columns();
+
+	public boolean unique() default false;
+}
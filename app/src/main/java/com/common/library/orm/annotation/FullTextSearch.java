@@ -0,0 +1,18 @@
+package com.common.library.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Index the text column with FTS4, all such columns of a table are copied
+ * into a shadow virtual table "[table]_fts" which is kept in sync by
+ * triggers, then they can be searched by
+ * {@link com.common.library.orm.sqlite.DbUtils#search(Class, String, int)}
+ * without a full table scan.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FullTextSearch {
+}
@@ -0,0 +1,18 @@
+package com.common.library.orm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Create a secondary index on the column, index name will be
+ * "idx_[table]_[column]" if it is not specified.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Index {
+	public String name() default "";
+
+	public boolean unique() default false;
+}
@@ -9,4 +9,9 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Table {
 	public String name();
+
+	/**
+	 * Whether records found by id are kept in the entity cache of DbUtils.
+	 */
+	public boolean cacheable() default false;
 }
@@ -1,11 +1,20 @@
 package com.common.library.orm.async;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.common.library.orm.sqlite.BaseTable;
+import com.common.library.orm.sqlite.DbUtils;
+import com.common.library.orm.sqlite.DbUtils.OnTableChangedListener;
+import com.common.library.orm.sqlite.LiveQuery;
 import com.common.library.orm.sqlite.SQLBuilder;
 
 /**
@@ -78,6 +87,26 @@ public class SQLiteCursorLoader extends AbstractCursorLoader {
 
 	private int queryMode = -1;
 
+	// reload automatically when observed tables changed
+	private DbUtils observedDbUtils;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final Runnable contentChanged = new Runnable() {
+
+		@Override
+		public void run() {
+			onContentChanged();
+		}
+	};
+	private final OnTableChangedListener tableObserver = new OnTableChangedListener() {
+
+		@Override
+		public void onTableChanged(Set<Class<? extends BaseTable>> tableClasses) {
+			// merge changes in a short time into one reload
+			handler.removeCallbacks(contentChanged);
+			handler.postDelayed(contentChanged, LiveQuery.DEFAULT_DEBOUNCE_MILLIS);
+		}
+	};
+
 	public SQLiteCursorLoader(Context context, Cursor cursor) {
 		super(context);
 		this.cursor = cursor;
@@ -104,6 +133,43 @@ public class SQLiteCursorLoader extends AbstractCursorLoader {
 		this.queryMode = MODE_QUERY;
 	}
 
+	/**
+	 * Reload data when any of tables is changed by {@link DbUtils}, instead of
+	 * restarting loader manually. It does not work for loader created with a
+	 * cursor, since the cursor cannot be queried again.
+	 * 
+	 * @param dbUtils
+	 * @param tableClasses
+	 *            tables read by this loader
+	 * @return this loader
+	 */
+	public SQLiteCursorLoader observeTables(DbUtils dbUtils, Collection<Class<? extends BaseTable>> tableClasses) {
+		if (observedDbUtils != null) {
+			observedDbUtils.unregisterTableObserver(tableObserver);
+		}
+		observedDbUtils = dbUtils;
+		dbUtils.registerTableObserver(tableObserver, tableClasses);
+		return this;
+	}
+
+	/**
+	 * Reload data when the table is changed, see
+	 * {@link #observeTables(DbUtils, Collection)}.
+	 */
+	public SQLiteCursorLoader observeTable(DbUtils dbUtils, Class<? extends BaseTable> tableClass) {
+		return observeTables(dbUtils, Collections.<Class<? extends BaseTable>> singleton(tableClass));
+	}
+
+	@Override
+	protected void onReset() {
+		super.onReset();
+		if (observedDbUtils != null) {
+			observedDbUtils.unregisterTableObserver(tableObserver);
+			observedDbUtils = null;
+		}
+		handler.removeCallbacks(contentChanged);
+	}
+
 	/**
 	 * Runs on a worker thread and performs the actual database query to
 	 * retrieve the Cursor.
@@ -15,11 +15,21 @@ import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Parcel;
 import android.os.RemoteException;
 
 import com.common.library.orm.sqlite.BaseTable;
+import com.common.library.orm.sqlite.DbUtils;
 
 public class ContentUtils {
+	/**
+	 * Default max count of operations or rows sent to provider in one Binder
+	 * transaction by batch helpers.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 200;
+	// approximate max size of rows or operations in one chunk, Binder transaction buffer is only 1MB per process
+	private static final int MAX_CHUNK_BYTES = 256 * 1024;
+
 	/**
 	 * Restore a subclass of EntityContent from the database
 	 */
@@ -135,6 +145,24 @@ public class ContentUtils {
 		}
 	}
 
+	/**
+	 * Query records of table class from provider, rows are restored with the
+	 * same compiled mapping as {@link DbUtils}, column indexes are resolved
+	 * only once for the whole cursor.
+	 */
+	public static <T extends BaseTable> List<T> findTables(Context context, Uri uri, Class<T> tableClass,
+			String selection, String[] selectionArgs, String orderBy) {
+		Cursor c = context.getContentResolver().query(uri, null, selection, selectionArgs, orderBy);
+		if (c == null) {
+			throw new RuntimeException("provider unavailable for " + uri);
+		}
+		try {
+			return DbUtils.restoreAll(c, tableClass);
+		} finally {
+			c.close();
+		}
+	}
+
 	protected static <T extends BaseContent> T getContent(Cursor cursor, Class<T> tableClass) {
 		try {
 			T content = tableClass.newInstance();
@@ -192,7 +220,10 @@ public class ContentUtils {
 	}
 
 	/**
-	 * Insert records in batch mode.
+	 * Insert records in batch mode, all operations are applied in one batch,
+	 * atomically if the provider supports transactions. For batches too large
+	 * for one Binder transaction, see
+	 * {@link #applyBatch(Context, String, ArrayList, int)}.
 	 */
 	public static <T extends BaseContent> Uri[] saveAll(Context context, String authority, Uri uri, List<T> contents) {
 		if(contents == null || contents.size() == 0){
@@ -220,6 +251,142 @@ public class ContentUtils {
 		}
 	}
 
+	/**
+	 * Insert records with {@link android.content.ContentResolver#bulkInsert(Uri, ContentValues[])},
+	 * @see #bulkInsert(Context, Uri, ContentValues[], int)
+	 */
+	public static <T extends BaseContent> int[] bulkInsert(Context context, Uri uri, List<T> contents) {
+		ContentValues[] values = new ContentValues[contents.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = contents.get(i).toContentValues();
+		}
+		return bulkInsert(context, uri, values, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Insert rows with {@link android.content.ContentResolver#bulkInsert(Uri, ContentValues[])}
+	 * in chunks, a chunk is closed when it reaches chunk size or its estimated
+	 * size is about to exceed the limit of one Binder transaction.
+	 * 
+	 * @param context
+	 * @param uri
+	 * @param values
+	 *            rows to insert
+	 * @param chunkSize
+	 *            max count of rows in one chunk
+	 * @return count of rows inserted by each chunk
+	 */
+	public static int[] bulkInsert(Context context, Uri uri, ContentValues[] values, int chunkSize) {
+		if (values == null || values.length == 0) {
+			return new int[0];
+		}
+
+		List<Integer> results = new ArrayList<Integer>();
+		int start = 0;
+		int bytes = 0;
+		for (int i = 0; i < values.length; i++) {
+			int rowBytes = estimateSize(values[i]);
+			if (i > start && (i - start == chunkSize || bytes + rowBytes > MAX_CHUNK_BYTES)) {
+				results.add(bulkInsertChunk(context, uri, values, start, i));
+				start = i;
+				bytes = 0;
+			}
+			bytes += rowBytes;
+		}
+		results.add(bulkInsertChunk(context, uri, values, start, values.length));
+
+		int[] counts = new int[results.size()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = results.get(i);
+		}
+		return counts;
+	}
+
+	private static int bulkInsertChunk(Context context, Uri uri, ContentValues[] values, int start, int end) {
+		ContentValues[] chunk = new ContentValues[end - start];
+		System.arraycopy(values, start, chunk, 0, chunk.length);
+		return context.getContentResolver().bulkInsert(uri, chunk);
+	}
+
+	// rough parcel size of values, only used to keep chunks under the Binder limit
+	private static int estimateSize(ContentValues values) {
+		int size = 0;
+		for (Entry<String, Object> entry : values.valueSet()) {
+			size += 8 + entry.getKey().length() * 2;
+			Object value = entry.getValue();
+			if (value instanceof String) {
+				size += ((String) value).length() * 2;
+			} else if (value instanceof byte[]) {
+				size += ((byte[]) value).length;
+			} else {
+				size += 8;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Apply operations in chunks so that one Binder transaction does not
+	 * exceed its limit, a chunk is closed when it reaches chunk size or its
+	 * parcelled size is about to exceed the limit. Each chunk is applied
+	 * atomically by the provider if it supports transactions, but the whole
+	 * batch is not, so only use it for batches which need not be atomic.
+	 * <p>
+	 * Note: operations with back references must be in the same chunk as the
+	 * referenced operations, and if a chunk failed, chunks applied before are
+	 * kept.
+	 * 
+	 * @param context
+	 * @param authority
+	 * @param operations
+	 * @param chunkSize
+	 *            max count of operations in one chunk
+	 * @return results of each chunk
+	 * @throws RemoteException
+	 * @throws OperationApplicationException
+	 */
+	public static List<ContentProviderResult[]> applyBatch(Context context, String authority,
+			ArrayList<ContentProviderOperation> operations, int chunkSize) throws RemoteException,
+			OperationApplicationException {
+		List<ContentProviderResult[]> results = new ArrayList<ContentProviderResult[]>();
+		if (operations == null || operations.isEmpty()) {
+			return results;
+		}
+
+		int start = 0;
+		int bytes = 0;
+		for (int i = 0; i < operations.size(); i++) {
+			int operationBytes = measureSize(operations.get(i));
+			if (i > start && (i - start == chunkSize || bytes + operationBytes > MAX_CHUNK_BYTES)) {
+				results.add(applyBatchChunk(context, authority, operations, start, i));
+				start = i;
+				bytes = 0;
+			}
+			bytes += operationBytes;
+		}
+		results.add(applyBatchChunk(context, authority, operations, start, operations.size()));
+		return results;
+	}
+
+	private static ContentProviderResult[] applyBatchChunk(Context context, String authority,
+			ArrayList<ContentProviderOperation> operations, int start, int end) throws RemoteException,
+			OperationApplicationException {
+		ArrayList<ContentProviderOperation> chunk = new ArrayList<ContentProviderOperation>(operations.subList(
+				start, end));
+		return context.getContentResolver().applyBatch(authority, chunk);
+	}
+
+	// parcelled size of operation, which is what Binder transaction carries
+	private static int measureSize(ContentProviderOperation operation) {
+		Parcel parcel = Parcel.obtain();
+		try {
+			operation.writeToParcel(parcel, 0);
+			return parcel.dataSize();
+		} finally {
+			parcel.recycle();
+		}
+	}
+
 	public static <T extends BaseContent> int update(Context context, Uri uri, T t){
 		if(t == null){
 			throw new RuntimeException("Content to be update cannot be null");
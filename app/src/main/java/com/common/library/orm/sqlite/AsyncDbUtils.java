@@ -0,0 +1,452 @@
+package com.common.library.orm.sqlite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.ContentValues;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.common.library.thread.ThreadWork;
+
+/**
+ * Asynchronous facade of {@link DbUtils}, jobs run on {@link #DB_EXECUTOR}
+ * and results are delivered to {@link Callback} in main thread. Every method
+ * returns the {@link ThreadWork} running the job, which can be cancelled by
+ * itself or together with other jobs by the {@link ThreadWork.Tracker}, e.g.
+ * in onDestroy() of screen.
+ * <p>
+ * Methods should be called in main thread.
+ * <p>
+ * Identical read jobs in flight are executed only once and their result is
+ * shared by all callers, so results of reads should be treated as read only.
+ * A read never joins one which is submitted before a write. Cancelling a read
+ * which others have joined only stops its callback, the others still get the
+ * result.
+ * <p>
+ * Write jobs are never dropped by cancellation, even when they are still
+ * queued. Cancelling them, by itself or by the tracker, only stops their
+ * callback, the write is still executed and {@link ThreadWork#isCancelled()}
+ * stays false.
+ * 
+ * <pre>
+ * mAsyncDbUtils = new AsyncDbUtils(dbUtils, mTracker);
+ * mAsyncDbUtils.findAll(Account.class, new AsyncDbUtils.Callback&lt;List&lt;Account&gt;&gt;() {
+ * 	...
+ * });
+ * 
+ * // in onDestroy()
+ * mTracker.cancellAll();
+ * </pre>
+ */
+public final class AsyncDbUtils {
+	private static final int POOL_SIZE = 2;
+	private static final int KEEP_ALIVE = 30;
+
+	private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+		private final AtomicInteger mCount = new AtomicInteger(1);
+
+		public Thread newThread(final Runnable r) {
+			return new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					// database jobs should not compete with the UI thread
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			}, "DbWork #" + mCount.getAndIncrement());
+		}
+	};
+
+	/**
+	 * Dedicated executor for database jobs, so they do not queue with network
+	 * and other jobs in {@link ThreadWork#PARALLEL_EXECUTOR}.
+	 */
+	public static final Executor DB_EXECUTOR = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), sThreadFactory);
+
+	// read jobs in flight, keyed by database name and query
+	private static final Map<String, SharedRead<?>> sInFlightReads = new HashMap<String, SharedRead<?>>();
+
+	// runs joined reads at once, they only hand out the shared result
+	private static final Executor DIRECT_EXECUTOR = new Executor() {
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Callback of asynchronous jobs, called in main thread.
+	 */
+	public interface Callback<R> {
+		void onSuccess(R result);
+
+		void onError(Exception error);
+	}
+
+	private final DbUtils mDbUtils;
+	private final ThreadWork.Tracker mTracker;
+
+	/**
+	 * @param dbUtils
+	 * @param tracker
+	 *            to cancel jobs in bulk, can be null.
+	 */
+	public AsyncDbUtils(DbUtils dbUtils, ThreadWork.Tracker tracker) {
+		mDbUtils = dbUtils;
+		mTracker = tracker;
+	}
+
+	public DbUtils getDbUtils() {
+		return mDbUtils;
+	}
+
+	/** @see DbUtils#findAll(Class) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, List<T>> findAll(final Class<T> tableClass,
+			Callback<List<T>> callback) {
+		return read(new Callable<List<T>>() {
+
+			@Override
+			public List<T> call() throws Exception {
+				return mDbUtils.findAll(tableClass);
+			}
+		}, callback, "findAll", tableClass);
+	}
+
+	/** @see DbUtils#find(Class, String, String[], String, String, String) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, List<T>> find(final Class<T> tableClass,
+			final String selection, final String[] selectionArgs, final String groupBy, final String having,
+			final String orderBy, Callback<List<T>> callback) {
+		return read(new Callable<List<T>>() {
+
+			@Override
+			public List<T> call() throws Exception {
+				return mDbUtils.find(tableClass, selection, selectionArgs, groupBy, having, orderBy);
+			}
+		}, callback, "find", tableClass, selection, selectionArgs, groupBy, having, orderBy);
+	}
+
+	/** @see DbUtils#findById(Class, long) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, T> findById(final Class<T> tableClass,
+			final long id, Callback<T> callback) {
+		return read(new Callable<T>() {
+
+			@Override
+			public T call() throws Exception {
+				return mDbUtils.findById(tableClass, id);
+			}
+		}, callback, "findById", tableClass, id);
+	}
+
+	/** @see DbUtils#count(Class, String, String[]) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, Integer> count(final Class<T> tableClass,
+			final String selection, final String[] selectionArgs, Callback<Integer> callback) {
+		return read(new Callable<Integer>() {
+
+			@Override
+			public Integer call() throws Exception {
+				return mDbUtils.count(tableClass, selection, selectionArgs);
+			}
+		}, callback, "count", tableClass, selection, selectionArgs);
+	}
+
+	/** @see DbUtils#save(Class, BaseTable) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, Long> save(final Class<T> tableClass,
+			final T record, Callback<Long> callback) {
+		return write(new Callable<Long>() {
+
+			@Override
+			public Long call() throws Exception {
+				return mDbUtils.save(tableClass, record);
+			}
+		}, callback);
+	}
+
+	/** @see DbUtils#saveAll(Class, List) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, List<Long>> saveAll(final Class<T> tableClass,
+			final List<T> records, Callback<List<Long>> callback) {
+		return write(new Callable<List<Long>>() {
+
+			@Override
+			public List<Long> call() throws Exception {
+				return mDbUtils.saveAll(tableClass, records);
+			}
+		}, callback);
+	}
+
+	/** @see DbUtils#update(Class, long, ContentValues) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, Integer> update(final Class<T> tableClass,
+			final long id, final ContentValues values, Callback<Integer> callback) {
+		return write(new Callable<Integer>() {
+
+			@Override
+			public Integer call() throws Exception {
+				return mDbUtils.update(tableClass, id, values);
+			}
+		}, callback);
+	}
+
+	/** @see DbUtils#update(BaseTable) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, Integer> update(final T record,
+			Callback<Integer> callback) {
+		return write(new Callable<Integer>() {
+
+			@Override
+			public Integer call() throws Exception {
+				return mDbUtils.update(record);
+			}
+		}, callback);
+	}
+
+	/** @see DbUtils#delete(BaseTable) */
+	public <T extends BaseTable> ThreadWork<Void, Void, Exception, Integer> delete(final T record,
+			Callback<Integer> callback) {
+		return write(new Callable<Integer>() {
+
+			@Override
+			public Integer call() throws Exception {
+				return mDbUtils.delete(record);
+			}
+		}, callback);
+	}
+
+	/** @see DbUtils#executeBatchJobs(BatchJobs) */
+	public ThreadWork<Void, Void, Exception, Void> executeBatchJobs(final BatchJobs batchJobs,
+			Callback<Void> callback) {
+		return write(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				mDbUtils.executeBatchJobs(batchJobs);
+				return null;
+			}
+		}, callback);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <R> ThreadWork<Void, Void, Exception, R> read(Callable<R> job, Callback<R> callback,
+			Object... keyParts) {
+		String key = buildKey(keyParts);
+		synchronized (sInFlightReads) {
+			SharedRead<R> shared = (SharedRead<R>) sInFlightReads.get(key);
+			if (shared != null) {
+				// started when the shared read completes, no thread waits for it
+				DbWork<R> joiner = new DbWork<R>(mTracker, shared.resultJob(), callback, false, null);
+				shared.mJoiners.add(joiner);
+				return joiner;
+			}
+			shared = new SharedRead<R>(key, job);
+			sInFlightReads.put(key, shared);
+			return new DbWork<R>(mTracker, shared, callback, false, shared).executeOnExecutor(DB_EXECUTOR);
+		}
+	}
+
+	private <R> ThreadWork<Void, Void, Exception, R> write(final Callable<R> job, Callback<R> callback) {
+		// reads submitted later should see this write
+		clearInFlightReads();
+		Callable<R> write = new Callable<R>() {
+
+			@Override
+			public R call() throws Exception {
+				try {
+					return job.call();
+				} finally {
+					// reads started before this write may return old data,
+					// later reads should not join them
+					clearInFlightReads();
+				}
+			}
+		};
+		return new DbWork<R>(mTracker, write, callback, true, null).executeOnExecutor(DB_EXECUTOR);
+	}
+
+	private static void clearInFlightReads() {
+		synchronized (sInFlightReads) {
+			sInFlightReads.clear();
+		}
+	}
+
+	private String buildKey(Object... keyParts) {
+		StringBuilder key = new StringBuilder(mDbUtils.getDbHelper().getDatabaseName());
+		for (Object part : keyParts) {
+			key.append('\u0000');
+			if (part instanceof Class) {
+				key.append(((Class<?>) part).getName());
+			} else if (part instanceof String[]) {
+				String[] array = (String[]) part;
+				key.append(array.length);
+				for (String item : array) {
+					key.append('\u0001').append(item);
+				}
+			} else {
+				key.append(part);
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Read job which identical reads join, they are started with its result
+	 * in main thread when it completes.
+	 */
+	private static final class SharedRead<R> implements Callable<R> {
+		private final String mKey;
+		private final Callable<R> mJob;
+		// guarded by sInFlightReads
+		private final List<DbWork<R>> mJoiners = new ArrayList<DbWork<R>>();
+		private R mResult;
+		private Exception mError;
+
+		SharedRead(String key, Callable<R> job) {
+			mKey = key;
+			mJob = job;
+		}
+
+		@Override
+		public R call() throws Exception {
+			boolean completed = false;
+			try {
+				mResult = mJob.call();
+				completed = true;
+				return mResult;
+			} catch (Exception e) {
+				mError = e;
+				completed = true;
+				throw e;
+			} finally {
+				if (!completed) {
+					mError = new IllegalStateException("Shared read failed");
+				}
+				final List<DbWork<R>> joiners;
+				synchronized (sInFlightReads) {
+					if (sInFlightReads.get(mKey) == this) {
+						sInFlightReads.remove(mKey);
+					}
+					joiners = new ArrayList<DbWork<R>>(mJoiners);
+				}
+				if (!joiners.isEmpty()) {
+					sMainHandler.post(new Runnable() {
+
+						@Override
+						public void run() {
+							for (DbWork<R> joiner : joiners) {
+								// a cancelled joiner has already finished
+								if (!joiner.isCancelled()) {
+									joiner.executeOnExecutor(DIRECT_EXECUTOR);
+								}
+							}
+						}
+					});
+				}
+			}
+		}
+
+		/**
+		 * @return job which hands out result of this read, only to be run
+		 *         after this read completes.
+		 */
+		Callable<R> resultJob() {
+			return new Callable<R>() {
+
+				@Override
+				public R call() throws Exception {
+					if (mError != null) {
+						throw mError;
+					}
+					return mResult;
+				}
+			};
+		}
+
+		/**
+		 * Stop others from joining this read when nobody has joined it yet.
+		 * 
+		 * @return false if this read has been joined and must keep running.
+		 */
+		boolean abandon() {
+			synchronized (sInFlightReads) {
+				if (!mJoiners.isEmpty()) {
+					return false;
+				}
+				if (sInFlightReads.get(mKey) == this) {
+					sInFlightReads.remove(mKey);
+				}
+				return true;
+			}
+		}
+	}
+
+	private static final class DbWork<R> extends ThreadWork<Void, Void, Exception, R> {
+		private final Callable<R> mJob;
+		private final Callback<R> mCallback;
+		private final boolean mWrite;
+		private final SharedRead<R> mSharedRead;
+		private volatile boolean mCallbackCancelled;
+
+		/**
+		 * @param sharedRead
+		 *            the read which others may join, if this work runs it.
+		 */
+		DbWork(ThreadWork.Tracker tracker, Callable<R> job, Callback<R> callback, boolean write,
+				SharedRead<R> sharedRead) {
+			super(tracker);
+			mJob = job;
+			mCallback = callback;
+			mWrite = write;
+			mSharedRead = sharedRead;
+		}
+
+		/**
+		 * Write job keeps running, so data is not lost when tracker cancels
+		 * jobs of a destroyed screen, only its callback is cancelled. So does
+		 * a read which others have joined.
+		 */
+		@Override
+		public void cancel(boolean mayInterruptIfRunning) {
+			if (mWrite || (mSharedRead != null && !mSharedRead.abandon())) {
+				mCallbackCancelled = true;
+			} else {
+				super.cancel(mayInterruptIfRunning);
+			}
+		}
+
+		@Override
+		protected R doInBackground(Void... params) {
+			try {
+				return mJob.call();
+			} catch (Exception e) {
+				publishError(e);
+				return null;
+			}
+		}
+
+		@Override
+		protected void onSuccess(R result) {
+			if (mCallback != null && !mCallbackCancelled) {
+				mCallback.onSuccess(result);
+			}
+		}
+
+		@Override
+		protected void onError(Exception error) {
+			if (mCallback != null && !mCallbackCancelled) {
+				mCallback.onError(error);
+			}
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package com.common.library.orm.sqlite;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -17,6 +20,12 @@ import android.database.sqlite.SQLiteOpenHelper;
  */
 public class BaseDbHelper extends SQLiteOpenHelper {
 	private Context mContext;
+	private final boolean mConcurrencyEnabled;
+	private EntityCache mEntityCache;
+	private final TableObservable mTableObservable = new TableObservable();
+	private final ReentrantLock mWriteLock = new ReentrantLock();
+	// classes added by this helper, other classes known by Tables may belong to other databases
+	private final List<Class<? extends BaseTable>> mTableClasses = new ArrayList<Class<? extends BaseTable>>();
 	protected static Object mLocker = new Object();
 
 	/**
@@ -31,8 +40,20 @@ public class BaseDbHelper extends SQLiteOpenHelper {
 	}
 
 	protected BaseDbHelper(Context context, String databaseName, int version) {
+		this(context, databaseName, version, false);
+	}
+
+	/**
+	 * @param concurrencyEnabled
+	 *            true to open database in write-ahead logging mode, queries
+	 *            from different threads can run in parallel with each other
+	 *            and with the writer, and writes of {@link DbUtils} are
+	 *            serialized by one writer lock.
+	 */
+	protected BaseDbHelper(Context context, String databaseName, int version, boolean concurrencyEnabled) {
 		super(context, databaseName, null, version);
 		mContext = context;
+		mConcurrencyEnabled = concurrencyEnabled;
 		onSQLiteOpen();
 	}
 
@@ -40,8 +61,54 @@ public class BaseDbHelper extends SQLiteOpenHelper {
 		return mContext;
 	}
 
+	/**
+	 * @return true if the application using this database is debuggable, the
+	 *         BuildConfig of this library is always release in applications.
+	 */
+	boolean isDebuggable() {
+		return mContext != null
+				&& (mContext.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+	}
+
+	/**
+	 * @return true if database is opened in write-ahead logging mode.
+	 */
+	public boolean isConcurrencyEnabled() {
+		return mConcurrencyEnabled;
+	}
+
+	/**
+	 * Override to change max count of records in entity cache, which is
+	 * shared by all {@link DbUtils} of this database.
+	 */
+	protected int getEntityCacheSize() {
+		return EntityCache.DEFAULT_MAX_SIZE;
+	}
+
+	synchronized EntityCache getEntityCache() {
+		if (mEntityCache == null) {
+			mEntityCache = new EntityCache(getEntityCacheSize());
+		}
+		return mEntityCache;
+	}
+
+	TableObservable getTableObservable() {
+		return mTableObservable;
+	}
+
+	/**
+	 * @return writer lock shared by all {@link DbUtils} of this database, it
+	 *         is used in concurrency mode.
+	 */
+	ReentrantLock getWriteLock() {
+		return mWriteLock;
+	}
+
 	protected void addTableClass(Class<? extends BaseTable> tableClass) {
 		Tables.addMapping(tableClass);
+		if (!mTableClasses.contains(tableClass)) {
+			mTableClasses.add(tableClass);
+		}
 	}
 
 	/**
@@ -50,15 +117,39 @@ public class BaseDbHelper extends SQLiteOpenHelper {
 	 */
 	@Override
 	public void onCreate(SQLiteDatabase db) {
-		List<Class<? extends BaseTable>> tableClasses = Tables.getTableClasses();
-		for (Class<? extends BaseTable> clazz : tableClasses) {
+		for (Class<? extends BaseTable> clazz : mTableClasses) {
 			createTable(db, clazz);
 		}
 	}
 
+	/**
+	 * Schema of existing tables is migrated to the one declared by table
+	 * classes added by {@link #addTableClass(Class)} with data kept, see {@link SchemaMigrator}, new tables and
+	 * indexes declared by @Index and @CompositeIndex are created, and FTS4
+	 * shadow tables of @FullTextSearch columns are rebuilt. Subclass should
+	 * call super when override this method.
+	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		new SchemaMigrator(db).migrate(mTableClasses);
+		for (Class<? extends BaseTable> clazz : mTableClasses) {
+			createIndexes(db, clazz);
+			createFullTextSearch(db, clazz);
+		}
+	}
 
+	/**
+	 * Recursive triggers are enabled, so rows removed by REPLACE conflict
+	 * resolution, e.g. of a UNIQUE column, fire delete triggers, which keep
+	 * shadow tables of @FullTextSearch in sync.
+	 */
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		db.execSQL("PRAGMA recursive_triggers = ON");
+		if (mConcurrencyEnabled && !db.isReadOnly()) {
+			db.enableWriteAheadLogging();
+		}
 	}
 
 	/**
@@ -72,7 +163,46 @@ public class BaseDbHelper extends SQLiteOpenHelper {
 	protected void createTable(SQLiteDatabase db,
 			Class<? extends BaseTable> tableClass) {
 		Tables.addMapping(tableClass);
-		db.execSQL(SQLBuilder.buildTableCreateSQL(tableClass).getSql());
+		String createSQL = SQLBuilder.buildTableCreateSQL(tableClass).getSql();
+		db.execSQL(createSQL);
+		createIndexes(db, tableClass);
+		createFullTextSearch(db, tableClass);
+		// so the table will not be diffed on next upgrade if its schema was not changed
+		new SchemaMigrator(db).recordSchema(Tables.getTableName(tableClass), createSQL);
+	}
+
+	/**
+	 * Create indexes declared by @Index and @CompositeIndex of table class if
+	 * they do not exist.
+	 * 
+	 * @param db
+	 *            SQLiteDatabase
+	 * @param tableClass
+	 *            table class
+	 */
+	protected void createIndexes(SQLiteDatabase db, Class<? extends BaseTable> tableClass) {
+		for (SQL sql : SQLBuilder.buildIndexCreateSQLs(tableClass)) {
+			db.execSQL(sql.getSql());
+		}
+	}
+
+	/**
+	 * Rebuild the FTS4 shadow table of columns with @FullTextSearch and its
+	 * sync triggers, the old one is dropped first so that changed columns
+	 * take effect, and nothing is created if table class has no such column.
+	 * 
+	 * @param db
+	 *            SQLiteDatabase
+	 * @param tableClass
+	 *            table class
+	 */
+	protected void createFullTextSearch(SQLiteDatabase db, Class<? extends BaseTable> tableClass) {
+		for (SQL sql : SQLBuilder.buildFullTextDropSQLs(tableClass)) {
+			db.execSQL(sql.getSql());
+		}
+		for (SQL sql : SQLBuilder.buildFullTextCreateSQLs(tableClass)) {
+			db.execSQL(sql.getSql());
+		}
 	}
 
 }
@@ -37,10 +37,26 @@ public abstract class BaseTable implements Serializable {
 	public static final int ID_PROJECTION_COLUMN = 0;
 	public static final String ID_SELECTION = _ID + " =?";
 
+	/**
+	 * Whether rows of this table are converted by the compiled
+	 * {@link TableMapper} of table class, override and return false to use the
+	 * reflective conversion instead.
+	 */
+	protected boolean useCompiledMapping() {
+		return true;
+	}
+
 	/**
 	 * Write the Content into a ContentValues container
 	 */
 	public ContentValues toContentValues() {
+		if (useCompiledMapping()) {
+			return Tables.getMapper(getClass()).toContentValues(this);
+		}
+		return toContentValuesReflectively();
+	}
+
+	private ContentValues toContentValuesReflectively() {
 		ContentValues values = new ContentValues();
 		Field[] fields = Tables.getAndSaveFields(getClass());
 
@@ -93,6 +109,28 @@ public abstract class BaseTable implements Serializable {
 	 * Read the Content from a ContentCursor.
 	 */
 	public void restore(Cursor cursor) {
+		if (useCompiledMapping()) {
+			TableMapper mapper = Tables.getMapper(getClass());
+			mapper.restore(this, cursor, mapper.resolveColumns(cursor));
+		} else {
+			restoreReflectively(cursor);
+		}
+	}
+
+	/**
+	 * Read current row of cursor with column indexes which have been resolved
+	 * by {@link TableMapper#resolveColumns(Cursor)}, used to restore many rows
+	 * of the same cursor.
+	 */
+	void restore(Cursor cursor, TableMapper mapper, int[] columnIndexes) {
+		if (useCompiledMapping() && !mapper.hasCustomRestore()) {
+			mapper.restore(this, cursor, columnIndexes);
+		} else {
+			restore(cursor);
+		}
+	}
+
+	private void restoreReflectively(Cursor cursor) {
 		Field[] fields = Tables.getAndSaveFields(getClass());
 		for (int i = 0; i < fields.length; i++) {
 			Field field = fields[i];
@@ -120,6 +158,10 @@ public abstract class BaseTable implements Serializable {
 	private <T extends BaseTable> void setField(Field field, T tableObj, Column column, Cursor cursor, String columnName) {
 		try {
 			int columnIndex = cursor.getColumnIndex(columnName);
+			if (columnIndex < 0) {
+				// column is not in query projection
+				return;
+			}
 			Class<?> dataTypeClass = field.getType();
 			
 			if ((dataTypeClass == Integer.class || dataTypeClass == int.class)) {
@@ -135,7 +177,7 @@ public abstract class BaseTable implements Serializable {
 			} else if (dataTypeClass == Float.class || dataTypeClass == float.class) {
 				field.set(tableObj, cursor.getFloat(columnIndex));
 			} else if (dataTypeClass == Boolean.class || dataTypeClass == boolean.class) {
-				field.set(tableObj, cursor.getInt(columnIndex) == 1);
+				field.set(tableObj, FieldAccessor.readBoolean(cursor, columnIndex));
 			} else if (dataTypeClass == Byte[].class || dataTypeClass == byte[].class) {
 				field.set(tableObj, cursor.getBlob(columnIndex));
 			} else {
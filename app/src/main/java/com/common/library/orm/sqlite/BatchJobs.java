@@ -1,6 +1,8 @@
 package com.common.library.orm.sqlite;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
 import android.content.ContentValues;
 
@@ -13,37 +15,90 @@ import android.content.ContentValues;
  */
 public final class BatchJobs {
 	private ArrayList<SQL> batchJobs;
+	// tables changed by jobs, their cached records are invalidated after execution
+	private final Set<Class<? extends BaseTable>> tableClasses = new HashSet<Class<? extends BaseTable>>();
+
+	/**
+	 * Callback of {@link DbUtils#executeBatchJobs(BatchJobs, int, OnBatchProgressListener)},
+	 * called in the thread executing jobs after each chunk committed.
+	 */
+	public interface OnBatchProgressListener {
+		/**
+		 * @param executedCount
+		 *            count of jobs have been committed
+		 * @param totalCount
+		 *            count of all jobs
+		 * @param chunkTimeMillis
+		 *            time spent to execute and commit the last chunk
+		 */
+		void onProgress(int executedCount, int totalCount, long chunkTimeMillis);
+	}
 
 	public BatchJobs() {
 		this.batchJobs = new ArrayList<SQL>();
 	}
 
 	public <T extends BaseTable> void addInsertJob(T table) {
-		batchJobs.add(SQLBuilder.buildInsertSQL(table));
+		addJob(table.getClass(), SQLBuilder.buildInsertSQL(table));
 	}
 
 	public <T extends BaseTable> void addUpdateJob(Class<T> tableClass, long id, ContentValues values) {
-		batchJobs.add(SQLBuilder.buildUpdateSQL(tableClass, id, values));
+		addJob(tableClass, SQLBuilder.buildUpdateSQL(tableClass, id, values));
 	}
 
 	public <T extends BaseTable> void addUpdateJob(Class<T> tableClass, String where, String[] selectionArgs,
 			ContentValues values) {
-		batchJobs.add(SQLBuilder.buildUpdateSQL(tableClass, where, selectionArgs, values));
+		addJob(tableClass, SQLBuilder.buildUpdateSQL(tableClass, where, selectionArgs, values));
 	}
 
 	public <T extends BaseTable> void addDeleteJob(T table) {
-		batchJobs.add(SQLBuilder.buildDeleteSQL(table));
+		addJob(table.getClass(), SQLBuilder.buildDeleteSQL(table));
 	}
 
 	public <T extends BaseTable> void addDeleteJob(Class<T> tableClass, long id) {
-		batchJobs.add(SQLBuilder.buildDeleteSQL(tableClass, id));
+		addJob(tableClass, SQLBuilder.buildDeleteSQL(tableClass, id));
 	}
 
 	public <T extends BaseTable> void addDeleteJob(Class<T> tableClass, String where, String[] whereArgs) {
-		batchJobs.add(SQLBuilder.buildDeleteSQL(tableClass, where, whereArgs));
+		addJob(tableClass, SQLBuilder.buildDeleteSQL(tableClass, where, whereArgs));
+	}
+
+	// SQL may be null if there is nothing to update or insert
+	private void addJob(Class<? extends BaseTable> tableClass, SQL sql) {
+		if (sql != null) {
+			batchJobs.add(sql);
+			tableClasses.add(tableClass);
+		}
 	}
 
 	public ArrayList<SQL> getBatchJobs() {
 		return batchJobs;
 	}
+
+	Set<Class<? extends BaseTable>> getTableClasses() {
+		return tableClasses;
+	}
+
+	public int size() {
+		return batchJobs.size();
+	}
+
+	/**
+	 * Group consecutive jobs which have the same SQL text, so each group can be
+	 * executed with one compiled statement. Order of jobs is kept.
+	 * 
+	 * @return groups of jobs
+	 */
+	ArrayList<ArrayList<SQL>> getGroupedJobs() {
+		ArrayList<ArrayList<SQL>> groups = new ArrayList<ArrayList<SQL>>();
+		ArrayList<SQL> group = null;
+		for (SQL job : batchJobs) {
+			if (group == null || !group.get(0).getSql().equals(job.getSql())) {
+				group = new ArrayList<SQL>();
+				groups.add(group);
+			}
+			group.add(job);
+		}
+		return groups;
+	}
 }
\ No newline at end of file
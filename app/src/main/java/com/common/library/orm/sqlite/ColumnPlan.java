@@ -0,0 +1,162 @@
+package com.common.library.orm.sqlite;
+
+import java.lang.reflect.Field;
+
+import android.database.sqlite.SQLiteException;
+import android.text.TextUtils;
+
+import com.common.library.orm.DataType;
+import com.common.library.orm.annotation.Column;
+import com.common.library.orm.annotation.DefaultOrderBy;
+import com.common.library.orm.annotation.Foreign;
+import com.common.library.orm.annotation.FullTextSearch;
+import com.common.library.orm.annotation.ID;
+import com.common.library.orm.annotation.Transient;
+
+/**
+ * Immutable metadata of one field of table class, annotations of the field are
+ * read only once when the plan is created and cached in
+ * {@link Tables.TableCache}, so all ORM paths read column name, type and
+ * constraints from here instead of reflecting per call.
+ *
+ */
+final class ColumnPlan {
+	private final Field field;
+	private final String name;
+	private final String type;
+	private final boolean id;
+	private final boolean isTransient;
+	private final boolean notNull;
+	private final boolean unique;
+	private final String defaultValue;
+	private final Class<? extends BaseTable> foreignTable;
+	private final String sortType;
+	private final boolean fullTextSearch;
+	private final FieldAccessor accessor;
+
+	private ColumnPlan(Field field, String name, String type, boolean id, boolean isTransient, boolean notNull,
+			boolean unique, String defaultValue, Class<? extends BaseTable> foreignTable, String sortType,
+			boolean fullTextSearch, FieldAccessor accessor) {
+		this.field = field;
+		this.name = name;
+		this.type = type;
+		this.id = id;
+		this.isTransient = isTransient;
+		this.notNull = notNull;
+		this.unique = unique;
+		this.defaultValue = defaultValue;
+		this.foreignTable = foreignTable;
+		this.sortType = sortType;
+		this.fullTextSearch = fullTextSearch;
+		this.accessor = accessor;
+	}
+
+	/**
+	 * Read annotations of field and create its plan.
+	 *
+	 * @param field
+	 * @param tableName
+	 *            used for error message only
+	 * @return column plan of field
+	 */
+	static ColumnPlan create(Field field, String tableName) {
+		if (field.getAnnotation(Transient.class) != null) {
+			return new ColumnPlan(field, field.getName(), null, false, true, false, false, null, null, null, false,
+					null);
+		}
+
+		Column column = field.getAnnotation(Column.class);
+		if (column == null) {
+			throw new SQLiteException("No @Column or @Transient defined for field \"" + field.getName()
+					+ "\" in table \"" + tableName + "\"");
+		}
+
+		String columnName = column.columnName();
+		if (TextUtils.isEmpty(columnName)) {
+			columnName = field.getName();
+		}
+
+		Foreign foreign = field.getAnnotation(Foreign.class);
+		DefaultOrderBy orderBy = field.getAnnotation(DefaultOrderBy.class);
+		boolean fullTextSearch = field.getAnnotation(FullTextSearch.class) != null;
+		if (fullTextSearch && field.getType() != String.class) {
+			throw new SQLiteException("@FullTextSearch field \"" + field.getName() + "\" in table \"" + tableName
+					+ "\" must be String");
+		}
+		return new ColumnPlan(field, columnName, DataType.getDataTypeByField(field),
+				field.getAnnotation(ID.class) != null, false, column.notNull(), column.unique(),
+				column.defaultValue(), foreign == null ? null : foreign.tableClass(),
+				orderBy == null ? null : orderBy.sortType(), fullTextSearch, FieldAccessor.create(field));
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	/**
+	 * @return resolved column name, or field name for transient field.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return SQLite type of column, see {@link DataType}, null for transient
+	 *         field.
+	 */
+	public String getType() {
+		return type;
+	}
+
+	public boolean isId() {
+		return id;
+	}
+
+	public boolean isTransient() {
+		return isTransient;
+	}
+
+	public boolean isNotNull() {
+		return notNull;
+	}
+
+	public boolean isUnique() {
+		return unique;
+	}
+
+	public String getDefaultValue() {
+		return defaultValue;
+	}
+
+	public boolean hasDefaultValue() {
+		return !TextUtils.isEmpty(defaultValue);
+	}
+
+	/**
+	 * @return referenced table class if field has @Foreign, otherwise null.
+	 */
+	public Class<? extends BaseTable> getForeignTable() {
+		return foreignTable;
+	}
+
+	/**
+	 * @return sort type if field has @DefaultOrderBy, otherwise null.
+	 */
+	public String getSortType() {
+		return sortType;
+	}
+
+	/**
+	 * @return true if field has @FullTextSearch.
+	 */
+	public boolean isFullTextSearch() {
+		return fullTextSearch;
+	}
+
+	/**
+	 * @return typed accessor of field, null for transient field.
+	 */
+	public FieldAccessor getAccessor() {
+		return accessor;
+	}
+}
@@ -1,14 +1,33 @@
 package com.common.library.orm.sqlite;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
+import com.common.library.orm.annotation.DefaultOrderBy;
+import com.common.library.orm.sqlite.BatchJobs.OnBatchProgressListener;
+
 
 /**
  * A convenient tool to do CRUD actions on SQLite database.
@@ -17,8 +36,50 @@ import android.text.TextUtils;
  * 
  */
 public final class DbUtils {
-	private SQLiteDatabase database;
+	/**
+	 * Listener of table changes, see
+	 * {@link DbUtils#registerTableObserver(OnTableChangedListener, Collection)}.
+	 */
+	public interface OnTableChangedListener {
+		/**
+		 * Called in the thread which changed tables, after the change was
+		 * executed. Heavy work should be posted to other thread.
+		 * 
+		 * @param tableClasses
+		 *            changed tables observed by this listener
+		 */
+		void onTableChanged(Set<Class<? extends BaseTable>> tableClasses);
+	}
+
+	/** Replace the existing record which has the same key. */
+	public static final int CONFLICT_REPLACE = 1;
+	/** Keep the existing record which has the same key. */
+	public static final int CONFLICT_IGNORE = 2;
+	/** Update columns of the existing record which has the same key. */
+	public static final int CONFLICT_UPDATE = 3;
+
+	/** Aggregate functions for {@link #aggregateGroupBy(Class, String, String, String, String, String[])}. */
+	public static final String AGGREGATE_COUNT = "COUNT";
+	public static final String AGGREGATE_SUM = "TOTAL";
+	public static final String AGGREGATE_AVG = "AVG";
+	public static final String AGGREGATE_MIN = "MIN";
+	public static final String AGGREGATE_MAX = "MAX";
+
+	/** Formats of {@link #exportTable(Class, OutputStream, int)}, length-prefixed binary or JSON lines. */
+	public static final int FORMAT_BINARY = 1;
+	public static final int FORMAT_JSON_LINES = 2;
+
+	// count of records committed together by upsertAll()
+	private static final int UPSERT_CHUNK_SIZE = 200;
+	// count of rows committed together by importTable()
+	private static final int IMPORT_CHUNK_SIZE = 500;
+	// max count of keys in one IN (...) query, SQLite allows 999 bound arguments at most
+	private static final int IN_CHUNK_SIZE = 500;
+
+	private volatile SQLiteDatabase database;
 	private BaseDbHelper dbHelper;
+	private final StatementCache statementCache = new StatementCache();
+	private volatile QueryPlanChecker queryPlanChecker;
 
 	/**
 	 * Create or retrieve sqlite utils instance.
@@ -33,20 +94,72 @@ public final class DbUtils {
 	private DbUtils(BaseDbHelper dbHelper) {
 		this.dbHelper = dbHelper;
 		this.database = dbHelper.getWritableDatabase();
+		if (dbHelper.isDebuggable()) {
+			queryPlanChecker = new QueryPlanChecker();
+		}
+	}
+
+	BaseDbHelper getDbHelper() {
+		return dbHelper;
 	}
 
+	/**
+	 * @return the writable database, it is opened again if has been closed.
+	 */
 	public SQLiteDatabase getDatabase() {
-		if (database != null && database.isOpen()) {
-			while (database.isDbLockedByCurrentThread()) {
-				continue;
+		SQLiteDatabase db = database;
+		if (db != null && db.isOpen()) {
+			return db;
+		}
+
+		synchronized (this) {
+			if (database == null || !database.isOpen()) {
+				database = dbHelper.getWritableDatabase();
 			}
 			return database;
+		}
+	}
+
+	/**
+	 * Get database for queries. In concurrency mode, see
+	 * {@link BaseDbHelper#isConcurrencyEnabled()}, queries out of
+	 * transaction are run on the read connections of write-ahead logging
+	 * database, so they are not blocked by the writer.
+	 * 
+	 * @return database for queries
+	 */
+	public SQLiteDatabase getReadableDatabase() {
+		// the same handle, SQLiteDatabase picks a read connection itself when
+		// write-ahead logging is enabled
+		return getDatabase();
+	}
+
+	/**
+	 * Block until current thread becomes the only writer in concurrency mode,
+	 * must be paired with {@link #unlockWriter()} in finally block. The lock
+	 * belongs to the helper, so all DbUtils of one database share it.
+	 */
+	private void lockWriter() {
+		if (dbHelper.isConcurrencyEnabled()) {
+			dbHelper.getWriteLock().lock();
+		}
+	}
+
+	private void unlockWriter() {
+		if (dbHelper.isConcurrencyEnabled()) {
+			dbHelper.getWriteLock().unlock();
+		}
+	}
+
+	/**
+	 * Immediate transaction does not block readers of write-ahead logging
+	 * database, exclusive one is kept for the default mode.
+	 */
+	private void beginTransaction(SQLiteDatabase db) {
+		if (dbHelper.isConcurrencyEnabled()) {
+			db.beginTransactionNonExclusive();
 		} else {
-			database = dbHelper.getWritableDatabase();
-			while (database.isDbLockedByCurrentThread()) {
-				continue;
-			}
-			return database;
+			db.beginTransaction();
 		}
 	}
 
@@ -65,16 +178,90 @@ public final class DbUtils {
 		return null;
 	}
 
+	/**
+	 * Like {@link #getContent(Cursor, Class)} but restore with id and column
+	 * indexes which have been resolved once for the whole cursor.
+	 */
+	private static <T extends BaseTable> T getContent(Cursor cursor, Class<T> tableClass, TableMapper mapper,
+			int idIndex, int[] columnIndexes) {
+		try {
+			T content = tableClass.newInstance();
+			content.id = cursor.getLong(idIndex);
+			content.restore(cursor, mapper, columnIndexes);
+			return content;
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+		} catch (InstantiationException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Restore all rows of cursor from its current position, column indexes
+	 * are resolved only once with the compiled mapping of table class, so
+	 * cursors not created by DbUtils, e.g. from ContentProvider, can be
+	 * restored as fast. The cursor is not closed.
+	 * 
+	 * @param cursor
+	 *            cursor which has {@link BaseTable#_ID} column
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @return restored records
+	 */
+	public static <T extends BaseTable> List<T> restoreAll(Cursor cursor, Class<T> tableClass) {
+		TableMapper mapper = Tables.getMapper(tableClass);
+		int idIndex = cursor.getColumnIndexOrThrow(BaseTable._ID);
+		int[] columnIndexes = mapper.resolveColumns(cursor);
+		List<T> list = new ArrayList<T>();
+		while (cursor.moveToNext()) {
+			list.add(getContent(cursor, tableClass, mapper, idIndex, columnIndexes));
+		}
+		return list;
+	}
+
 	/**
 	 * Close database, should called after db operations are completed.
 	 */
 	public void close() {
+		statementCache.close();
 		if (database != null) {
 			database.close();
 			database = null;
 		}
 	}
 
+	/**
+	 * Enable or disable "EXPLAIN QUERY PLAN" check of queries, queries which
+	 * do full table scans will be logged. It is enabled by default when
+	 * the application is debuggable, and should not be enabled in release
+	 * build.
+	 * 
+	 * @param enabled
+	 */
+	public void setQueryPlanCheckEnabled(boolean enabled) {
+		if (!enabled) {
+			queryPlanChecker = null;
+		} else if (queryPlanChecker == null) {
+			queryPlanChecker = new QueryPlanChecker();
+		}
+	}
+
+	/**
+	 * All queries of table records go through here, so they can be checked
+	 * by {@link QueryPlanChecker} in debug build.
+	 */
+	private Cursor query(String tableName, String[] columns, String selection, String[] selectionArgs,
+			String groupBy, String having, String orderBy, String limit) {
+		SQLiteDatabase db = getReadableDatabase();
+		QueryPlanChecker checker = queryPlanChecker;
+		if (checker != null && (!TextUtils.isEmpty(selection) || !TextUtils.isEmpty(orderBy))) {
+			checker.check(db, SQLiteQueryBuilder.buildQueryString(false, tableName, columns, selection, groupBy,
+					having, orderBy, limit), selectionArgs);
+		}
+		return db.query(tableName, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
+	}
+
 	/**
 	 * Get all record count of table.
 	 * 
@@ -84,7 +271,7 @@ public final class DbUtils {
 	 */
 	public <T extends BaseTable> int count(Class<T> tableClass) {
 		String tableName = Tables.getTableName(tableClass);
-		Cursor c = getDatabase().query(tableName, BaseTable.COUNT_COLUMNS, null, null, null, null, null);
+		Cursor c = query(tableName, BaseTable.COUNT_COLUMNS, null, null, null, null, null, null);
 		if (c == null) {
 			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
 		}
@@ -110,7 +297,7 @@ public final class DbUtils {
 	 */
 	public <T extends BaseTable> int count(Class<T> tableClass, String selection, String[] selectionArgs) {
 		String tableName = Tables.getTableName(tableClass);
-		Cursor c = getDatabase().query(tableName, BaseTable.COUNT_COLUMNS, selection, selectionArgs, null, null, null);
+		Cursor c = query(tableName, BaseTable.COUNT_COLUMNS, selection, selectionArgs, null, null, null, null);
 		if (c == null) {
 			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
 		}
@@ -125,6 +312,133 @@ public final class DbUtils {
 		}
 	}
 
+	/**
+	 * Get sum of column values, calculated by SQLite.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param column
+	 *            numeric column
+	 * @param selection
+	 * @param selectionArgs
+	 * @return sum result, 0 if no record matches.
+	 */
+	public <T extends BaseTable> double sum(Class<T> tableClass, String column, String selection,
+			String[] selectionArgs) {
+		return aggregate(tableClass, AGGREGATE_SUM, column, selection, selectionArgs);
+	}
+
+	/**
+	 * Get average of column values, calculated by SQLite.
+	 * 
+	 * @return average result, {@link Double#NaN} if no record matches.
+	 * @see #sum(Class, String, String, String[])
+	 */
+	public <T extends BaseTable> double avg(Class<T> tableClass, String column, String selection,
+			String[] selectionArgs) {
+		return aggregate(tableClass, AGGREGATE_AVG, column, selection, selectionArgs);
+	}
+
+	/**
+	 * Get minimum of column values, calculated by SQLite.
+	 * 
+	 * @return minimum result, {@link Double#NaN} if no record matches.
+	 * @see #sum(Class, String, String, String[])
+	 */
+	public <T extends BaseTable> double min(Class<T> tableClass, String column, String selection,
+			String[] selectionArgs) {
+		return aggregate(tableClass, AGGREGATE_MIN, column, selection, selectionArgs);
+	}
+
+	/**
+	 * Get maximum of column values, calculated by SQLite.
+	 * 
+	 * @return maximum result, {@link Double#NaN} if no record matches.
+	 * @see #sum(Class, String, String, String[])
+	 */
+	public <T extends BaseTable> double max(Class<T> tableClass, String column, String selection,
+			String[] selectionArgs) {
+		return aggregate(tableClass, AGGREGATE_MAX, column, selection, selectionArgs);
+	}
+
+	private <T extends BaseTable> double aggregate(Class<T> tableClass, String function, String column,
+			String selection, String[] selectionArgs) {
+		String tableName = Tables.getTableName(tableClass);
+		String[] columns = new String[] { buildAggregateColumn(tableClass, function, column) };
+		Cursor c = query(tableName, columns, selection, selectionArgs, null, null, null, null);
+		if (c == null) {
+			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
+		}
+		try {
+			if (c.moveToFirst() && !c.isNull(0)) {
+				return c.getDouble(0);
+			} else {
+				return Double.NaN;
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Aggregate column values for each group of records, calculated by SQLite,
+	 * groups are sorted by group by column.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param function
+	 *            one of {@link #AGGREGATE_COUNT}, {@link #AGGREGATE_SUM},
+	 *            {@link #AGGREGATE_AVG}, {@link #AGGREGATE_MIN} and
+	 *            {@link #AGGREGATE_MAX}
+	 * @param column
+	 *            column to aggregate, "*" can be used for
+	 *            {@link #AGGREGATE_COUNT}
+	 * @param groupByColumn
+	 * @param selection
+	 * @param selectionArgs
+	 * @return keys and values of groups
+	 */
+	public <T extends BaseTable> GroupedAggregate aggregateGroupBy(Class<T> tableClass, String function,
+			String column, String groupByColumn, String selection, String[] selectionArgs) {
+		String tableName = Tables.getTableName(tableClass);
+		checkColumn(tableClass, groupByColumn);
+		String[] columns = new String[] { groupByColumn, buildAggregateColumn(tableClass, function, column) };
+		Cursor c = query(tableName, columns, selection, selectionArgs, groupByColumn, null, groupByColumn, null);
+		if (c == null) {
+			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
+		}
+		try {
+			String[] keys = new String[c.getCount()];
+			double[] values = new double[keys.length];
+			for (int i = 0; c.moveToNext(); i++) {
+				keys[i] = c.getString(0);
+				values[i] = c.isNull(1) ? Double.NaN : c.getDouble(1);
+			}
+			return new GroupedAggregate(keys, values);
+		} finally {
+			c.close();
+		}
+	}
+
+	private static String buildAggregateColumn(Class<? extends BaseTable> tableClass, String function, String column) {
+		if (!AGGREGATE_COUNT.equals(function) && !AGGREGATE_SUM.equals(function) && !AGGREGATE_AVG.equals(function)
+				&& !AGGREGATE_MIN.equals(function) && !AGGREGATE_MAX.equals(function)) {
+			throw new IllegalArgumentException("Unknown aggregate function: " + function);
+		}
+
+		if (!(AGGREGATE_COUNT.equals(function) && "*".equals(column))) {
+			checkColumn(tableClass, column);
+		}
+		return function + "(" + column + ")";
+	}
+
+	private static void checkColumn(Class<? extends BaseTable> tableClass, String column) {
+		if (!BaseTable._ID.equals(column) && Tables.getColumn(tableClass, column) == null) {
+			throw new SQLiteException("Column \"" + column + "\" does not exist in table \""
+					+ Tables.getTableName(tableClass) + "\"");
+		}
+	}
+
 	/**
 	 * Query and return all subclass of {@link BaseTable} instances as a list
 	 * 
@@ -160,15 +474,46 @@ public final class DbUtils {
 	 * @return subclass of {@link BaseTable}'s instance.
 	 */
 	public <T extends BaseTable> T findById(Class<T> tableClass, long id) {
+		return findById(tableClass, id, null);
+	}
+
+	/**
+	 * Like {@link #findById(Class, long)} but only load columns in
+	 * projection, fields of other columns are left as default values.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param id
+	 *            primary key id's value
+	 * @param projection
+	 *            columns to load, null for all columns.
+	 * @return subclass of {@link BaseTable}'s instance.
+	 */
+	public <T extends BaseTable> T findById(Class<T> tableClass, long id, String[] projection) {
+		// partial record should not be cached
+		EntityCache cache = projection == null && Tables.isCacheable(tableClass) ? getEntityCache() : null;
+		long generation = 0;
+		if (cache != null) {
+			T cached = cache.get(tableClass, id);
+			if (cached != null) {
+				return cached;
+			}
+			generation = cache.getGeneration();
+		}
+
 		String tableName = Tables.getTableName(tableClass);
-		Cursor c = getDatabase().query(tableName, null, BaseTable._ID + "=?", new String[] { String.valueOf(id) },
-				null, null, null);
+		Cursor c = query(tableName, resolveProjection(tableClass, projection), BaseTable._ID + "=?",
+				new String[] { String.valueOf(id) }, null, null, null, null);
 		if (c == null) {
 			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
 		}
 		try {
 			if (c.moveToFirst()) {
-				return getContent(c, tableClass);
+				T content = getContent(c, tableClass);
+				if (cache != null) {
+					cache.put(tableClass, id, content, generation);
+				}
+				return content;
 			} else {
 				return null;
 			}
@@ -177,6 +522,65 @@ public final class DbUtils {
 		}
 	}
 
+	/**
+	 * Get cache of records found by {@link #findById(Class, long)}, it is
+	 * shared by all DbUtils of the same {@link BaseDbHelper}.
+	 * 
+	 * @return entity cache
+	 */
+	public EntityCache getEntityCache() {
+		return dbHelper.getEntityCache();
+	}
+
+	/**
+	 * Observe changes of tables made by save, update, delete and batch
+	 * methods of DbUtils of the same database. Changes made by raw SQL are not
+	 * tracked.
+	 * 
+	 * @param listener
+	 * @param tableClasses
+	 *            tables to observe
+	 */
+	public void registerTableObserver(OnTableChangedListener listener,
+			Collection<Class<? extends BaseTable>> tableClasses) {
+		dbHelper.getTableObservable().register(listener, tableClasses);
+	}
+
+	/**
+	 * Observe changes of one table, see
+	 * {@link #registerTableObserver(OnTableChangedListener, Collection)}.
+	 */
+	public void registerTableObserver(OnTableChangedListener listener, Class<? extends BaseTable> tableClass) {
+		registerTableObserver(listener, Collections.<Class<? extends BaseTable>> singleton(tableClass));
+	}
+
+	public void unregisterTableObserver(OnTableChangedListener listener) {
+		dbHelper.getTableObservable().unregister(listener);
+	}
+
+	// record was changed, invalidate its cache and notify observers
+	private void onTableChanged(Class<? extends BaseTable> tableClass, long id) {
+		if (Tables.isCacheable(tableClass)) {
+			getEntityCache().remove(tableClass, id);
+		}
+		dbHelper.getTableObservable().notifyChanged(Collections.<Class<? extends BaseTable>> singleton(tableClass));
+	}
+
+	// records were changed by selection, invalidate all cached records of tables and notify observers
+	private void onTableChanged(Collection<Class<? extends BaseTable>> tableClasses) {
+		evictCache(tableClasses);
+		dbHelper.getTableObservable().notifyChanged(tableClasses);
+	}
+
+	// chunked write failed, chunks committed before are kept, so cached records may be stale
+	private void evictCache(Collection<Class<? extends BaseTable>> tableClasses) {
+		for (Class<? extends BaseTable> tableClass : tableClasses) {
+			if (Tables.isCacheable(tableClass)) {
+				getEntityCache().evict(tableClass);
+			}
+		}
+	}
+
 	/**
 	 * Query and return subclass of {@link BaseTable} instances as a list with
 	 * size limit for pagination.
@@ -194,15 +598,37 @@ public final class DbUtils {
 	 */
 	public <T extends BaseTable> List<T> findWithLimit(Class<T> tableClass, String selection, String[] selectionArgs,
 			String groupBy, String having, String orderBy, int limitOffset, int limitSize) {
-		Cursor c = findWithLimitToCursor(tableClass, selection, selectionArgs, groupBy, having, orderBy, limitOffset,
+		return findWithLimit(tableClass, null, selection, selectionArgs, groupBy, having, orderBy, limitOffset,
 				limitSize);
+	}
+
+	/**
+	 * Like {@link #findWithLimit(Class, String, String[], String, String, String, int, int)}
+	 * but only load columns in projection, so large columns like BLOB are not
+	 * copied out of database if they are not needed.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param projection
+	 *            columns to load, null for all columns. Primary key id is
+	 *            always loaded, fields of other columns are left as default
+	 *            values.
+	 * @return subclass of {@link BaseTable}'s instances list
+	 */
+	public <T extends BaseTable> List<T> findWithLimit(Class<T> tableClass, String[] projection, String selection,
+			String[] selectionArgs, String groupBy, String having, String orderBy, int limitOffset, int limitSize) {
+		Cursor c = findWithLimitToCursor(tableClass, projection, selection, selectionArgs, groupBy, having, orderBy,
+				limitOffset, limitSize);
 		if (c == null) {
 			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
 		}
-		List<T> entities = new ArrayList<T>();
+		List<T> entities = new ArrayList<T>(c.getCount());
 		try {
+			TableMapper mapper = Tables.getMapper(tableClass);
+			int idIndex = c.getColumnIndexOrThrow(BaseTable._ID);
+			int[] columnIndexes = mapper.resolveColumns(c);
 			while (c.moveToNext()) {
-				entities.add(getContent(c, tableClass));
+				entities.add(getContent(c, tableClass, mapper, idIndex, columnIndexes));
 			}
 		} finally {
 			c.close();
@@ -210,6 +636,137 @@ public final class DbUtils {
 		return entities;
 	}
 
+	/**
+	 * Query one page of records with keyset pagination. Records are sorted by
+	 * the column with @DefaultOrderBy and then by primary key id, the next
+	 * page is located by the sort key and id of the last record of current
+	 * page, so no rows are skipped by SQLite like LIMIT/OFFSET does.
+	 * <p>
+	 * The sort column may be nullable, records with null sort key come first
+	 * in ascending order and last in descending order, as SQLite sorts them.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param selection
+	 * @param selectionArgs
+	 * @param pageToken
+	 *            {@link Page#getNextPageToken()} of the previous page, null for
+	 *            the first page.
+	 * @param pageSize
+	 * @return page of records
+	 */
+	public <T extends BaseTable> Page<T> findPage(Class<T> tableClass, String selection, String[] selectionArgs,
+			String pageToken, int pageSize) {
+		if (pageToken == null) {
+			return findPage(tableClass, selection, selectionArgs, null, BaseTable.NOT_SAVED, pageSize);
+		}
+
+		String[] key = Page.decodeToken(pageToken);
+		long lastId;
+		try {
+			lastId = Long.parseLong(key[0]);
+		} catch (NumberFormatException e) {
+			throw new SQLiteException("Invalid page token: " + pageToken);
+		}
+		return findPage(tableClass, selection, selectionArgs, key[1], lastId, pageSize);
+	}
+
+	/**
+	 * Like {@link #findPage(Class, String, String[], String, int)} but with
+	 * the sort key and id of the last seen record.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param selection
+	 * @param selectionArgs
+	 * @param lastSortValue
+	 *            value of @DefaultOrderBy column of the last seen record, null
+	 *            if it is NULL.
+	 * @param lastId
+	 *            id of the last seen record, {@link BaseTable#NOT_SAVED} for
+	 *            the first page.
+	 * @param pageSize
+	 * @return page of records
+	 */
+	public <T extends BaseTable> Page<T> findPage(Class<T> tableClass, String selection, String[] selectionArgs,
+			String lastSortValue, long lastId, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("page size must be greater than 0");
+		}
+
+		ColumnPlan sortColumn = Tables.getDefaultOrderByColumn(tableClass);
+		boolean desc = sortColumn != null && DefaultOrderBy.DESC.equalsIgnoreCase(sortColumn.getSortType());
+		String operator = desc ? "<" : ">";
+		String direction = desc ? DefaultOrderBy.DESC : DefaultOrderBy.ASC;
+
+		StringBuilder where = new StringBuilder();
+		List<String> args = new ArrayList<String>();
+		if (!TextUtils.isEmpty(selection)) {
+			where.append("(").append(selection).append(")");
+			if (selectionArgs != null) {
+				args.addAll(Arrays.asList(selectionArgs));
+			}
+		}
+
+		if (lastId != BaseTable.NOT_SAVED) {
+			if (where.length() > 0) {
+				where.append(" AND ");
+			}
+
+			String idAfter = BaseTable._ID + operator + "?";
+			if (sortColumn == null) {
+				where.append(idAfter);
+			} else if (lastSortValue == null) {
+				// NULLs are sorted before other values in ascending order
+				String column = sortColumn.getName();
+				where.append("((").append(column).append(" IS NULL AND ").append(idAfter).append(")");
+				where.append(desc ? ")" : " OR " + column + " IS NOT NULL)");
+			} else {
+				// expanded form of (sortColumn, _id) > (?, ?) which old SQLite does not support
+				String column = sortColumn.getName();
+				where.append("(").append(column).append(operator).append("? OR (").append(column)
+						.append("=? AND ").append(idAfter).append(")");
+				where.append(desc ? " OR " + column + " IS NULL)" : ")");
+				args.add(lastSortValue);
+				args.add(lastSortValue);
+			}
+			args.add(String.valueOf(lastId));
+		}
+
+		String orderBy = BaseTable._ID + " " + direction;
+		if (sortColumn != null) {
+			orderBy = sortColumn.getName() + " " + direction + ", " + orderBy;
+		}
+
+		// query one more record to know whether there is next page
+		String tableName = Tables.getTableName(tableClass);
+		Cursor c = query(tableName, null, where.length() > 0 ? where.toString() : null,
+				args.toArray(new String[args.size()]), null, null, orderBy, String.valueOf(pageSize + 1));
+		if (c == null) {
+			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
+		}
+
+		try {
+			List<T> entities = new ArrayList<T>(Math.min(c.getCount(), pageSize));
+			TableMapper mapper = Tables.getMapper(tableClass);
+			int idIndex = c.getColumnIndexOrThrow(BaseTable._ID);
+			int[] columnIndexes = mapper.resolveColumns(c);
+			while (entities.size() < pageSize && c.moveToNext()) {
+				entities.add(getContent(c, tableClass, mapper, idIndex, columnIndexes));
+			}
+
+			String nextPageToken = null;
+			if (c.getCount() > pageSize && c.moveToPosition(pageSize - 1)) {
+				String sortValue = sortColumn == null ? null : c.getString(c.getColumnIndex(sortColumn.getName()));
+				nextPageToken = Page.encodeToken(sortColumn != null, sortValue,
+						c.getLong(c.getColumnIndex(BaseTable._ID)));
+			}
+			return new Page<T>(entities, nextPageToken);
+		} finally {
+			c.close();
+		}
+	}
+
 	/**
 	 * Be similar with {@link #findWithLimit(Class, String, String[], String, String, String, int, int)}
 	 * but return {@code Cursor} instead.
@@ -224,8 +781,9 @@ public final class DbUtils {
 	 * @param limitSize
 	 * @return result cursor of query
 	 */
-	private <T extends BaseTable> Cursor findWithLimitToCursor(Class<T> tableClass, String selection,
-			String[] selectionArgs, String groupBy, String having, String orderBy, int limitOffset, int limitSize) {
+	private <T extends BaseTable> Cursor findWithLimitToCursor(Class<T> tableClass, String[] projection,
+			String selection, String[] selectionArgs, String groupBy, String having, String orderBy, int limitOffset,
+			int limitSize) {
 
 		String limit;
 		if (limitOffset == 0 && limitSize == 0) {
@@ -238,13 +796,35 @@ public final class DbUtils {
 		if (TextUtils.isEmpty(orderBy)){
 			orderBy = Tables.getDefaultOrderBy(tableClass);
 		}
-		Cursor c = getDatabase().query(tableName, null, selection, selectionArgs, groupBy, having, orderBy, limit);
+		Cursor c = query(tableName, resolveProjection(tableClass, projection), selection, selectionArgs, groupBy,
+				having, orderBy, limit);
 		if (c == null) {
 			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
 		}
 		return c;
 	}
 
+	/**
+	 * Check columns of projection and make sure primary key id is the first
+	 * column, since id is always read from column 0.
+	 */
+	private static String[] resolveProjection(Class<? extends BaseTable> tableClass, String[] projection) {
+		if (projection == null) {
+			return null;
+		}
+
+		List<String> columns = new ArrayList<String>(projection.length + 1);
+		columns.add(BaseTable._ID);
+		for (String column : projection) {
+			if (BaseTable._ID.equals(column)) {
+				continue;
+			}
+			checkColumn(tableClass, column);
+			columns.add(column);
+		}
+		return columns.toArray(new String[columns.size()]);
+	}
+
 	/**
 	 * Query and return subclass of {@link BaseTable} instance with selections.
 	 * 
@@ -262,6 +842,21 @@ public final class DbUtils {
 		return findWithLimit(tableClass, selection, selectionArgs, groupBy, having, orderBy, 0, 0);
 	}
 
+	/**
+	 * Like {@link #find(Class, String, String[], String, String, String)} but
+	 * only load columns in projection.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param projection
+	 *            columns to load, null for all columns.
+	 * @return subclass of {@link BaseTable}'s instances list
+	 */
+	public <T extends BaseTable> List<T> find(Class<T> tableClass, String[] projection, String selection,
+			String[] selectionArgs, String groupBy, String having, String orderBy) {
+		return findWithLimit(tableClass, projection, selection, selectionArgs, groupBy, having, orderBy, 0, 0);
+	}
+
 	/**
 	 * Like {@link #find(Class, String, String[], String, String, String)} but
 	 * return {@code Cursor} instead.
@@ -277,26 +872,76 @@ public final class DbUtils {
 	 */
 	public <T extends BaseTable> Cursor findToCursor(Class<T> tableClass, String selection, String[] selectionArgs,
 			String groupBy, String having, String orderBy) {
-		return findWithLimitToCursor(tableClass, selection, selectionArgs, groupBy, having, orderBy, 0, 0);
+		return findWithLimitToCursor(tableClass, null, selection, selectionArgs, groupBy, having, orderBy, 0, 0);
 	}
 
 	/**
-	 * Query and return the first record of subclass of {@link BaseTable}
-	 * instance with selections.
+	 * Like {@link #findAll(Class)} but return a {@link LazyList} which
+	 * restores records only when they are accessed.
 	 * 
 	 * @param tableClass
 	 *            subclass of {@link BaseTable}
-	 * @param selection
-	 * @param selectionArgs
-	 * @param groupBy
-	 * @param having
-	 * @param orderBy
+	 * @return lazy list of query result, should be closed after used.
+	 */
+	public <T extends BaseTable> LazyList<T> findAllLazy(Class<T> tableClass) {
+		String orderBy = Tables.getDefaultOrderBy(tableClass);
+		return findLazy(tableClass, null, null, null, null, orderBy);
+	}
+
+	/**
+	 * Like {@link #find(Class, String, String[], String, String, String)} but
+	 * return a {@link LazyList} which restores records only when they are
+	 * accessed.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param selection
+	 * @param selectionArgs
+	 * @param groupBy
+	 * @param having
+	 * @param orderBy
+	 * @return lazy list of query result, should be closed after used.
+	 */
+	public <T extends BaseTable> LazyList<T> findLazy(Class<T> tableClass, String selection,
+			String[] selectionArgs, String groupBy, String having, String orderBy) {
+		return findLazy(tableClass, null, selection, selectionArgs, groupBy, having, orderBy);
+	}
+
+	/**
+	 * Like {@link #findLazy(Class, String, String[], String, String, String)}
+	 * but only load columns in projection, which keeps cursor window small
+	 * for long lists.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param projection
+	 *            columns to load, null for all columns.
+	 * @return lazy list which must be closed after use
+	 */
+	public <T extends BaseTable> LazyList<T> findLazy(Class<T> tableClass, String[] projection, String selection,
+			String[] selectionArgs, String groupBy, String having, String orderBy) {
+		Cursor c = findWithLimitToCursor(tableClass, projection, selection, selectionArgs, groupBy, having, orderBy,
+				0, 0);
+		return new LazyList<T>(c, tableClass, LazyList.DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Query and return the first record of subclass of {@link BaseTable}
+	 * instance with selections.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param selection
+	 * @param selectionArgs
+	 * @param groupBy
+	 * @param having
+	 * @param orderBy
 	 * @return subclass of {@link BaseTable}'s instance
 	 */
 	public <T extends BaseTable> T findFirst(Class<T> tableClass, String selection, String[] selectionArgs,
 			String groupBy, String having, String orderBy) {
 		String tableName = Tables.getTableName(tableClass);
-		Cursor c = getDatabase().query(tableName, null, selection, selectionArgs, groupBy, having, orderBy);
+		Cursor c = query(tableName, null, selection, selectionArgs, groupBy, having, orderBy, null);
 
 		if (c == null) {
 			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
@@ -313,6 +958,242 @@ public final class DbUtils {
 		}
 	}
 
+	/**
+	 * Search columns with @FullTextSearch by FTS4 MATCH query, records with
+	 * more matched terms are ranked first.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param query
+	 *            FTS4 MATCH expression, e.g. "bei*" or "name:beijing", see
+	 *            {@link #toPrefixQuery(String)} for user input.
+	 * @param limit
+	 *            max count of result, 0 for no limit.
+	 * @return ids of existing matched records, ranked.
+	 */
+	public <T extends BaseTable> long[] search(Class<T> tableClass, String query, int limit) {
+		String tableName = Tables.getTableName(tableClass);
+		String ftsTableName = getFullTextTableName(tableClass);
+		// joined with table, so rows left in shadow table by old versions are never returned
+		String sql = "SELECT docid FROM " + ftsTableName + " INNER JOIN " + tableName + " ON " + tableName + "."
+				+ BaseTable._ID + " = docid WHERE " + ftsTableName + " MATCH ? ORDER BY "
+				+ buildRankExpression(ftsTableName) + " DESC, docid" + (limit > 0 ? " LIMIT " + limit : "");
+		Cursor c = getReadableDatabase().rawQuery(sql, new String[] { query });
+		try {
+			long[] ids = new long[c.getCount()];
+			for (int i = 0; c.moveToNext(); i++) {
+				ids[i] = c.getLong(0);
+			}
+			return ids;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Like {@link #search(Class, String, int)} but return all columns of
+	 * matched records as {@code Cursor}, ranked.
+	 */
+	public <T extends BaseTable> Cursor searchToCursor(Class<T> tableClass, String query, int limit) {
+		String tableName = Tables.getTableName(tableClass);
+		String ftsTableName = getFullTextTableName(tableClass);
+		String sql = "SELECT " + tableName + ".* FROM " + tableName + " INNER JOIN (SELECT docid, "
+				+ buildRankExpression(ftsTableName) + " AS _rank FROM " + ftsTableName + " WHERE " + ftsTableName
+				+ " MATCH ?) AS matched ON " + tableName + "." + BaseTable._ID + " = matched.docid"
+				+ " ORDER BY matched._rank DESC, " + tableName + "." + BaseTable._ID
+				+ (limit > 0 ? " LIMIT " + limit : "");
+		return getReadableDatabase().rawQuery(sql, new String[] { query });
+	}
+
+	/**
+	 * Convert user input to a FTS4 prefix query, so that search can be done
+	 * while typing, special characters of query syntax are escaped.
+	 * 
+	 * @param text
+	 *            user input
+	 * @return phrase prefix query, e.g. "bei jing*" with the quotes.
+	 */
+	public static String toPrefixQuery(String text) {
+		return "\"" + text.trim().replace("\"", "\"\"") + "*\"";
+	}
+
+	// count of matched terms: offsets() returns 4 integers separated by spaces per match
+	private static String buildRankExpression(String ftsTableName) {
+		String offsets = "offsets(" + ftsTableName + ")";
+		return "((length(" + offsets + ") - length(replace(" + offsets + ", ' ', '')) + 1) / 4)";
+	}
+
+	private static String getFullTextTableName(Class<? extends BaseTable> tableClass) {
+		if (!isSearchable(tableClass)) {
+			throw new SQLiteException("No @FullTextSearch column defined in table \""
+					+ Tables.getTableName(tableClass) + "\"");
+		}
+		return SQLBuilder.getFullTextTableName(Tables.getTableName(tableClass));
+	}
+
+	/**
+	 * Whether table class has columns with @FullTextSearch, so it can be
+	 * searched by {@link #search(Class, String, int)}.
+	 */
+	public static boolean isSearchable(Class<? extends BaseTable> tableClass) {
+		return !SQLBuilder.getFullTextColumns(tableClass).isEmpty();
+	}
+
+	/**
+	 * Find records referenced by @Foreign column of records, all of them are
+	 * found with one IN query per {@value #IN_CHUNK_SIZE} distinct keys
+	 * instead of one query per record.
+	 * 
+	 * <pre>
+	 * Map&lt;Long, Account&gt; accounts = dbUtils.findForeign(Permission.class, permissions,
+	 * 		Permission.COLUMN_ACCOUNT_ID, Account.class);
+	 * Account account = accounts.get(permission.accountId);
+	 * </pre>
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param records
+	 * @param foreignColumn
+	 *            column of table class annotated with @Foreign
+	 * @param foreignClass
+	 *            table class referenced by foreign column
+	 * @return referenced records by id
+	 */
+	public <T extends BaseTable, P extends BaseTable> Map<Long, P> findForeign(Class<T> tableClass,
+			List<T> records, String foreignColumn, Class<P> foreignClass) {
+		ColumnPlan column = getForeignColumn(tableClass, foreignColumn, foreignClass);
+		Set<Long> keys = new LinkedHashSet<Long>();
+		for (T record : records) {
+			Long key = readForeignKey(column, record);
+			if (key != null) {
+				keys.add(key);
+			}
+		}
+
+		Map<Long, P> parents = new HashMap<Long, P>(keys.size());
+		for (P parent : findIn(foreignClass, BaseTable._ID, keys, null)) {
+			parents.put(parent.id, parent);
+		}
+		return parents;
+	}
+
+	/**
+	 * Find records referencing parent records by @Foreign column, all of them
+	 * are found with one IN query per {@value #IN_CHUNK_SIZE} parents.
+	 * 
+	 * @param parentClass
+	 *            subclass of {@link BaseTable}
+	 * @param parents
+	 * @param foreignColumn
+	 *            column of child class annotated with @Foreign
+	 * @param childClass
+	 *            table class referencing parent class
+	 * @return children by id of parent, sorted by default order of child
+	 *         class, an empty list for parent which has no child.
+	 */
+	public <P extends BaseTable, C extends BaseTable> Map<Long, List<C>> findChildren(Class<P> parentClass,
+			List<P> parents, String foreignColumn, Class<C> childClass) {
+		ColumnPlan column = getForeignColumn(childClass, foreignColumn, parentClass);
+		Map<Long, List<C>> children = new HashMap<Long, List<C>>(parents.size());
+		for (P parent : parents) {
+			children.put(parent.id, new ArrayList<C>());
+		}
+
+		String orderBy = Tables.getDefaultOrderBy(childClass);
+		for (C child : findIn(childClass, foreignColumn, children.keySet(), orderBy)) {
+			List<C> list = children.get(readForeignKey(column, child));
+			if (list != null) {
+				list.add(child);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Like {@link #findForeign(Class, List, String, Class)}, but referenced
+	 * records are found only when the first one is accessed.
+	 */
+	public <T extends BaseTable, P extends BaseTable> LazyRelation<T, P> findForeignLazy(final Class<T> tableClass,
+			List<T> records, final String foreignColumn, final Class<P> foreignClass) {
+		final ColumnPlan column = getForeignColumn(tableClass, foreignColumn, foreignClass);
+		return new LazyRelation<T, P>(records, new LazyRelation.Loader<T, P>() {
+
+			@Override
+			public Map<Long, P> load(List<T> records) {
+				return findForeign(tableClass, records, foreignColumn, foreignClass);
+			}
+
+			@Override
+			public Long keyOf(T record) {
+				return readForeignKey(column, record);
+			}
+		});
+	}
+
+	/**
+	 * Like {@link #findChildren(Class, List, String, Class)}, but children are
+	 * found only when the first one is accessed.
+	 */
+	public <P extends BaseTable, C extends BaseTable> LazyRelation<P, List<C>> findChildrenLazy(
+			final Class<P> parentClass, List<P> parents, final String foreignColumn, final Class<C> childClass) {
+		getForeignColumn(childClass, foreignColumn, parentClass);
+		return new LazyRelation<P, List<C>>(parents, new LazyRelation.Loader<P, List<C>>() {
+
+			@Override
+			public Map<Long, List<C>> load(List<P> records) {
+				return findChildren(parentClass, records, foreignColumn, childClass);
+			}
+
+			@Override
+			public Long keyOf(P record) {
+				return record.id;
+			}
+		});
+	}
+
+	private static ColumnPlan getForeignColumn(Class<? extends BaseTable> tableClass, String foreignColumn,
+			Class<? extends BaseTable> foreignClass) {
+		ColumnPlan column = Tables.getColumn(tableClass, foreignColumn);
+		if (column == null || column.getForeignTable() != foreignClass) {
+			throw new SQLiteException("Column \"" + foreignColumn + "\" of table \"" + Tables.getTableName(tableClass)
+					+ "\" is not @Foreign of " + foreignClass.getName());
+		}
+		return column;
+	}
+
+	private static Long readForeignKey(ColumnPlan column, BaseTable record) {
+		try {
+			Object value = column.getAccessor().getField().get(record);
+			return value == null ? null : ((Number) value).longValue();
+		} catch (IllegalAccessException e) {
+			throw new SQLiteException("IllegalAccessException:" + e.getMessage());
+		} catch (ClassCastException e) {
+			throw new SQLiteException("@Foreign field \"" + column.getField().getName() + "\" must be a number");
+		}
+	}
+
+	/**
+	 * Find records whose column value is one of keys, keys are queried in
+	 * chunks to keep under the limit of bound arguments.
+	 */
+	private <T extends BaseTable> List<T> findIn(Class<T> tableClass, String column, Collection<Long> keys,
+			String orderBy) {
+		List<T> result = new ArrayList<T>(keys.size());
+		Iterator<Long> iterator = keys.iterator();
+		while (iterator.hasNext()) {
+			List<String> args = new ArrayList<String>(Math.min(keys.size(), IN_CHUNK_SIZE));
+			StringBuilder selection = new StringBuilder(column).append(" IN (");
+			while (iterator.hasNext() && args.size() < IN_CHUNK_SIZE) {
+				selection.append(args.isEmpty() ? "?" : ",?");
+				args.add(String.valueOf(iterator.next()));
+			}
+			selection.append(")");
+			result.addAll(find(tableClass, selection.toString(), args.toArray(new String[args.size()]), null, null,
+					orderBy));
+		}
+		return result;
+	}
+
 	/**
 	 * Insert table with one record.
 	 * 
@@ -323,17 +1204,26 @@ public final class DbUtils {
 	 */
 	public <T extends BaseTable> long save(Class<T> tableClass, T record) {
 		String tableName = Tables.getTableName(tableClass);
-		return getDatabase().insert(tableName, null, record.toContentValues());
+		long id;
+		lockWriter();
+		try {
+			id = getDatabase().insert(tableName, null, record.toContentValues());
+		} finally {
+			unlockWriter();
+		}
+		dbHelper.getTableObservable().notifyChanged(Collections.<Class<? extends BaseTable>> singleton(tableClass));
+		return id;
 	}
 
 	/**
-	 * Insert table with more than one records.
+	 * Insert table with more than one records, records are inserted with
+	 * compiled statements which are cached per table and column set.
 	 * 
 	 * @param tableClass
 	 *            subclass of {@link BaseTable}
 	 * @param tables
 	 *            records to save into database.
-	 * @return primary key ids of records
+	 * @return primary key ids of records, -1 for record failed to insert.
 	 */
 	public <T extends BaseTable> List<Long> saveAll(Class<T> tableClass, List<T> tables) {
 		List<Long> ids = new ArrayList<Long>();
@@ -341,17 +1231,322 @@ public final class DbUtils {
 			return ids;
 		}
 
-		SQLiteDatabase db = getDatabase();
+		TableMapper mapper = Tables.getMapper(tableClass);
+		lockWriter();
 		try {
-			db.beginTransaction();
+			SQLiteDatabase db = getDatabase();
+			beginTransaction(db);
+			try {
+				for (T table : tables) {
+					boolean withId = table.id != BaseTable.NOT_SAVED;
+					SQLiteStatement statement = statementCache.acquire(db, mapper.getInsertSQL(withId));
+					try {
+						synchronized (statement) {
+							mapper.bindInsert(table, statement, withId);
+							ids.add(statement.executeInsert());
+						}
+					} finally {
+						statementCache.release(statement);
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} finally {
+			unlockWriter();
+		}
+
+		if (Tables.isCacheable(tableClass)) {
 			for (T table : tables) {
-				SQL sql = SQLBuilder.buildInsertSQL(table);
-				db.execSQL(sql.getSql(), sql.getBindArgsAsArray(false));
+				if (table.id != BaseTable.NOT_SAVED) {
+					getEntityCache().remove(tableClass, table.id);
+				}
 			}
-			db.setTransactionSuccessful();
+		}
+		dbHelper.getTableObservable().notifyChanged(Collections.<Class<? extends BaseTable>> singleton(tableClass));
+		return ids;
+	}
+
+	/**
+	 * Insert record, or resolve conflict with the existing record which has
+	 * the same key, see {@link #upsertAll(Class, List, int, String, String...)}.
+	 * 
+	 * @return primary key id of record, -1 if record was ignored.
+	 */
+	public <T extends BaseTable> long upsert(Class<T> tableClass, T record, int conflictStrategy,
+			String conflictColumn, String... updateColumns) {
+		List<T> records = new ArrayList<T>(1);
+		records.add(record);
+		return upsertAll(tableClass, records, conflictStrategy, conflictColumn, updateColumns).get(0);
+	}
+
+	/**
+	 * Insert records, or resolve conflicts with existing records which have
+	 * the same key, so no query is needed before saving. Records are written
+	 * by compiled statements cached per table, and committed in chunks.
+	 * <ul>
+	 * <li>{@link #CONFLICT_REPLACE}: "INSERT OR REPLACE", the old record is
+	 * deleted, so its id changes if new record has no id.</li>
+	 * <li>{@link #CONFLICT_IGNORE}: "INSERT OR IGNORE", -1 is returned for
+	 * ignored record.</li>
+	 * <li>{@link #CONFLICT_UPDATE}: update {@code updateColumns} of the
+	 * record with the same key, insert it if nothing was updated.</li>
+	 * </ul>
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param records
+	 * @param conflictStrategy
+	 *            one of {@link #CONFLICT_REPLACE}, {@link #CONFLICT_IGNORE}
+	 *            and {@link #CONFLICT_UPDATE}
+	 * @param conflictColumn
+	 *            key to find existing record, {@link BaseTable#_ID} or column
+	 *            with {@code @Column(unique = true)}, null for _id.
+	 * @param updateColumns
+	 *            columns to update for {@link #CONFLICT_UPDATE}, all columns
+	 *            except the key if empty.
+	 * @return primary key ids of records, -1 for ignored record.
+	 */
+	public <T extends BaseTable> List<Long> upsertAll(Class<T> tableClass, List<T> records, int conflictStrategy,
+			String conflictColumn, String... updateColumns) {
+		return upsertAll(tableClass, records, conflictStrategy, true, conflictColumn, updateColumns);
+	}
+
+	/**
+	 * Like {@link #upsertAll(Class, List, int, String, String...)} but ids of
+	 * records are not returned. So {@link #CONFLICT_UPDATE} on a unique key
+	 * is one "INSERT OR IGNORE" per record, followed by "UPDATE ... WHERE
+	 * key=?" only when the record exists, and the id is never queried.
+	 * <p>
+	 * Note: "INSERT OR IGNORE" also ignores violations of other constraints,
+	 * such a record is then only updated if its key exists.
+	 */
+	public <T extends BaseTable> void upsertAllWithoutIds(Class<T> tableClass, List<T> records,
+			int conflictStrategy, String conflictColumn, String... updateColumns) {
+		upsertAll(tableClass, records, conflictStrategy, false, conflictColumn, updateColumns);
+	}
+
+	private <T extends BaseTable> List<Long> upsertAll(Class<T> tableClass, List<T> records, int conflictStrategy,
+			boolean needIds, String conflictColumn, String... updateColumns) {
+		List<Long> ids = new ArrayList<Long>();
+		if (records == null || records.size() == 0) {
 			return ids;
+		}
+
+		TableMapper mapper = Tables.getMapper(tableClass);
+		int keyColumn = resolveConflictColumn(tableClass, mapper, conflictColumn);
+		Upsert upsert;
+		if (conflictStrategy == CONFLICT_REPLACE) {
+			upsert = new Upsert(mapper, "REPLACE");
+		} else if (conflictStrategy == CONFLICT_IGNORE) {
+			upsert = new Upsert(mapper, "IGNORE");
+		} else if (conflictStrategy == CONFLICT_UPDATE) {
+			upsert = new Upsert(mapper, keyColumn, resolveUpdateColumns(mapper, keyColumn, updateColumns), needIds);
+		} else {
+			throw new IllegalArgumentException("Unknown conflict strategy: " + conflictStrategy);
+		}
+
+		Collection<Class<? extends BaseTable>> changed = Collections.<Class<? extends BaseTable>> singleton(tableClass);
+		boolean succeeded = false;
+		lockWriter();
+		try {
+			SQLiteDatabase db = getDatabase();
+			beginTransaction(db);
+			try {
+				int chunkCount = 0;
+				for (int i = 0; i < records.size(); i++) {
+					ids.add(upsert.execute(db, records.get(i)));
+					if (++chunkCount == UPSERT_CHUNK_SIZE && i < records.size() - 1) {
+						commitChunk(db);
+						chunkCount = 0;
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			succeeded = true;
 		} finally {
-			db.endTransaction();
+			unlockWriter();
+			if (!succeeded) {
+				evictCache(changed);
+			}
+		}
+		onTableChanged(changed);
+		return ids;
+	}
+
+	private static int resolveConflictColumn(Class<? extends BaseTable> tableClass, TableMapper mapper,
+			String conflictColumn) {
+		if (TextUtils.isEmpty(conflictColumn) || BaseTable._ID.equals(conflictColumn)) {
+			return mapper.getIdColumn();
+		}
+
+		ColumnPlan column = Tables.getColumn(tableClass, conflictColumn);
+		if (column == null || !column.isUnique()) {
+			throw new SQLiteException("Conflict column \"" + conflictColumn + "\" of table \""
+					+ mapper.getTableName() + "\" must be _id or a unique column");
+		}
+		return mapper.getColumnIndex(conflictColumn);
+	}
+
+	private static int[] resolveUpdateColumns(TableMapper mapper, int keyColumn, String[] updateColumns) {
+		String[] columnNames = mapper.getColumnNames();
+		if (updateColumns == null || updateColumns.length == 0) {
+			// all columns except primary key and conflict key
+			List<Integer> columns = new ArrayList<Integer>();
+			for (int i = 0; i < columnNames.length; i++) {
+				if (i != keyColumn && i != mapper.getIdColumn()) {
+					columns.add(i);
+				}
+			}
+
+			int[] result = new int[columns.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = columns.get(i);
+			}
+			return result;
+		}
+
+		int[] result = new int[updateColumns.length];
+		for (int i = 0; i < updateColumns.length; i++) {
+			result[i] = mapper.getColumnIndex(updateColumns[i]);
+			if (result[i] < 0) {
+				throw new SQLiteException("Column \"" + updateColumns[i] + "\" does not exist in table \""
+						+ mapper.getTableName() + "\"");
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * SQL texts of one upsert call, statements are compiled from them through
+	 * {@link StatementCache} so they are shared by calls of the same kind.
+	 */
+	private final class Upsert {
+		private final TableMapper mapper;
+		private final String insertSQL;
+		private final String insertWithIdSQL;
+		private final int keyColumn;
+		private final int[] updateColumns;
+		private final String updateSQL;
+		private final String selectIdSQL;
+		private final boolean needIds;
+
+		// INSERT OR REPLACE / INSERT OR IGNORE
+		Upsert(TableMapper mapper, String conflictAlgorithm) {
+			this.mapper = mapper;
+			String insert = "INSERT OR " + conflictAlgorithm;
+			this.insertSQL = insert + mapper.getInsertSQL(false).substring("INSERT".length());
+			this.insertWithIdSQL = insert + mapper.getInsertSQL(true).substring("INSERT".length());
+			this.keyColumn = -1;
+			this.updateColumns = null;
+			this.updateSQL = null;
+			this.selectIdSQL = null;
+			this.needIds = true;
+		}
+
+		// UPDATE and then INSERT if nothing was updated, or INSERT OR IGNORE
+		// and then UPDATE of unique key if ids are not needed
+		Upsert(TableMapper mapper, int keyColumn, int[] updateColumns, boolean needIds) {
+			this.mapper = mapper;
+			this.needIds = needIds || keyColumn == mapper.getIdColumn();
+			String insert = this.needIds ? "INSERT" : "INSERT OR IGNORE";
+			this.insertSQL = insert + mapper.getInsertSQL(false).substring("INSERT".length());
+			this.insertWithIdSQL = insert + mapper.getInsertSQL(true).substring("INSERT".length());
+			this.keyColumn = keyColumn;
+			this.updateColumns = updateColumns;
+
+			String[] columnNames = mapper.getColumnNames();
+			String where = " WHERE " + columnNames[keyColumn] + "=?";
+			StringBuilder buffer = new StringBuilder("UPDATE ").append(mapper.getTableName()).append(" SET ");
+			for (int i = 0; i < updateColumns.length; i++) {
+				if (i > 0) {
+					buffer.append(",");
+				}
+				buffer.append(columnNames[updateColumns[i]]).append("=?");
+			}
+			this.updateSQL = buffer.append(where).toString();
+			this.selectIdSQL = "SELECT " + BaseTable._ID + " FROM " + mapper.getTableName() + where;
+		}
+
+		long execute(SQLiteDatabase db, BaseTable record) {
+			boolean withId = record.id != BaseTable.NOT_SAVED;
+			if (updateSQL != null && !needIds) {
+				// the key is unique, update only if insert was ignored
+				long id = insert(db, record, withId);
+				if (id == -1 && updateColumns.length > 0) {
+					updateByKey(db, record);
+				}
+				return id;
+			}
+
+			if (updateSQL != null && (withId || keyColumn != mapper.getIdColumn())) {
+				long id = update(db, record);
+				if (id != BaseTable.NOT_SAVED) {
+					return id;
+				}
+			}
+			return insert(db, record, withId);
+		}
+
+		private long insert(SQLiteDatabase db, BaseTable record, boolean withId) {
+			SQLiteStatement statement = statementCache.acquire(db, withId ? insertWithIdSQL : insertSQL);
+			try {
+				synchronized (statement) {
+					mapper.bindInsert(record, statement, withId);
+					return statement.executeInsert();
+				}
+			} finally {
+				statementCache.release(statement);
+			}
+		}
+
+		// return whether a record has the key
+		private boolean updateByKey(SQLiteDatabase db, BaseTable record) {
+			SQLiteStatement statement = statementCache.acquire(db, updateSQL);
+			try {
+				synchronized (statement) {
+					statement.clearBindings();
+					for (int i = 0; i < updateColumns.length; i++) {
+						mapper.bindColumn(record, statement, i + 1, updateColumns[i]);
+					}
+					mapper.bindColumn(record, statement, updateColumns.length + 1, keyColumn);
+					return statement.executeUpdateDelete() > 0;
+				}
+			} finally {
+				statementCache.release(statement);
+			}
+		}
+
+		// return id of updated record, or NOT_SAVED if no record has the key
+		private long update(SQLiteDatabase db, BaseTable record) {
+			if (updateColumns.length > 0) {
+				if (!updateByKey(db, record)) {
+					return BaseTable.NOT_SAVED;
+				}
+
+				if (keyColumn == mapper.getIdColumn()) {
+					return record.id;
+				}
+			}
+
+			// key is a unique column, or there is nothing to update
+			SQLiteStatement statement = statementCache.acquire(db, selectIdSQL);
+			try {
+				synchronized (statement) {
+					statement.clearBindings();
+					mapper.bindColumn(record, statement, 1, keyColumn);
+					try {
+						return statement.simpleQueryForLong();
+					} catch (SQLiteDoneException e) {
+						return BaseTable.NOT_SAVED;
+					}
+				}
+			} finally {
+				statementCache.release(statement);
+			}
 		}
 	}
 
@@ -371,7 +1566,15 @@ public final class DbUtils {
 		}
 
 		String tableName = Tables.getTableName(tableClass);
-		return getDatabase().update(tableName, values, BaseTable._ID + "=?", new String[] { String.valueOf(id) });
+		int count;
+		lockWriter();
+		try {
+			count = getDatabase().update(tableName, values, BaseTable._ID + "=?", new String[] { String.valueOf(id) });
+		} finally {
+			unlockWriter();
+		}
+		onTableChanged(tableClass, id);
+		return count;
 	}
 
 	/**
@@ -398,7 +1601,15 @@ public final class DbUtils {
 	public <T extends BaseTable> int update(Class<T> tableClass, String where, String[] selectionArgs,
 			ContentValues values) {
 		String tableName = Tables.getTableName(tableClass);
-		return getDatabase().update(tableName, values, where, selectionArgs);
+		int count;
+		lockWriter();
+		try {
+			count = getDatabase().update(tableName, values, where, selectionArgs);
+		} finally {
+			unlockWriter();
+		}
+		onTableChanged(Collections.<Class<? extends BaseTable>> singleton(tableClass));
+		return count;
 	}
 
 	/**
@@ -433,7 +1644,15 @@ public final class DbUtils {
 			return 0;
 		}
 		String tableName = Tables.getTableName(tableClass);
-		return getDatabase().delete(tableName, BaseTable._ID + "=?", new String[] { String.valueOf(id) });
+		int count;
+		lockWriter();
+		try {
+			count = getDatabase().delete(tableName, BaseTable._ID + "=?", new String[] { String.valueOf(id) });
+		} finally {
+			unlockWriter();
+		}
+		onTableChanged(tableClass, id);
+		return count;
 	}
 
 	/**
@@ -465,7 +1684,126 @@ public final class DbUtils {
 	 */
 	public <T extends BaseTable> int delete(Class<T> tableClass, String selection, String[] selectionArgs) {
 		String tableName = Tables.getTableName(tableClass);
-		return getDatabase().delete(tableName, selection, selectionArgs);
+		int count;
+		lockWriter();
+		try {
+			count = getDatabase().delete(tableName, selection, selectionArgs);
+		} finally {
+			unlockWriter();
+		}
+		onTableChanged(Collections.<Class<? extends BaseTable>> singleton(tableClass));
+		return count;
+	}
+
+	/**
+	 * Export all records of table to output stream, @see
+	 * {@link #exportTable(Class, String, String[], OutputStream, int)}.
+	 */
+	public <T extends BaseTable> int exportTable(Class<T> tableClass, OutputStream out, int format)
+			throws IOException {
+		return exportTable(tableClass, null, null, out, format);
+	}
+
+	/**
+	 * Export records of table to output stream, rows are read from cursor
+	 * and written one by one without creating table objects, so memory does
+	 * not grow with table size. The output stream is flushed but not closed.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param selection
+	 * @param selectionArgs
+	 * @param out
+	 * @param format
+	 *            {@link #FORMAT_BINARY} or {@link #FORMAT_JSON_LINES}
+	 * @return count of exported records
+	 * @throws IOException
+	 */
+	public <T extends BaseTable> int exportTable(Class<T> tableClass, String selection, String[] selectionArgs,
+			OutputStream out, int format) throws IOException {
+		TableStreams.RowWriter writer = TableStreams.newWriter(format, out);
+		String tableName = Tables.getTableName(tableClass);
+		String[] columns = Tables.getMapper(tableClass).getColumnNames();
+		Cursor c = query(tableName, columns, selection, selectionArgs, null, null, BaseTable._ID, null);
+		if (c == null) {
+			throw new SQLiteException("Cannot create cursor object, database or columns may have error...");
+		}
+		try {
+			writer.writeHeader(tableName, columns);
+			int count = 0;
+			while (c.moveToNext()) {
+				writer.writeRow(c);
+				count++;
+			}
+			writer.finish();
+			return count;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Import records written by
+	 * {@link #exportTable(Class, String, String[], OutputStream, int)} into
+	 * table, rows are read one by one and inserted with one compiled
+	 * statement, existing records with the same id are replaced. Rows are
+	 * committed in chunks, so if import failed, chunks committed before are
+	 * kept. The input stream is not closed.
+	 * 
+	 * @param tableClass
+	 *            subclass of {@link BaseTable}
+	 * @param in
+	 * @param format
+	 *            {@link #FORMAT_BINARY} or {@link #FORMAT_JSON_LINES}
+	 * @return count of imported records
+	 * @throws IOException
+	 */
+	public <T extends BaseTable> int importTable(Class<T> tableClass, InputStream in, int format)
+			throws IOException {
+		TableStreams.RowReader reader = TableStreams.newReader(format, in);
+		String[] columns = reader.readHeader();
+		StringBuilder placeholders = new StringBuilder();
+		for (String column : columns) {
+			checkColumn(tableClass, column);
+			placeholders.append(placeholders.length() == 0 ? "?" : ",?");
+		}
+		String sql = "INSERT OR REPLACE INTO " + Tables.getTableName(tableClass) + " ("
+				+ TextUtils.join(",", columns) + ") VALUES (" + placeholders + ")";
+
+		Object[] values = new Object[columns.length];
+		int count = 0;
+		Collection<Class<? extends BaseTable>> changed = Collections.<Class<? extends BaseTable>> singleton(tableClass);
+		boolean succeeded = false;
+		lockWriter();
+		try {
+			SQLiteDatabase db = getDatabase();
+			beginTransaction(db);
+			try {
+				SQLiteStatement statement = db.compileStatement(sql);
+				try {
+					while (reader.readRow(values)) {
+						bindArgs(statement, values);
+						statement.execute();
+						if (++count % IMPORT_CHUNK_SIZE == 0) {
+							commitChunk(db);
+						}
+					}
+				} finally {
+					statement.close();
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			succeeded = true;
+		} finally {
+			unlockWriter();
+			if (!succeeded) {
+				evictCache(changed);
+			}
+		}
+		onTableChanged(changed);
+		return count;
 	}
 
 	/**
@@ -475,21 +1813,102 @@ public final class DbUtils {
 	 * @see {@link BatchJobs}
 	 */
 	public <T extends BaseTable> void executeBatchJobs(BatchJobs batchJobs) {
-		SQLiteDatabase database = getDatabase();
+		executeBatchJobs(batchJobs, 0, null);
+	}
+
+	/**
+	 * Execute SQL jobs in chunks, each chunk is committed with its own
+	 * transaction, so the write lock will not be held until all jobs are
+	 * done. Between chunks other threads waiting for the database can go on,
+	 * see {@link SQLiteDatabase#yieldIfContendedSafely()}.
+	 * <p>
+	 * Note: if a job failed, only jobs of the failed chunk are rolled back,
+	 * chunks committed before are kept.
+	 * 
+	 * @param batchJobs
+	 * @param chunkSize
+	 *            count of jobs committed together, 0 to execute all jobs
+	 *            within one transaction.
+	 * @param listener
+	 *            progress callback, can be null.
+	 * @see {@link BatchJobs}
+	 */
+	public void executeBatchJobs(BatchJobs batchJobs, int chunkSize, OnBatchProgressListener listener) {
+		int totalCount = batchJobs.size();
+		if (chunkSize <= 0) {
+			chunkSize = totalCount;
+		}
+
+		int executedCount = 0;
+		long chunkStart = SystemClock.uptimeMillis();
+		boolean succeeded = false;
+		lockWriter();
 		try {
-			database.beginTransaction();
-			ArrayList<SQL> bindArgs = batchJobs.getBatchJobs();
-			for (SQL job : bindArgs) {
-				Object[] args = job.getBindArgsAsArray(false);
-				if (args != null && args.length > 0) {
-					database.execSQL(job.getSql(), args);
-				} else {
-					database.execSQL(job.getSql());
+			SQLiteDatabase database = getDatabase();
+			int chunkCount = 0;
+			beginTransaction(database);
+			try {
+				for (ArrayList<SQL> group : batchJobs.getGroupedJobs()) {
+					// jobs of the same group share one compiled statement, it is
+					// not cached since SQL of jobs is rarely executed again
+					SQLiteStatement statement = database.compileStatement(group.get(0).getSql());
+					try {
+						for (SQL job : group) {
+							bindArgs(statement, job.getBindArgsAsArray(false));
+							statement.execute();
+							executedCount++;
+							chunkCount++;
+
+							if (chunkCount == chunkSize && executedCount < totalCount) {
+								commitChunk(database);
+								long now = SystemClock.uptimeMillis();
+								if (listener != null) {
+									listener.onProgress(executedCount, totalCount, now - chunkStart);
+								}
+								chunkCount = 0;
+								chunkStart = now;
+							}
+						}
+					} finally {
+						statement.close();
+					}
 				}
+				database.setTransactionSuccessful();
+			} finally {
+				database.endTransaction();
 			}
-			database.setTransactionSuccessful();
+			succeeded = true;
 		} finally {
-			database.endTransaction();
+			unlockWriter();
+			if (!succeeded) {
+				evictCache(batchJobs.getTableClasses());
+			}
+		}
+		onTableChanged(batchJobs.getTableClasses());
+
+		if (listener != null) {
+			listener.onProgress(executedCount, totalCount, SystemClock.uptimeMillis() - chunkStart);
+		}
+	}
+
+	/**
+	 * Commit current chunk of jobs and begin a new transaction, yielding to
+	 * other threads if they are waiting for the database.
+	 */
+	private void commitChunk(SQLiteDatabase db) {
+		if (!db.yieldIfContendedSafely()) {
+			db.setTransactionSuccessful();
+			db.endTransaction();
+			beginTransaction(db);
+		}
+	}
+
+	private static void bindArgs(SQLiteStatement statement, Object[] args) {
+		statement.clearBindings();
+		if (args != null) {
+			for (int i = 0; i < args.length; i++) {
+				DatabaseUtils.bindObjectToProgram(statement, i + 1, args[i]);
+			}
 		}
 	}
 }
@@ -0,0 +1,105 @@
+package com.common.library.orm.sqlite;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * Size bounded LRU cache of records found by
+ * {@link DbUtils#findById(Class, long)}, keyed by table class and id. Only
+ * tables declared with {@code @Table(cacheable = true)} are cached, and
+ * records are invalidated by writes of {@link DbUtils}.
+ * <p>
+ * Cached records are shared by all callers, they should be treated as read
+ * only unless they are saved back with {@link DbUtils#update(BaseTable)}.
+ * Writes with raw SQL out of {@link DbUtils} are not tracked, call
+ * {@link #evictAll()} after them.
+ *
+ */
+public final class EntityCache {
+	public static final int DEFAULT_MAX_SIZE = 128;
+
+	private final LruCache<Key, BaseTable> cache;
+	// increased on every invalidation, a record loaded before an invalidation
+	// may be stale and will not be put into cache
+	private long generation;
+
+	EntityCache(int maxSize) {
+		cache = new LruCache<Key, BaseTable>(maxSize);
+	}
+
+	@SuppressWarnings("unchecked")
+	<T extends BaseTable> T get(Class<T> tableClass, long id) {
+		return (T) cache.get(new Key(tableClass, id));
+	}
+
+	/**
+	 * @return generation to pass to {@link #put(Class, long, BaseTable, long)}
+	 *         for record loaded after this call.
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	synchronized void put(Class<? extends BaseTable> tableClass, long id, BaseTable record, long loadedGeneration) {
+		if (record != null && loadedGeneration == generation) {
+			cache.put(new Key(tableClass, id), record);
+		}
+	}
+
+	synchronized void remove(Class<? extends BaseTable> tableClass, long id) {
+		generation++;
+		cache.remove(new Key(tableClass, id));
+	}
+
+	/**
+	 * Remove all cached records of table.
+	 */
+	synchronized void evict(Class<? extends BaseTable> tableClass) {
+		generation++;
+		for (Key key : cache.snapshot().keySet()) {
+			if (key.tableClass == tableClass) {
+				cache.remove(key);
+			}
+		}
+	}
+
+	public synchronized void evictAll() {
+		generation++;
+		cache.evictAll();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public int hitCount() {
+		return cache.hitCount();
+	}
+
+	public int missCount() {
+		return cache.missCount();
+	}
+
+	private static final class Key {
+		final Class<? extends BaseTable> tableClass;
+		final long id;
+
+		Key(Class<? extends BaseTable> tableClass, long id) {
+			this.tableClass = tableClass;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return tableClass == other.tableClass && id == other.id;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * tableClass.hashCode() + (int) (id ^ (id >>> 32));
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package com.common.library.orm.sqlite;
+
+import java.lang.reflect.Field;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Typed accessor of one table field, it reads and writes the field with the
+ * primitive {@link Field} methods so no boxing happens for primitive columns.
+ * Instances are created once per table class by {@link TableMapper}.
+ *
+ */
+abstract class FieldAccessor {
+	protected final Field field;
+
+	FieldAccessor(Field field) {
+		this.field = field;
+		this.field.setAccessible(true);
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	/**
+	 * Create accessor according to the java type of field.
+	 *
+	 * @param field
+	 * @return accessor of field
+	 */
+	static FieldAccessor create(Field field) {
+		Class<?> dataTypeClass = field.getType();
+
+		if (dataTypeClass == int.class) {
+			return new IntAccessor(field);
+		} else if (dataTypeClass == long.class) {
+			return new LongAccessor(field);
+		} else if (dataTypeClass == short.class) {
+			return new ShortAccessor(field);
+		} else if (dataTypeClass == double.class) {
+			return new DoubleAccessor(field);
+		} else if (dataTypeClass == float.class) {
+			return new FloatAccessor(field);
+		} else if (dataTypeClass == boolean.class) {
+			return new BooleanAccessor(field);
+		} else if (dataTypeClass == String.class) {
+			return new StringAccessor(field);
+		} else if (dataTypeClass == byte[].class) {
+			return new BlobAccessor(field);
+		} else if (dataTypeClass == Byte[].class) {
+			return new BoxedBlobAccessor(field);
+		} else if (dataTypeClass == Integer.class || dataTypeClass == Long.class || dataTypeClass == Short.class
+				|| dataTypeClass == Double.class || dataTypeClass == Float.class || dataTypeClass == Boolean.class) {
+			return new BoxedAccessor(field);
+		} else {
+			throw new SQLiteException("field \"" + field.getName() + "\" is not primitive data type.");
+		}
+	}
+
+	/**
+	 * Read column value at {@code columnIndex} of current cursor row into the
+	 * field of {@code target}.
+	 */
+	abstract void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException;
+
+	/**
+	 * Put field value of {@code target} into {@code values}, null value will
+	 * not be put.
+	 */
+	abstract void write(Object target, ContentValues values, String columnName) throws IllegalAccessException;
+
+	/**
+	 * Bind field value of {@code target} to compiled statement at
+	 * {@code index}.
+	 *
+	 * @return false if field value is null and nothing was bound.
+	 */
+	abstract boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException;
+
+	static final class IntAccessor extends FieldAccessor {
+		IntAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			field.setInt(target, cursor.getInt(columnIndex));
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			values.put(columnName, field.getInt(target));
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			statement.bindLong(index, field.getInt(target));
+			return true;
+		}
+	}
+
+	static final class LongAccessor extends FieldAccessor {
+		LongAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			field.setLong(target, cursor.getLong(columnIndex));
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			values.put(columnName, field.getLong(target));
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			statement.bindLong(index, field.getLong(target));
+			return true;
+		}
+	}
+
+	static final class ShortAccessor extends FieldAccessor {
+		ShortAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			field.setShort(target, cursor.getShort(columnIndex));
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			values.put(columnName, field.getShort(target));
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			statement.bindLong(index, field.getShort(target));
+			return true;
+		}
+	}
+
+	static final class DoubleAccessor extends FieldAccessor {
+		DoubleAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			field.setDouble(target, cursor.getDouble(columnIndex));
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			values.put(columnName, field.getDouble(target));
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			statement.bindDouble(index, field.getDouble(target));
+			return true;
+		}
+	}
+
+	static final class FloatAccessor extends FieldAccessor {
+		FloatAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			field.setFloat(target, cursor.getFloat(columnIndex));
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			values.put(columnName, field.getFloat(target));
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			statement.bindDouble(index, field.getFloat(target));
+			return true;
+		}
+	}
+
+	/**
+	 * Boolean is saved as "true" or "false", but columns written by raw SQL
+	 * may hold 1 or 0, both forms are read.
+	 */
+	static boolean readBoolean(Cursor cursor, int columnIndex) {
+		String value = cursor.getString(columnIndex);
+		return "true".equalsIgnoreCase(value) || "1".equals(value);
+	}
+
+	static final class BooleanAccessor extends FieldAccessor {
+		BooleanAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			field.setBoolean(target, readBoolean(cursor, columnIndex));
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			// boolean was always saved as its string form via ContentValues,
+			// keep it so selections like "deleted=?" with "false" still match
+			values.put(columnName, String.valueOf(field.getBoolean(target)));
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			// keep the same form as write()
+			statement.bindString(index, String.valueOf(field.getBoolean(target)));
+			return true;
+		}
+	}
+
+	static final class StringAccessor extends FieldAccessor {
+		StringAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			field.set(target, cursor.getString(columnIndex));
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			String value = (String) field.get(target);
+			if (value != null) {
+				values.put(columnName, value);
+			}
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			String value = (String) field.get(target);
+			if (value == null) {
+				return false;
+			}
+			statement.bindString(index, value);
+			return true;
+		}
+	}
+
+	static final class BlobAccessor extends FieldAccessor {
+		BlobAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			field.set(target, cursor.getBlob(columnIndex));
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			byte[] value = (byte[]) field.get(target);
+			if (value != null) {
+				values.put(columnName, value);
+			}
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			byte[] value = (byte[]) field.get(target);
+			if (value == null) {
+				return false;
+			}
+			statement.bindBlob(index, value);
+			return true;
+		}
+	}
+
+	static final class BoxedBlobAccessor extends FieldAccessor {
+		BoxedBlobAccessor(Field field) {
+			super(field);
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			byte[] blob = cursor.getBlob(columnIndex);
+			if (blob == null) {
+				field.set(target, null);
+				return;
+			}
+
+			Byte[] value = new Byte[blob.length];
+			for (int i = 0; i < blob.length; i++) {
+				value[i] = blob[i];
+			}
+			field.set(target, value);
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			Byte[] value = (Byte[]) field.get(target);
+			if (value != null) {
+				byte[] blob = new byte[value.length];
+				for (int i = 0; i < value.length; i++) {
+					blob[i] = value[i];
+				}
+				values.put(columnName, blob);
+			}
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			Byte[] value = (Byte[]) field.get(target);
+			if (value == null) {
+				return false;
+			}
+
+			byte[] blob = new byte[value.length];
+			for (int i = 0; i < value.length; i++) {
+				blob[i] = value[i];
+			}
+			statement.bindBlob(index, blob);
+			return true;
+		}
+	}
+
+	/**
+	 * Accessor of boxed number and boolean fields, these always need boxing.
+	 */
+	static final class BoxedAccessor extends FieldAccessor {
+		private final Class<?> type;
+
+		BoxedAccessor(Field field) {
+			super(field);
+			this.type = field.getType();
+		}
+
+		@Override
+		void read(Object target, Cursor cursor, int columnIndex) throws IllegalAccessException {
+			if (type == Integer.class) {
+				field.set(target, cursor.getInt(columnIndex));
+			} else if (type == Long.class) {
+				field.set(target, cursor.getLong(columnIndex));
+			} else if (type == Short.class) {
+				field.set(target, cursor.getShort(columnIndex));
+			} else if (type == Double.class) {
+				field.set(target, cursor.getDouble(columnIndex));
+			} else if (type == Float.class) {
+				field.set(target, cursor.getFloat(columnIndex));
+			} else {
+				field.set(target, readBoolean(cursor, columnIndex));
+			}
+		}
+
+		@Override
+		void write(Object target, ContentValues values, String columnName) throws IllegalAccessException {
+			Object value = field.get(target);
+			if (value != null) {
+				values.put(columnName, value.toString());
+			}
+		}
+
+		@Override
+		boolean bind(Object target, SQLiteStatement statement, int index) throws IllegalAccessException {
+			Object value = field.get(target);
+			if (value == null) {
+				return false;
+			}
+
+			if (value instanceof Double || value instanceof Float) {
+				statement.bindDouble(index, ((Number) value).doubleValue());
+			} else if (value instanceof Number) {
+				statement.bindLong(index, ((Number) value).longValue());
+			} else {
+				statement.bindString(index, value.toString());
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.common.library.orm.sqlite;
+
+/**
+ * Result of
+ * {@link DbUtils#aggregateGroupBy(Class, String, String, String, String, String[])},
+ * group keys and aggregate values are kept in two parallel arrays sorted by
+ * key. Values are primitive doubles, only the String key is created per
+ * group.
+ *
+ */
+public final class GroupedAggregate {
+	private final String[] keys;
+	private final double[] values;
+
+	GroupedAggregate(String[] keys, double[] values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * @param index
+	 * @return value of group by column of group at index, may be null.
+	 */
+	public String getKey(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * @param index
+	 * @return aggregate value of group at index, {@link Double#NaN} for NULL.
+	 */
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	public String[] getKeys() {
+		return keys;
+	}
+
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @param key
+	 * @return aggregate value of group with key, {@link Double#NaN} if the
+	 *         group does not exist.
+	 */
+	public double getValue(String key) {
+		for (int i = 0; i < keys.length; i++) {
+			if (key == null ? keys[i] == null : key.equals(keys[i])) {
+				return values[i];
+			}
+		}
+		return Double.NaN;
+	}
+}
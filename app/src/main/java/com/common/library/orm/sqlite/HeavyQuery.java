@@ -16,6 +16,7 @@ public abstract class HeavyQuery<T extends BaseTable> extends AsyncTask<Void, Vo
 	private static final int QUERY_TYPE_FIND = 0;
 	private static final int QUERY_TYPE_FIND_ALL = 1;
 	private static final int QUERY_TYPE_FIND_LIMIT = 2;
+	private static final int QUERY_TYPE_FIND_PAGE = 3;
 
 	private DbUtils mDbUtils;
 	private Class<T> mTableClass;
@@ -26,6 +27,8 @@ public abstract class HeavyQuery<T extends BaseTable> extends AsyncTask<Void, Vo
 	private String mOrderBy;
 	private int mLimitOffset;
 	private int mLimitSize;
+	private String mPageToken;
+	private String mNextPageToken;
 	private int mQueryType;
 
 	/**
@@ -52,6 +55,7 @@ public abstract class HeavyQuery<T extends BaseTable> extends AsyncTask<Void, Vo
 	public HeavyQuery(DbUtils dbUtils, Class<T> tableClass, String selection, String[] selectionArgs,
 			String groupBy, String having, String orderBy) {
 		mQueryType = QUERY_TYPE_FIND;
+		mDbUtils = dbUtils;
 		mTableClass = tableClass;
 		mSelection = selection;
 		mSelectionArgs = selectionArgs;
@@ -67,6 +71,7 @@ public abstract class HeavyQuery<T extends BaseTable> extends AsyncTask<Void, Vo
 	public HeavyQuery(DbUtils dbUtils, Class<T> tableClass, String selection, String[] selectionArgs,
 			String groupBy, String having, String orderBy, int limitOffset, int limitSize) {
 		mQueryType = QUERY_TYPE_FIND_LIMIT;
+		mDbUtils = dbUtils;
 		mTableClass = tableClass;
 		mSelection = selection;
 		mSelectionArgs = selectionArgs;
@@ -77,6 +82,31 @@ public abstract class HeavyQuery<T extends BaseTable> extends AsyncTask<Void, Vo
 		mLimitSize = limitSize;
 	}
 
+	/**
+	 * Be similar with
+	 * {@link DbUtils#findPage(Class, String, String[], String, int)}, token of
+	 * the next page can be got by {@link #getNextPageToken()} after query
+	 * completed.
+	 */
+	public HeavyQuery(DbUtils dbUtils, Class<T> tableClass, String selection, String[] selectionArgs,
+			String pageToken, int pageSize) {
+		mQueryType = QUERY_TYPE_FIND_PAGE;
+		mDbUtils = dbUtils;
+		mTableClass = tableClass;
+		mSelection = selection;
+		mSelectionArgs = selectionArgs;
+		mPageToken = pageToken;
+		mLimitSize = pageSize;
+	}
+
+	/**
+	 * @return token of the next page for page query, null if there is no more
+	 *         records or query is not completed.
+	 */
+	public String getNextPageToken() {
+		return mNextPageToken;
+	}
+
 	@Override
 	protected List<T> doInBackground(Void... params) {
 		if (mDbUtils == null) {
@@ -90,6 +120,10 @@ public abstract class HeavyQuery<T extends BaseTable> extends AsyncTask<Void, Vo
 		} else if (mQueryType == QUERY_TYPE_FIND_LIMIT) {
 			return mDbUtils.findWithLimit(mTableClass, mSelection, mSelectionArgs, mGroupBy, mHaving, mOrderBy,
 					mLimitOffset, mLimitSize);
+		} else if (mQueryType == QUERY_TYPE_FIND_PAGE) {
+			Page<T> page = mDbUtils.findPage(mTableClass, mSelection, mSelectionArgs, mPageToken, mLimitSize);
+			mNextPageToken = page.getNextPageToken();
+			return page.getItems();
 		} else {
 			throw new IllegalArgumentException("query type was not specified");
 		}
@@ -0,0 +1,114 @@
+package com.common.library.orm.sqlite;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+
+/**
+ * A read-only list backed by query cursor, records are restored only when they
+ * are accessed, and only a small window of recently accessed records is kept
+ * in memory. So large result can be shown without creating one object per
+ * row.
+ * <p>
+ * The list holds an open cursor, {@link #close()} must be called when it is
+ * no longer used. It is not thread safe, access it in one thread only.
+ *
+ * <pre>
+ * LazyList&lt;Account&gt; accounts = dbUtils.findAllLazy(Account.class);
+ * try {
+ * 	for (Account account : accounts) {
+ * 		...
+ * 	}
+ * } finally {
+ * 	accounts.close();
+ * }
+ * </pre>
+ *
+ */
+public final class LazyList<T extends BaseTable> extends AbstractList<T> implements Closeable {
+	public static final int DEFAULT_WINDOW_SIZE = 32;
+
+	private final Cursor cursor;
+	private final Class<T> tableClass;
+	private final TableMapper mapper;
+	private final int[] columnIndexes;
+	private final LinkedHashMap<Integer, T> window;
+	private boolean closed;
+
+	LazyList(Cursor cursor, Class<T> tableClass, final int windowSize) {
+		this.cursor = cursor;
+		this.tableClass = tableClass;
+		this.mapper = Tables.getMapper(tableClass);
+		this.columnIndexes = mapper.resolveColumns(cursor);
+		this.window = new LinkedHashMap<Integer, T>(windowSize, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, T> eldest) {
+				return size() > windowSize;
+			}
+		};
+	}
+
+	@Override
+	public T get(int location) {
+		if (closed) {
+			throw new IllegalStateException("LazyList has been closed");
+		}
+
+		T content = window.get(location);
+		if (content == null) {
+			if (!cursor.moveToPosition(location)) {
+				throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + size());
+			}
+			content = restore();
+			window.put(location, content);
+		}
+		return content;
+	}
+
+	private T restore() {
+		try {
+			T content = tableClass.newInstance();
+			content.id = cursor.getLong(0);
+			content.restore(cursor, mapper, columnIndexes);
+			return content;
+		} catch (IllegalAccessException e) {
+			throw new SQLiteException("Cannot create instance of " + tableClass.getName(), e);
+		} catch (InstantiationException e) {
+			throw new SQLiteException("Cannot create instance of " + tableClass.getName(), e);
+		}
+	}
+
+	@Override
+	public int size() {
+		return closed ? 0 : cursor.getCount();
+	}
+
+	/**
+	 * @return the backing cursor, it should not be closed or moved by caller.
+	 */
+	public Cursor getCursor() {
+		return cursor;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Close backing cursor and release cached records.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			window.clear();
+			cursor.close();
+		}
+	}
+}
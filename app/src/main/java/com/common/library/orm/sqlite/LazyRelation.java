@@ -0,0 +1,68 @@
+package com.common.library.orm.sqlite;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Related records of a list of records, loaded with batched IN queries only
+ * when the first one is accessed, then shared by all records of the list.
+ * <p>
+ * It is not thread safe, access it in one thread only.
+ *
+ * <pre>
+ * LazyRelation&lt;Permission, Account&gt; accounts = dbUtils.findForeignLazy(Permission.class, permissions,
+ * 		Permission.COLUMN_ACCOUNT_ID, Account.class);
+ * for (Permission permission : permissions) {
+ * 	Account account = accounts.get(permission);
+ * 	...
+ * }
+ * </pre>
+ *
+ * @see DbUtils#findForeignLazy(Class, List, String, Class)
+ * @see DbUtils#findChildrenLazy(Class, List, String, Class)
+ */
+public final class LazyRelation<T extends BaseTable, V> {
+
+	interface Loader<T extends BaseTable, V> {
+		/**
+		 * Load related records of all records.
+		 * 
+		 * @return related records by key
+		 */
+		Map<Long, V> load(List<T> records);
+
+		/**
+		 * @return key of record in the map returned by {@link #load(List)}.
+		 */
+		Long keyOf(T record);
+	}
+
+	private final List<T> records;
+	private final Loader<T, V> loader;
+	private Map<Long, V> related;
+
+	LazyRelation(List<T> records, Loader<T, V> loader) {
+		this.records = records;
+		this.loader = loader;
+	}
+
+	/**
+	 * Get related records of record, related records of all records are loaded
+	 * at the first time.
+	 * 
+	 * @param record
+	 *            one of records this relation was created with.
+	 * @return related record or records, null if not found.
+	 */
+	public V get(T record) {
+		if (related == null) {
+			related = loader.load(records);
+		}
+		Long key = loader.keyOf(record);
+		return key == null ? null : related.get(key);
+	}
+
+	public boolean isLoaded() {
+		return related != null;
+	}
+}
@@ -0,0 +1,163 @@
+package com.common.library.orm.sqlite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.common.library.orm.sqlite.AsyncDbUtils.Callback;
+import com.common.library.orm.sqlite.DbUtils.OnTableChangedListener;
+
+/**
+ * A query which runs again automatically when any of its tables is changed
+ * by {@link DbUtils}. Changes within the debounce time are merged into one
+ * query, queries run on {@link AsyncDbUtils#DB_EXECUTOR} and results are
+ * delivered to callback in main thread.
+ * 
+ * <pre>
+ * mLiveQuery = new LiveQuery&lt;List&lt;Account&gt;&gt;(dbUtils, new LiveQuery.Query&lt;List&lt;Account&gt;&gt;() {
+ * 	public List&lt;Account&gt; run(DbUtils dbUtils) {
+ * 		return dbUtils.findAll(Account.class);
+ * 	}
+ * }, callback, Account.class);
+ * mLiveQuery.start();
+ * 
+ * // in onDestroy()
+ * mLiveQuery.stop();
+ * </pre>
+ */
+public final class LiveQuery<R> implements OnTableChangedListener {
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 300;
+
+	/**
+	 * The query to run, called in background thread.
+	 */
+	public interface Query<R> {
+		R run(DbUtils dbUtils);
+	}
+
+	private final DbUtils mDbUtils;
+	private final Query<R> mQuery;
+	private final Callback<R> mCallback;
+	private final Collection<Class<? extends BaseTable>> mTableClasses;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	// increased for every query run, result of old run is dropped
+	private final AtomicInteger mGeneration = new AtomicInteger();
+	private volatile long mDebounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+	private volatile boolean mStarted;
+
+	private final Runnable mRequery = new Runnable() {
+
+		@Override
+		public void run() {
+			runQuery();
+		}
+	};
+
+	/**
+	 * @param dbUtils
+	 * @param query
+	 * @param callback
+	 *            receive query results in main thread
+	 * @param tableClasses
+	 *            tables read by query
+	 */
+	public LiveQuery(DbUtils dbUtils, Query<R> query, Callback<R> callback,
+			Collection<Class<? extends BaseTable>> tableClasses) {
+		mDbUtils = dbUtils;
+		mQuery = query;
+		mCallback = callback;
+		mTableClasses = new ArrayList<Class<? extends BaseTable>>(tableClasses);
+	}
+
+	/**
+	 * Query reading one table, see
+	 * {@link #LiveQuery(DbUtils, Query, Callback, Collection)}.
+	 */
+	public LiveQuery(DbUtils dbUtils, Query<R> query, Callback<R> callback, Class<? extends BaseTable> tableClass) {
+		this(dbUtils, query, callback, Collections.<Class<? extends BaseTable>> singleton(tableClass));
+	}
+
+	public void setDebounceMillis(long debounceMillis) {
+		mDebounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Run query now and then again after each change of its tables.
+	 */
+	public void start() {
+		if (mStarted) {
+			return;
+		}
+		mStarted = true;
+		mDbUtils.registerTableObserver(this, mTableClasses);
+		runQuery();
+	}
+
+	/**
+	 * Stop observing tables, result of running query will be dropped.
+	 */
+	public void stop() {
+		if (!mStarted) {
+			return;
+		}
+		mStarted = false;
+		mDbUtils.unregisterTableObserver(this);
+		mHandler.removeCallbacks(mRequery);
+		mGeneration.incrementAndGet();
+	}
+
+	public boolean isStarted() {
+		return mStarted;
+	}
+
+	@Override
+	public void onTableChanged(Set<Class<? extends BaseTable>> tableClasses) {
+		if (mStarted) {
+			mHandler.removeCallbacks(mRequery);
+			mHandler.postDelayed(mRequery, mDebounceMillis);
+		}
+	}
+
+	private void runQuery() {
+		final int generation = mGeneration.incrementAndGet();
+		AsyncDbUtils.DB_EXECUTOR.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				// a newer run has been scheduled, or query was stopped
+				if (generation != mGeneration.get()) {
+					return;
+				}
+
+				try {
+					deliver(generation, mQuery.run(mDbUtils), null);
+				} catch (Exception e) {
+					deliver(generation, null, e);
+				}
+			}
+		});
+	}
+
+	private void deliver(final int generation, final R result, final Exception error) {
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				if (!mStarted || generation != mGeneration.get()) {
+					return;
+				}
+
+				if (error == null) {
+					mCallback.onSuccess(result);
+				} else {
+					mCallback.onError(error);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,101 @@
+package com.common.library.orm.sqlite;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import android.database.sqlite.SQLiteException;
+import android.util.Base64;
+
+/**
+ * One page of keyset pagination result, @see
+ * {@link DbUtils#findPage(Class, String, String[], String, int)}.
+ * <p>
+ * Instead of skipping rows with LIMIT/OFFSET, the next page is queried from
+ * the sort key and id of the last record of this page, which are encoded in
+ * {@link #getNextPageToken()}, so deep pages are as fast as the first one.
+ *
+ */
+public final class Page<T extends BaseTable> {
+	private static final String CHARSET = "UTF-8";
+	private static final char SEPARATOR = '\n';
+	private static final char VALUE_MARKER = 'v';
+	private static final char NULL_MARKER = 'n';
+
+	private final List<T> items;
+	private final String nextPageToken;
+
+	Page(List<T> items, String nextPageToken) {
+		this.items = items;
+		this.nextPageToken = nextPageToken;
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return opaque token to query the next page, null if this is the last
+	 *         page.
+	 */
+	public String getNextPageToken() {
+		return nextPageToken;
+	}
+
+	public boolean hasMore() {
+		return nextPageToken != null;
+	}
+
+	/**
+	 * Encode sort key and id of the last record into token, a null sort value
+	 * is encoded with an explicit marker.
+	 *
+	 * @param hasSortColumn
+	 *            whether table has default order by.
+	 * @param sortValue
+	 *            value of sort column, may be null.
+	 * @param id
+	 * @return opaque token
+	 */
+	static String encodeToken(boolean hasSortColumn, String sortValue, long id) {
+		String plain = String.valueOf(id);
+		if (hasSortColumn) {
+			plain += SEPARATOR + (sortValue == null ? String.valueOf(NULL_MARKER) : VALUE_MARKER + sortValue);
+		}
+		try {
+			return Base64.encodeToString(plain.getBytes(CHARSET), Base64.URL_SAFE | Base64.NO_WRAP);
+		} catch (UnsupportedEncodingException e) {
+			throw new SQLiteException("Cannot encode page token", e);
+		}
+	}
+
+	/**
+	 * Decode token created by {@link #encodeToken(boolean, String, long)}.
+	 *
+	 * @param token
+	 * @return two elements array, the first is id and the second is sort
+	 *         value which is null if sort value is NULL or table has no
+	 *         default order by.
+	 */
+	static String[] decodeToken(String token) {
+		String plain;
+		try {
+			plain = new String(Base64.decode(token, Base64.URL_SAFE | Base64.NO_WRAP), CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new SQLiteException("Cannot decode page token", e);
+		} catch (IllegalArgumentException e) {
+			throw new SQLiteException("Invalid page token: " + token, e);
+		}
+
+		int index = plain.indexOf(SEPARATOR);
+		if (index < 0) {
+			return new String[] { plain, null };
+		}
+		if (index + 1 < plain.length() && plain.charAt(index + 1) == VALUE_MARKER) {
+			return new String[] { plain.substring(0, index), plain.substring(index + 2) };
+		}
+		if (index + 2 == plain.length() && plain.charAt(index + 1) == NULL_MARKER) {
+			return new String[] { plain.substring(0, index), null };
+		}
+		throw new SQLiteException("Invalid page token: " + token);
+	}
+}
@@ -0,0 +1,74 @@
+package com.common.library.orm.sqlite;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Debug tool to run "EXPLAIN QUERY PLAN" for queries of {@link DbUtils} and
+ * log a warning when SQLite has to scan the whole table or sort the result
+ * without an index, which usually means an @Index or @CompositeIndex is
+ * missing. Each distinct SQL is explained only once.
+ *
+ */
+final class QueryPlanChecker {
+	private static final String TAG = "QueryPlanChecker";
+	private static final String COLUMN_DETAIL = "detail";
+
+	private final Set<String> checkedSqls = new HashSet<String>();
+
+	/**
+	 * Explain query and log full table scans.
+	 *
+	 * @param db
+	 * @param sql
+	 *            the query to explain
+	 * @param selectionArgs
+	 */
+	public void check(SQLiteDatabase db, String sql, String[] selectionArgs) {
+		synchronized (checkedSqls) {
+			if (!checkedSqls.add(sql)) {
+				return;
+			}
+		}
+
+		Cursor c = null;
+		try {
+			c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+			int detailIndex = c.getColumnIndex(COLUMN_DETAIL);
+			if (detailIndex < 0) {
+				return;
+			}
+
+			while (c.moveToNext()) {
+				String detail = c.getString(detailIndex);
+				if (isFullScan(detail)) {
+					Log.w(TAG, "Full table scan \"" + detail + "\" for query: " + sql);
+				}
+			}
+		} catch (RuntimeException e) {
+			// never break the real query because of the check
+			Log.w(TAG, "Cannot explain query: " + sql, e);
+		} finally {
+			if (c != null) {
+				c.close();
+			}
+		}
+	}
+
+	private static boolean isFullScan(String detail) {
+		if (detail == null) {
+			return false;
+		}
+
+		// "SCAN TABLE account" on old SQLite, "SCAN account" on new one, a scan
+		// with "USING ... INDEX" or "USING INTEGER PRIMARY KEY" is fine
+		if (detail.startsWith("SCAN ") && !detail.contains(" USING ")) {
+			return true;
+		}
+		return detail.startsWith("USE TEMP B-TREE FOR ORDER BY");
+	}
+}
@@ -3,8 +3,8 @@ package com.common.library.orm.sqlite;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import android.annotation.TargetApi;
 import android.content.ContentValues;
@@ -12,10 +12,10 @@ import android.database.sqlite.SQLiteException;
 import android.os.Build;
 import android.text.TextUtils;
 
-import com.common.library.orm.DataType;
 import com.common.library.orm.annotation.Column;
-import com.common.library.orm.annotation.Foreign;
-import com.common.library.orm.annotation.ID;
+import com.common.library.orm.annotation.CompositeIndex;
+import com.common.library.orm.annotation.CompositeIndexes;
+import com.common.library.orm.annotation.Index;
 import com.common.library.orm.annotation.Table;
 import com.common.library.orm.annotation.Transient;
 
@@ -57,99 +57,197 @@ public final class SQLBuilder {
     }
 	
 	static SQL buildTableCreateSQL(Class<? extends BaseTable> tableClass) {
-		// get table name
-		String tableName = SQLBuilder.getTableName(tableClass);
+		return buildTableCreateSQL(tableClass, SQLBuilder.getTableName(tableClass));
+	}
 
+	/**
+	 * Build table creation script of table class with another table name,
+	 * used to copy table when migrating schema.
+	 */
+	static SQL buildTableCreateSQL(Class<? extends BaseTable> tableClass, String tableName) {
 		// builder string to create table
 		final StringBuilder buffer = new StringBuilder();
 		buffer.append("CREATE TABLE IF NOT EXISTS ").append(tableName);
 		buffer.append(" (");
-		Field[] fields = Tables.getAndSaveFields(tableClass);
-
-		int index = 0;// no need ", " for last column
-		for (Field field : fields) {
-			index++;
 
-			// field having @Transient will not treat as table column
-			Transient tr = field.getAnnotation(Transient.class);
-			if (tr != null) {
-				continue;
+		// field having @Transient is not in column plans, so no need to filter it here
+		ColumnPlan[] columns = Tables.getColumns(tableClass);
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				buffer.append(", ");
 			}
+			appendColumnDefinition(buffer, columns[i]);
+		}
+		buffer.append(");");
+		return new SQL(buffer.toString());
+	}
 
-			// add column definition
-			String columnName = getColumnName(field);
-			Column column = field.getAnnotation(Column.class);
-
-			validateFieldType(field, tableName);
-
-			// add column name and type definition
-			String columnType = DataType.getDataTypeByField(field);
-			buffer.append(columnName).append(" ").append(columnType);
+	/**
+	 * Build "CREATE INDEX IF NOT EXISTS" scripts of fields with @Index and
+	 * table class with @CompositeIndex or @CompositeIndexes.
+	 */
+	static List<SQL> buildIndexCreateSQLs(Class<? extends BaseTable> tableClass) {
+		String tableName = SQLBuilder.getTableName(tableClass);
+		List<SQL> sqls = new ArrayList<SQL>();
 
-			// add id definition if it was id column
-			ID id = field.getAnnotation(ID.class);
-			if (id != null) {
-				buffer.append(" PRIMARY KEY AUTOINCREMENT");
+		for (ColumnPlan column : Tables.getColumns(tableClass)) {
+			Index index = column.getField().getAnnotation(Index.class);
+			if (index != null) {
+				sqls.add(buildIndexCreateSQL(tableName, index.name(), index.unique(), column.getName()));
 			}
+		}
 
-			// add 'default value' definition
-			if (!TextUtils.isEmpty(column.defaultValue())) {
-				buffer.append(" DEFAULT '" + column.defaultValue() + "'");
+		List<CompositeIndex> compositeIndexes = new ArrayList<CompositeIndex>();
+		CompositeIndex compositeIndex = tableClass.getAnnotation(CompositeIndex.class);
+		if (compositeIndex != null) {
+			compositeIndexes.add(compositeIndex);
+		}
+		CompositeIndexes container = tableClass.getAnnotation(CompositeIndexes.class);
+		if (container != null) {
+			compositeIndexes.addAll(Arrays.asList(container.value()));
+		}
+
+		for (CompositeIndex index : compositeIndexes) {
+			String[] columns = index.columns();
+			if (columns.length == 0) {
+				throw new SQLiteException("No columns defined in @CompositeIndex of table \"" + tableName + "\"");
 			}
-			
-			// add unique definition
-			boolean unique = column.unique();
-			if(unique){
-				buffer.append(" UNIQUE");
+			for (String column : columns) {
+				if (Tables.getColumn(tableClass, column) == null) {
+					throw new SQLiteException("Column \"" + column + "\" in @CompositeIndex does not exist in table \""
+							+ tableName + "\"");
+				}
 			}
+			sqls.add(buildIndexCreateSQL(tableName, index.name(), index.unique(), columns));
+		}
+		return sqls;
+	}
 
-			// add 'not null' definition
-			if (column.notNull()) {
-				buffer.append(" NOT NULL");
-			}
+	private static SQL buildIndexCreateSQL(String tableName, String indexName, boolean unique, String... columns) {
+		StringBuilder buffer = new StringBuilder("CREATE ");
+		if (unique) {
+			buffer.append("UNIQUE ");
+		}
+		buffer.append("INDEX IF NOT EXISTS ");
 
-			// add foreign key definition
-			Foreign foreign = field.getAnnotation(Foreign.class);
-			if (foreign != null) {
-				Class<? extends BaseTable> refTableClass = foreign.tableClass();
-				Table refTable = refTableClass.getAnnotation(Table.class);
-				String refTableName = refTable.name();
-				String refColumnName = BaseTable._ID;
-				buffer.append(" REFERENCES " + refTableName + "(" + refColumnName + ")");
+		if (TextUtils.isEmpty(indexName)) {
+			buffer.append("idx_").append(tableName);
+			for (String column : columns) {
+				buffer.append('_').append(column);
 			}
+		} else {
+			buffer.append(indexName);
+		}
 
-			if (index != fields.length) {
-				buffer.append(", ");
+		buffer.append(" ON ").append(tableName).append(" (").append(TextUtils.join(", ", columns)).append(");");
+		return new SQL(buffer.toString());
+	}
+
+	/**
+	 * @return names of columns with @FullTextSearch, empty if there is none.
+	 */
+	static List<String> getFullTextColumns(Class<? extends BaseTable> tableClass) {
+		List<String> columns = new ArrayList<String>();
+		for (ColumnPlan column : Tables.getColumns(tableClass)) {
+			if (column.isFullTextSearch()) {
+				columns.add(column.getName());
 			}
 		}
-		buffer.append(");");
-		return new SQL(buffer.toString());
+		return columns;
 	}
-	
-	private static void validateFieldType(Field field, String tableName) {
-		Class<?> fieldTypeClass = field.getType();
-
-		if (fieldTypeClass != Integer.class 
-				&& fieldTypeClass != int.class 
-				&& fieldTypeClass != Short.class
-				&& fieldTypeClass != short.class
-				&& fieldTypeClass != Double.class
-				&& fieldTypeClass != double.class
-				&& fieldTypeClass != Float.class
-				&& fieldTypeClass != float.class 
-				&& fieldTypeClass != Long.class
-				&& fieldTypeClass != long.class
-				&& fieldTypeClass != Boolean.class
-				&& fieldTypeClass != boolean.class
-				&& fieldTypeClass != String.class 
-				&& fieldTypeClass != Byte[].class 
-				&& fieldTypeClass != byte[].class) {
-			throw new SQLiteException(
-					"field type is not supported to be converted into sqlite column type for field \""
-							+ field.getName() + "\" in table class \"" + tableName + "\"");
+
+	static String getFullTextTableName(String tableName) {
+		return tableName + "_fts";
+	}
+
+	/**
+	 * Build scripts to drop the FTS4 shadow table of table class and its sync
+	 * triggers, they are safe to execute even if nothing was created.
+	 */
+	static List<SQL> buildFullTextDropSQLs(Class<? extends BaseTable> tableClass) {
+		String ftsTableName = getFullTextTableName(SQLBuilder.getTableName(tableClass));
+		List<SQL> sqls = new ArrayList<SQL>();
+		sqls.add(new SQL("DROP TRIGGER IF EXISTS " + ftsTableName + "_insert"));
+		sqls.add(new SQL("DROP TRIGGER IF EXISTS " + ftsTableName + "_update"));
+		sqls.add(new SQL("DROP TRIGGER IF EXISTS " + ftsTableName + "_delete"));
+		sqls.add(new SQL("DROP TABLE IF EXISTS " + ftsTableName));
+		return sqls;
+	}
+
+	/**
+	 * Build scripts to create the FTS4 shadow table of columns with
+	 * {@link com.common.library.orm.annotation.FullTextSearch}, fill it with
+	 * existing records and create triggers to keep it in sync, docid of
+	 * shadow table is the id of record.
+	 * 
+	 * @return empty if table class has no full text search column.
+	 */
+	static List<SQL> buildFullTextCreateSQLs(Class<? extends BaseTable> tableClass) {
+		List<SQL> sqls = new ArrayList<SQL>();
+		List<String> columns = getFullTextColumns(tableClass);
+		if (columns.isEmpty()) {
+			return sqls;
 		}
+
+		String tableName = SQLBuilder.getTableName(tableClass);
+		String ftsTableName = getFullTextTableName(tableName);
+		String columnList = TextUtils.join(", ", columns);
+		String insertColumns = ftsTableName + " (docid, " + columnList + ")";
+		StringBuilder newValues = new StringBuilder("new.").append(BaseTable._ID);
+		for (String column : columns) {
+			newValues.append(", new.").append(column);
+		}
+		// rows removed by REPLACE conflict fire the delete trigger only when recursive_triggers is on,
+		// see BaseDbHelper#onOpen, a row of the same id is deleted here anyway
+		String syncNew = "DELETE FROM " + ftsTableName + " WHERE docid = new." + BaseTable._ID + "; INSERT INTO "
+				+ insertColumns + " VALUES (" + newValues + "); ";
+
+		sqls.add(new SQL("CREATE VIRTUAL TABLE " + ftsTableName + " USING fts4(" + columnList + ")"));
+		sqls.add(new SQL("INSERT INTO " + insertColumns + " SELECT " + BaseTable._ID + ", " + columnList + " FROM "
+				+ tableName));
+		sqls.add(new SQL("CREATE TRIGGER " + ftsTableName + "_insert AFTER INSERT ON " + tableName + " BEGIN "
+				+ syncNew + "END"));
+		sqls.add(new SQL("CREATE TRIGGER " + ftsTableName + "_update AFTER UPDATE ON " + tableName + " BEGIN "
+				+ "DELETE FROM " + ftsTableName + " WHERE docid = old." + BaseTable._ID + "; " + syncNew + "END"));
+		sqls.add(new SQL("CREATE TRIGGER " + ftsTableName + "_delete AFTER DELETE ON " + tableName + " BEGIN "
+				+ "DELETE FROM " + ftsTableName + " WHERE docid = old." + BaseTable._ID + "; END"));
+		return sqls;
 	}
-	
+
+	static void appendColumnDefinition(StringBuilder buffer, ColumnPlan column) {
+		// add column name and type definition
+		buffer.append(column.getName()).append(" ").append(column.getType());
+
+		// add id definition if it was id column
+		if (column.isId()) {
+			buffer.append(" PRIMARY KEY AUTOINCREMENT");
+		}
+
+		// add 'default value' definition
+		if (column.hasDefaultValue()) {
+			buffer.append(" DEFAULT '" + column.getDefaultValue() + "'");
+		}
+
+		// add unique definition
+		if (column.isUnique()) {
+			buffer.append(" UNIQUE");
+		}
+
+		// add 'not null' definition
+		if (column.isNotNull()) {
+			buffer.append(" NOT NULL");
+		}
+
+		// add foreign key definition
+		Class<? extends BaseTable> refTableClass = column.getForeignTable();
+		if (refTableClass != null) {
+			Table refTable = refTableClass.getAnnotation(Table.class);
+			String refTableName = refTable.name();
+			String refColumnName = BaseTable._ID;
+			buffer.append(" REFERENCES " + refTableName + "(" + refColumnName + ")");
+		}
+	}
+
 	//-- insert sql
     public static <T extends BaseTable> SQL buildInsertSQL(T table) {
         List<KeyValue> keyValueList = table2KeyValueList(table);
@@ -185,15 +283,14 @@ public final class SQLBuilder {
         return sql;
     }
 
-    // -- delete sql
+    // -- delete sql, arguments are bound to placeholders instead of inlined,
+    // so SQL text of the same kind of job is the same and can be compiled once
     public static <T extends BaseTable> SQL buildDeleteSQL(T table){
         if (table == null || table.id == BaseTable.NOT_SAVED) {
             throw new SQLiteException("this table[" + table.getClass().getName() + "]'s id value is not illegal.");
         }
-        
-        StringBuilder buffer = new StringBuilder("DELETE FROM " + SQLBuilder.getTableName(table.getClass()));
-        buffer.append(" WHERE ").append(BaseTable._ID + "=" + table.id);
-        return new SQL(buffer.toString());
+
+        return buildDeleteSQL(table.getClass(), table.id);
     }
 
     public static <T extends BaseTable> SQL buildDeleteSQL(Class<T> tableClass, long id) {
@@ -202,46 +299,27 @@ public final class SQLBuilder {
         }
         
         StringBuilder buffer = new StringBuilder("DELETE FROM " + SQLBuilder.getTableName(tableClass));
-        buffer.append(" WHERE ").append(BaseTable._ID + "=" + id);
-        return new SQL(buffer.toString());
+        buffer.append(" WHERE ").append(BaseTable._ID).append("=?");
+        return new SQL(buffer.toString(), id);
     }
     
     public static <T extends BaseTable> SQL buildDeleteSQL(Class<T> tableClass, String where, 
     		String[] selectionArgs) {
+    	SQL sql = new SQL();
     	StringBuilder buffer = new StringBuilder("DELETE FROM " + SQLBuilder.getTableName(tableClass));
-    	if (where != null && where.length() > 0) {
-            buffer.append(" WHERE ").append(buildWhere(where, selectionArgs));
-        }
-        return new SQL(buffer.toString());
+    	appendWhere(buffer, sql, where, selectionArgs);
+        sql.setSql(buffer.toString());
+        return sql;
     }
     
     // -- update sql
-    @TargetApi(Build.VERSION_CODES.HONEYCOMB) 
     public static <T extends BaseTable> SQL buildUpdateSQL(Class<T> tableClass, long id, ContentValues values) {
-        if (values == null || values.size() == 0) {
-        	return null;
-        }
-
         String tableName = getTableName(tableClass);
         if (id == BaseTable.NOT_SAVED) {
             throw new SQLiteException("this table [" + tableName + "]'s id value is null");
         }
 
-        SQL sql = new SQL();
-        StringBuffer sqlBuffer = new StringBuffer("UPDATE ");
-        sqlBuffer.append(tableName);
-        sqlBuffer.append(" SET ");
-        Set<String> columnNames = values.keySet();
-        
-        for (String columnName : columnNames) {
-        	sqlBuffer.append(columnName).append("=?,");
-            sql.addBindArg(values.getAsString(columnName));
-        }
-        sqlBuffer.deleteCharAt(sqlBuffer.length() - 1);
-        sqlBuffer.append(" WHERE ").append(BaseTable._ID + "=" + id);
-
-        sql.setSql(sqlBuffer.toString());
-        return sql;
+        return buildUpdateSQL(tableClass, BaseTable._ID + "=?", new String[] { String.valueOf(id) }, values);
     }
     
     @TargetApi(Build.VERSION_CODES.HONEYCOMB) 
@@ -252,62 +330,45 @@ public final class SQLBuilder {
         }
         
         SQL result = new SQL();
-        StringBuffer buffer = new StringBuffer("UPDATE ");
+        StringBuilder buffer = new StringBuilder("UPDATE ");
         buffer.append(getTableName(tableClass));
         buffer.append(" SET ");
-        Set<String> keys = values.keySet();
-        for (String columnName : keys) {
+
+        // sort columns so the same set of columns always gives the same SQL
+        List<String> columnNames = new ArrayList<String>(values.keySet());
+        Collections.sort(columnNames);
+        for (String columnName : columnNames) {
         	buffer.append(columnName).append("=?,");
             result.addBindArg(values.getAsString(columnName));
         }
         buffer.deleteCharAt(buffer.length() - 1);
-        if (where != null && where.length() > 0) {
-            buffer.append(" WHERE ").append(buildWhere(where, selectionArgs));
-        }
+        appendWhere(buffer, result, where, selectionArgs);
 
         result.setSql(buffer.toString());
         return result;
     }
 
-    private static <T extends BaseTable> KeyValue column2KeyValue(T table, Field field, Column column) {
-        KeyValue kv = null;
-        String key = column.columnName();
-        if (key != null) {
-            Object value = SQLBuilder.getFieldValue(table, field);
-            value = value == null ? column.defaultValue() : value;
-            kv = new KeyValue(key, value);
-        }
-        return kv;
-    }
-
     public static <T extends BaseTable> ArrayList<KeyValue> table2KeyValueList(T table) {
-    	ArrayList<KeyValue> keyValueList = new ArrayList<KeyValue>();
-        Field[] fields = Tables.getAndSaveFields(table.getClass());
-        
-        for (Field field : fields) {
-        	Column column = field.getAnnotation(Column.class);
-        	if(column != null){
-        		KeyValue kv = column2KeyValue(table, field, column);
-        		if (kv != null) {
-        			keyValueList.add(kv);
-        		}
-        	}
+        ColumnPlan[] columns = Tables.getColumns(table.getClass());
+        ArrayList<KeyValue> keyValueList = new ArrayList<KeyValue>(columns.length);
+
+        for (ColumnPlan column : columns) {
+            Object value = SQLBuilder.getFieldValue(table, column.getField());
+            value = value == null ? column.getDefaultValue() : value;
+            keyValueList.add(new KeyValue(column.getName(), value));
         }
         return keyValueList;
     }
     
-    private static String buildWhere(String where, String[] whereArgs){
-		if(whereArgs != null && whereArgs.length > 0){
-			List<String> args = Arrays.asList(whereArgs);
-			for(String arg : args){
-				int index = where.indexOf("?");
-				if(index > 0){
-					String convertedArg = SQL.convert2DBValue(arg).toString();
-					where = where.replaceFirst("\\?", convertedArg);
-				}
-			}
-		}
-		return where;
-	}
+    private static void appendWhere(StringBuilder buffer, SQL sql, String where, String[] whereArgs) {
+        if (where != null && where.length() > 0) {
+            buffer.append(" WHERE ").append(where);
+            if (whereArgs != null) {
+                for (String arg : whereArgs) {
+                    sql.addBindArg(arg);
+                }
+            }
+        }
+    }
     
 }
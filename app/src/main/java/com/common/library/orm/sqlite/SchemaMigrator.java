@@ -0,0 +1,302 @@
+package com.common.library.orm.sqlite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Migrate schema of existing tables to the one declared by table class
+ * annotations, so data can be kept across upgrades.
+ * <p>
+ * Live columns are read by "PRAGMA table_info", "PRAGMA index_list" and
+ * "PRAGMA foreign_key_list", and compared with column plans by type, not null,
+ * primary key, default value, unique constraint and referenced table:
+ * <ul>
+ * <li>only new columns which can be added: "ALTER TABLE ... ADD COLUMN"</li>
+ * <li>columns removed, type or constraint changed: a new table is created and
+ * data of common columns is copied into it, then it replaces the old one.
+ * NULL values of columns which became not null are replaced by their default
+ * value, if there is no default value, or values of a column which became
+ * unique are duplicated, an {@link SQLiteException} is thrown before
+ * anything is changed.</li>
+ * <li>no column changed, e.g. only order of columns differs: nothing but the
+ * recorded creation SQL is updated.</li>
+ * </ul>
+ * The creation SQL of every migrated table is recorded in
+ * {@link #MIGRATIONS_TABLE}, a table whose schema was not changed since last
+ * migration is skipped without reading its schema.
+ *
+ */
+final class SchemaMigrator {
+	private static final String TAG = "SchemaMigrator";
+
+	static final String MIGRATIONS_TABLE = "_schema_migrations";
+	private static final String COLUMN_TABLE_NAME = "table_name";
+	private static final String COLUMN_CREATE_SQL = "create_sql";
+	private static final String COLUMN_MIGRATED_AT = "migrated_at";
+
+	private static final String TEMP_TABLE_SUFFIX = "_migration";
+
+	private final SQLiteDatabase db;
+
+	SchemaMigrator(SQLiteDatabase db) {
+		this.db = db;
+		db.execSQL("CREATE TABLE IF NOT EXISTS " + MIGRATIONS_TABLE + " (" + COLUMN_TABLE_NAME
+				+ " TEXT PRIMARY KEY, " + COLUMN_CREATE_SQL + " TEXT NOT NULL, " + COLUMN_MIGRATED_AT
+				+ " INTEGER NOT NULL)");
+	}
+
+	/**
+	 * Migrate all table classes within one transaction.
+	 * 
+	 * @param tableClasses
+	 */
+	void migrate(List<Class<? extends BaseTable>> tableClasses) {
+		db.beginTransaction();
+		try {
+			for (Class<? extends BaseTable> tableClass : tableClasses) {
+				migrate(tableClass);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private void migrate(Class<? extends BaseTable> tableClass) {
+		String tableName = Tables.getTableName(tableClass);
+		String createSQL = SQLBuilder.buildTableCreateSQL(tableClass).getSql();
+		String recordedSQL = getRecordedSchema(tableName);
+		if (createSQL.equals(recordedSQL)) {
+			return;
+		}
+
+		Map<String, LiveColumn> liveColumns = readLiveColumns(tableName);
+		if (liveColumns.isEmpty()) {
+			// table was added in this version
+			db.execSQL(createSQL);
+		} else {
+			ColumnPlan[] columns = Tables.getColumns(tableClass);
+			List<ColumnPlan> addedColumns = new ArrayList<ColumnPlan>();
+			Map<ColumnPlan, LiveColumn> commonColumns = new HashMap<ColumnPlan, LiveColumn>();
+			boolean needCopy = false;
+			for (ColumnPlan column : columns) {
+				LiveColumn liveColumn = liveColumns.remove(column.getName());
+				if (liveColumn == null) {
+					addedColumns.add(column);
+					needCopy |= !canAddColumn(column);
+				} else {
+					commonColumns.put(column, liveColumn);
+					needCopy |= !liveColumn.matches(column);
+				}
+			}
+			// live columns left were removed from table class
+			needCopy |= !liveColumns.isEmpty();
+
+			if (needCopy) {
+				copyTable(tableClass, tableName, columns, addedColumns, commonColumns);
+			} else {
+				for (ColumnPlan column : addedColumns) {
+					StringBuilder buffer = new StringBuilder("ALTER TABLE ").append(tableName).append(" ADD COLUMN ");
+					SQLBuilder.appendColumnDefinition(buffer, column);
+					db.execSQL(buffer.toString());
+				}
+			}
+			Log.i(TAG, "table " + tableName + " migrated" + (needCopy ? " by copy" : ""));
+		}
+		recordSchema(tableName, createSQL);
+	}
+
+	/**
+	 * Record current schema of table, should be called after table is
+	 * created or migrated.
+	 */
+	void recordSchema(String tableName, String createSQL) {
+		db.execSQL("INSERT OR REPLACE INTO " + MIGRATIONS_TABLE + " (" + COLUMN_TABLE_NAME + ", "
+				+ COLUMN_CREATE_SQL + ", " + COLUMN_MIGRATED_AT + ") VALUES (?, ?, ?)", new Object[] { tableName,
+				createSQL, System.currentTimeMillis() });
+	}
+
+	private String getRecordedSchema(String tableName) {
+		Cursor c = db.query(MIGRATIONS_TABLE, new String[] { COLUMN_CREATE_SQL }, COLUMN_TABLE_NAME + "=?",
+				new String[] { tableName }, null, null, null);
+		try {
+			return c.moveToFirst() ? c.getString(0) : null;
+		} finally {
+			c.close();
+		}
+	}
+
+	private Map<String, LiveColumn> readLiveColumns(String tableName) {
+		Map<String, LiveColumn> columns = new HashMap<String, LiveColumn>();
+		Cursor c = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+		try {
+			if (c.getCount() == 0) {
+				return columns;
+			}
+			Set<String> uniqueColumns = readUniqueColumns(tableName);
+			Map<String, String> foreignTables = readForeignTables(tableName);
+			int nameIndex = c.getColumnIndex("name");
+			int typeIndex = c.getColumnIndex("type");
+			int notNullIndex = c.getColumnIndex("notnull");
+			int defaultIndex = c.getColumnIndex("dflt_value");
+			int pkIndex = c.getColumnIndex("pk");
+			while (c.moveToNext()) {
+				String name = c.getString(nameIndex);
+				columns.put(name, new LiveColumn(c.getString(typeIndex), c.getInt(notNullIndex) != 0,
+						c.getInt(pkIndex) != 0, c.getString(defaultIndex), uniqueColumns.contains(name),
+						foreignTables.get(name)));
+			}
+		} finally {
+			c.close();
+		}
+		return columns;
+	}
+
+	// referenced table of columns declared with REFERENCES, keyed by column name
+	private Map<String, String> readForeignTables(String tableName) {
+		Map<String, String> foreignTables = new HashMap<String, String>();
+		Cursor c = db.rawQuery("PRAGMA foreign_key_list(" + tableName + ")", null);
+		try {
+			int tableIndex = c.getColumnIndex("table");
+			int fromIndex = c.getColumnIndex("from");
+			while (c.moveToNext()) {
+				foreignTables.put(c.getString(fromIndex), c.getString(tableIndex));
+			}
+		} finally {
+			c.close();
+		}
+		return foreignTables;
+	}
+
+	// columns declared with UNIQUE constraint, which SQLite backs by indexes named "sqlite_autoindex_*"
+	private Set<String> readUniqueColumns(String tableName) {
+		Set<String> columns = new HashSet<String>();
+		List<String> indexes = new ArrayList<String>();
+		Cursor c = db.rawQuery("PRAGMA index_list(" + tableName + ")", null);
+		try {
+			int nameIndex = c.getColumnIndex("name");
+			int uniqueIndex = c.getColumnIndex("unique");
+			while (c.moveToNext()) {
+				String name = c.getString(nameIndex);
+				if (c.getInt(uniqueIndex) != 0 && name.startsWith("sqlite_autoindex_")) {
+					indexes.add(name);
+				}
+			}
+		} finally {
+			c.close();
+		}
+
+		for (String index : indexes) {
+			c = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+			try {
+				if (c.getCount() == 1 && c.moveToFirst()) {
+					columns.add(c.getString(c.getColumnIndex("name")));
+				}
+			} finally {
+				c.close();
+			}
+		}
+		return columns;
+	}
+
+	// ALTER TABLE cannot add primary key or unique column, or not null column without default value
+	private static boolean canAddColumn(ColumnPlan column) {
+		return !column.isId() && !column.isUnique() && (!column.isNotNull() || column.hasDefaultValue());
+	}
+
+	private void copyTable(Class<? extends BaseTable> tableClass, String tableName, ColumnPlan[] columns,
+			List<ColumnPlan> addedColumns, Map<ColumnPlan, LiveColumn> commonColumns) {
+		for (ColumnPlan column : addedColumns) {
+			if (column.isNotNull() && !column.hasDefaultValue()) {
+				throw new SQLiteException("Cannot migrate table \"" + tableName + "\", new not null column \""
+						+ column.getName() + "\" must have a default value");
+			}
+		}
+
+		List<String> columnNames = new ArrayList<String>();
+		List<String> selections = new ArrayList<String>();
+		for (ColumnPlan column : columns) {
+			LiveColumn liveColumn = commonColumns.get(column);
+			if (liveColumn == null) {
+				continue;
+			}
+			String name = column.getName();
+			columnNames.add(name);
+			if (column.isNotNull() && !liveColumn.notNull) {
+				if (column.hasDefaultValue()) {
+					// existing NULL values would fail the copy
+					selections.add("COALESCE(" + name + ", " + DatabaseUtils.sqlEscapeString(column.getDefaultValue())
+							+ ")");
+					continue;
+				}
+				long nullCount = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + tableName + " WHERE "
+						+ name + " IS NULL", null);
+				if (nullCount > 0) {
+					throw new SQLiteException("Cannot migrate table \"" + tableName + "\", column \"" + name
+							+ "\" became not null without a default value but " + nullCount + " rows hold NULL");
+				}
+			}
+			if (column.isUnique() && !liveColumn.unique) {
+				long duplicateCount = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM (SELECT " + name
+						+ " FROM " + tableName + " WHERE " + name + " IS NOT NULL GROUP BY " + name
+						+ " HAVING COUNT(*) > 1)", null);
+				if (duplicateCount > 0) {
+					throw new SQLiteException("Cannot migrate table \"" + tableName + "\", column \"" + name
+							+ "\" became unique but " + duplicateCount + " values are duplicated");
+				}
+			}
+			selections.add(name);
+		}
+
+		String tempTableName = tableName + TEMP_TABLE_SUFFIX;
+		db.execSQL("DROP TABLE IF EXISTS " + tempTableName);
+		db.execSQL(SQLBuilder.buildTableCreateSQL(tableClass, tempTableName).getSql());
+		db.execSQL("INSERT INTO " + tempTableName + " (" + TextUtils.join(", ", columnNames) + ") SELECT "
+				+ TextUtils.join(", ", selections) + " FROM " + tableName);
+		db.execSQL("DROP TABLE " + tableName);
+		db.execSQL("ALTER TABLE " + tempTableName + " RENAME TO " + tableName);
+	}
+
+	private static final class LiveColumn {
+		final String type;
+		final boolean notNull;
+		final boolean primaryKey;
+		// literal of default value as declared, e.g. "'0'", null if none
+		final String defaultValue;
+		final boolean unique;
+		// name of referenced table, null if none
+		final String foreignTable;
+
+		LiveColumn(String type, boolean notNull, boolean primaryKey, String defaultValue, boolean unique,
+				String foreignTable) {
+			this.type = type;
+			this.notNull = notNull;
+			this.primaryKey = primaryKey;
+			this.defaultValue = defaultValue;
+			this.unique = unique;
+			this.foreignTable = foreignTable;
+		}
+
+		boolean matches(ColumnPlan column) {
+			String expectedDefault = column.hasDefaultValue() ? "'" + column.getDefaultValue() + "'" : null;
+			Class<? extends BaseTable> refTableClass = column.getForeignTable();
+			String expectedForeignTable = refTableClass != null ? Tables.getTableName(refTableClass) : null;
+			return type != null && type.equalsIgnoreCase(column.getType()) && notNull == column.isNotNull()
+					&& primaryKey == column.isId() && unique == column.isUnique()
+					&& TextUtils.equals(defaultValue, expectedDefault)
+					&& (foreignTable == null ? expectedForeignTable == null
+							: foreignTable.equalsIgnoreCase(expectedForeignTable));
+		}
+	}
+}
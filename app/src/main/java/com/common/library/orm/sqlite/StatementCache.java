@@ -0,0 +1,140 @@
+package com.common.library.orm.sqlite;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * A size bounded cache of compiled {@link SQLiteStatement}s keyed by SQL
+ * text, so SQL executed again and again is parsed by SQLite only once. The
+ * least recently used statement will be closed when cache is full.
+ * <p>
+ * Statements belong to the database they were compiled with, all of them
+ * will be closed when a different database is passed in.
+ * <p>
+ * A statement returned by {@link #acquire(SQLiteDatabase, String)} is pinned
+ * until it is passed to {@link #release(SQLiteStatement)}, a pinned statement
+ * evicted from cache is closed on its last release. A statement keeps its
+ * bindings, callers must hold the statement's lock from binding to execution
+ * when it may be shared by more than one thread.
+ * <p>
+ * SQL executed only within one call, like SQL of batch jobs, should not be
+ * cached, it would evict the statements which are really reused.
+ *
+ */
+final class StatementCache {
+	private static final int DEFAULT_MAX_SIZE = 32;
+
+	private static final class Entry {
+		final SQLiteStatement statement;
+		int refCount;
+		boolean evicted;
+
+		Entry(SQLiteStatement statement) {
+			this.statement = statement;
+		}
+	}
+
+	private final int maxSize;
+	private final LinkedHashMap<String, Entry> statements;
+	private final IdentityHashMap<SQLiteStatement, Entry> pinned = new IdentityHashMap<SQLiteStatement, Entry>();
+	private SQLiteDatabase database;
+
+	StatementCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	StatementCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.statements = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Get compiled statement of SQL, compile and cache it if not exist. The
+	 * statement is pinned and must be released by
+	 * {@link #release(SQLiteStatement)} after use.
+	 *
+	 * @param db
+	 *            database to compile statement with
+	 * @param sql
+	 * @return compiled statement, bindings of it should be cleared or
+	 *         overwritten by caller.
+	 */
+	public synchronized SQLiteStatement acquire(SQLiteDatabase db, String sql) {
+		if (database != db) {
+			closeAll();
+			database = db;
+		}
+
+		Entry entry = statements.get(sql);
+		if (entry == null) {
+			entry = new Entry(db.compileStatement(sql));
+			statements.put(sql, entry);
+		}
+		entry.refCount++;
+		pinned.put(entry.statement, entry);
+		trimToSize();
+		return entry.statement;
+	}
+
+	/**
+	 * Unpin statement returned by {@link #acquire(SQLiteDatabase, String)}, it
+	 * is closed if it was evicted while in use.
+	 */
+	public synchronized void release(SQLiteStatement statement) {
+		Entry entry = pinned.get(statement);
+		if (entry == null) {
+			return;
+		}
+		if (--entry.refCount == 0) {
+			pinned.remove(statement);
+			if (entry.evicted) {
+				close(entry);
+			}
+		}
+	}
+
+	private void trimToSize() {
+		Iterator<Map.Entry<String, Entry>> iterator = statements.entrySet().iterator();
+		while (statements.size() > maxSize && iterator.hasNext()) {
+			Entry eldest = iterator.next().getValue();
+			iterator.remove();
+			evict(eldest);
+		}
+	}
+
+	private void evict(Entry entry) {
+		if (entry.refCount > 0) {
+			// closed by the last release
+			entry.evicted = true;
+		} else {
+			close(entry);
+		}
+	}
+
+	private static void close(Entry entry) {
+		synchronized (entry.statement) {
+			entry.statement.close();
+		}
+	}
+
+	/**
+	 * Close all cached statements, should be called before database closed.
+	 * Statements still in use are closed when they are released.
+	 */
+	public synchronized void close() {
+		closeAll();
+		database = null;
+	}
+
+	private void closeAll() {
+		for (Entry entry : statements.values()) {
+			evict(entry);
+		}
+		statements.clear();
+	}
+}
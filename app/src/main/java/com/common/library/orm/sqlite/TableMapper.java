@@ -0,0 +1,290 @@
+package com.common.library.orm.sqlite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Compiled row mapper of a table class. Annotations of the table class are
+ * read only once when the mapper is created, then rows are converted with
+ * typed {@link FieldAccessor}s, and column indexes are resolved only once per
+ * {@link Cursor} by {@link #resolveColumns(Cursor)}.
+ *
+ * <pre>
+ * TableMapper mapper = Tables.getMapper(Account.class);
+ * int[] columnIndexes = mapper.resolveColumns(cursor);
+ * while (cursor.moveToNext()) {
+ * 	Account account = new Account();
+ * 	mapper.restore(account, cursor, columnIndexes);
+ * }
+ * </pre>
+ *
+ */
+final class TableMapper {
+	private final String tableName;
+	private final String[] columnNames;
+	private final FieldAccessor[] accessors;
+	private final String[] defaultValues;
+	private final int idColumn;
+	private final boolean customRestore;
+
+	// INSERT SQL without and with the id column, built at the first time used
+	private String insertSQL;
+	private String insertWithIdSQL;
+
+	private TableMapper(String tableName, String[] columnNames, FieldAccessor[] accessors, String[] defaultValues,
+			int idColumn, boolean customRestore) {
+		this.tableName = tableName;
+		this.columnNames = columnNames;
+		this.accessors = accessors;
+		this.defaultValues = defaultValues;
+		this.idColumn = idColumn;
+		this.customRestore = customRestore;
+	}
+
+	/**
+	 * Build mapper of table class with its column plans.
+	 *
+	 * @param tableClass
+	 * @param tableName
+	 * @param columns
+	 *            plans of all fields of table class, @see
+	 *            {@link Tables#getPlannedCache(Class)}
+	 * @return compiled mapper
+	 */
+	static TableMapper compile(Class<? extends BaseTable> tableClass, String tableName, ColumnPlan[] columns) {
+		List<String> columnNames = new ArrayList<String>();
+		List<FieldAccessor> accessors = new ArrayList<FieldAccessor>();
+		List<String> defaultValues = new ArrayList<String>();
+		int idColumn = -1;
+		for (ColumnPlan column : columns) {
+			if (column.isTransient()) {
+				continue;
+			}
+
+			if (BaseTable._ID.equals(column.getName())) {
+				idColumn = columnNames.size();
+			}
+			columnNames.add(column.getName());
+			accessors.add(column.getAccessor());
+			defaultValues.add(column.hasDefaultValue() ? column.getDefaultValue() : null);
+		}
+
+		return new TableMapper(tableName, columnNames.toArray(new String[columnNames.size()]),
+				accessors.toArray(new FieldAccessor[accessors.size()]),
+				defaultValues.toArray(new String[defaultValues.size()]), idColumn, overridesRestore(tableClass));
+	}
+
+	// table class which has its own restore(Cursor) must be restored by itself
+	private static boolean overridesRestore(Class<? extends BaseTable> tableClass) {
+		try {
+			return tableClass.getMethod("restore", Cursor.class).getDeclaringClass() != BaseTable.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	/**
+	 * @param columnName
+	 * @return index of column in {@link #getColumnNames()}, -1 if not exist.
+	 */
+	public int getColumnIndex(String columnName) {
+		for (int i = 0; i < columnNames.length; i++) {
+			if (columnNames[i].equals(columnName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index of primary key column in {@link #getColumnNames()}.
+	 */
+	public int getIdColumn() {
+		return idColumn;
+	}
+
+	/**
+	 * Whether the table class overrides {@link BaseTable#restore(Cursor)}, in
+	 * that case rows should be restored by the table instance itself.
+	 */
+	public boolean hasCustomRestore() {
+		return customRestore;
+	}
+
+	/**
+	 * Resolve column indexes in cursor for all columns of this table, should
+	 * be called once per cursor and the result can be reused for every row.
+	 *
+	 * @param cursor
+	 * @return column indexes, -1 for column which is not in cursor.
+	 */
+	public int[] resolveColumns(Cursor cursor) {
+		int[] columnIndexes = new int[columnNames.length];
+		for (int i = 0; i < columnNames.length; i++) {
+			columnIndexes[i] = cursor.getColumnIndex(columnNames[i]);
+		}
+		return columnIndexes;
+	}
+
+	/**
+	 * Read current row of cursor into table object.
+	 *
+	 * @param target
+	 *            table object to restore
+	 * @param cursor
+	 * @param columnIndexes
+	 *            resolved by {@link #resolveColumns(Cursor)}
+	 */
+	public void restore(BaseTable target, Cursor cursor, int[] columnIndexes) {
+		for (int i = 0; i < accessors.length; i++) {
+			int columnIndex = columnIndexes[i];
+			if (columnIndex < 0) {
+				continue;
+			}
+
+			FieldAccessor accessor = accessors[i];
+			try {
+				accessor.read(target, cursor, columnIndex);
+			} catch (IllegalAccessException e) {
+				throw new SQLiteException("IllegalAccessException:" + e.getMessage());
+			} catch (IllegalArgumentException e) {
+				throw new SQLiteException("cursor value cannot be converted to field's value for field \""
+						+ accessor.getField().getName() + "\" in table \"" + tableName + "\"");
+			}
+		}
+	}
+
+	/**
+	 * Write table object into a ContentValues container.
+	 *
+	 * @param target
+	 * @return ContentValues of all not null columns
+	 */
+	public ContentValues toContentValues(BaseTable target) {
+		ContentValues values = new ContentValues(accessors.length);
+		for (int i = 0; i < accessors.length; i++) {
+			// record which not saved into database yet, its id should not be put into content values,
+			// since its id will be generated automatically by auto increment
+			if (i == idColumn && target.id == BaseTable.NOT_SAVED) {
+				continue;
+			}
+
+			try {
+				accessors[i].write(target, values, columnNames[i]);
+			} catch (IllegalAccessException e) {
+				throw new SQLiteException("IllegalAccessException:" + e.getMessage());
+			} catch (IllegalArgumentException e) {
+				throw new SQLiteException("IllegalArgumentException:" + e.getMessage());
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Get INSERT SQL with placeholders of all columns, the SQL text is built
+	 * only once so it can be used as key of {@link StatementCache}.
+	 *
+	 * @param withId
+	 *            whether the id column is included, record which was not saved
+	 *            before should not include its id.
+	 * @return INSERT SQL text
+	 */
+	public String getInsertSQL(boolean withId) {
+		if (withId) {
+			if (insertWithIdSQL == null) {
+				insertWithIdSQL = buildInsertSQL(true);
+			}
+			return insertWithIdSQL;
+		} else {
+			if (insertSQL == null) {
+				insertSQL = buildInsertSQL(false);
+			}
+			return insertSQL;
+		}
+	}
+
+	private String buildInsertSQL(boolean withId) {
+		StringBuilder columns = new StringBuilder();
+		StringBuilder placeholders = new StringBuilder();
+		for (int i = 0; i < columnNames.length; i++) {
+			if (i == idColumn && !withId) {
+				continue;
+			}
+
+			if (columns.length() > 0) {
+				columns.append(",");
+				placeholders.append(",");
+			}
+			columns.append(columnNames[i]);
+			placeholders.append("?");
+		}
+		return "INSERT INTO " + tableName + " (" + columns + ") VALUES (" + placeholders + ")";
+	}
+
+	/**
+	 * Bind all column values of table object to statement compiled from
+	 * {@link #getInsertSQL(boolean)}, null value will be bound as the default
+	 * value of column if it has one.
+	 *
+	 * @param target
+	 * @param statement
+	 * @param withId
+	 *            must be the same as the one used to get INSERT SQL.
+	 */
+	public void bindInsert(BaseTable target, SQLiteStatement statement, boolean withId) {
+		statement.clearBindings();
+		int index = 1;
+		for (int i = 0; i < accessors.length; i++) {
+			if (i == idColumn && !withId) {
+				continue;
+			}
+
+			try {
+				if (!accessors[i].bind(target, statement, index) && defaultValues[i] != null) {
+					statement.bindString(index, defaultValues[i]);
+				}
+			} catch (IllegalAccessException e) {
+				throw new SQLiteException("IllegalAccessException:" + e.getMessage());
+			} catch (IllegalArgumentException e) {
+				throw new SQLiteException("IllegalArgumentException:" + e.getMessage());
+			}
+			index++;
+		}
+	}
+
+	/**
+	 * Bind value of one column of table object to statement, null value is
+	 * bound as NULL.
+	 *
+	 * @param target
+	 * @param statement
+	 * @param index
+	 *            1-based index of placeholder
+	 * @param column
+	 *            index of column in {@link #getColumnNames()}
+	 */
+	public void bindColumn(BaseTable target, SQLiteStatement statement, int index, int column) {
+		try {
+			if (!accessors[column].bind(target, statement, index)) {
+				statement.bindNull(index);
+			}
+		} catch (IllegalAccessException e) {
+			throw new SQLiteException("IllegalAccessException:" + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			throw new SQLiteException("IllegalArgumentException:" + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.common.library.orm.sqlite;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.common.library.orm.sqlite.DbUtils.OnTableChangedListener;
+
+/**
+ * Registry of {@link OnTableChangedListener}s of one database, each listener
+ * observes a set of table classes and is notified only when one of them was
+ * changed by {@link DbUtils}.
+ *
+ */
+final class TableObservable {
+	private final CopyOnWriteArrayList<Observer> observers = new CopyOnWriteArrayList<Observer>();
+
+	void register(OnTableChangedListener listener, Collection<Class<? extends BaseTable>> tableClasses) {
+		observers.add(new Observer(listener, new HashSet<Class<? extends BaseTable>>(tableClasses)));
+	}
+
+	void unregister(OnTableChangedListener listener) {
+		for (Observer observer : observers) {
+			if (observer.listener == listener) {
+				observers.remove(observer);
+			}
+		}
+	}
+
+	/**
+	 * Notify listeners observing any of changed tables, in current thread.
+	 */
+	void notifyChanged(Collection<Class<? extends BaseTable>> changedTables) {
+		if (observers.isEmpty() || changedTables.isEmpty()) {
+			return;
+		}
+
+		for (Observer observer : observers) {
+			Set<Class<? extends BaseTable>> changed = null;
+			for (Class<? extends BaseTable> tableClass : changedTables) {
+				if (observer.tableClasses.contains(tableClass)) {
+					if (changed == null) {
+						changed = new HashSet<Class<? extends BaseTable>>();
+					}
+					changed.add(tableClass);
+				}
+			}
+
+			if (changed != null) {
+				observer.listener.onTableChanged(changed);
+			}
+		}
+	}
+
+	private static final class Observer {
+		final OnTableChangedListener listener;
+		final Set<Class<? extends BaseTable>> tableClasses;
+
+		Observer(OnTableChangedListener listener, Set<Class<? extends BaseTable>> tableClasses) {
+			this.listener = listener;
+			this.tableClasses = tableClasses;
+		}
+	}
+}
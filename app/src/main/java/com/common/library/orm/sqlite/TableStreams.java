@@ -0,0 +1,422 @@
+package com.common.library.orm.sqlite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.util.Base64;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Row codecs used by {@link DbUtils#exportTable(Class, OutputStream, int)}
+ * and {@link DbUtils#importTable(Class, InputStream, int)}, rows are written
+ * and read one by one so memory does not grow with table size.
+ * <p>
+ * Binary format: magic, table name, column names, then each row is a
+ * {@link #ROW} marker followed by one typed value per column, and the stream
+ * ends with {@link #END}. Integers and lengths are written as variable length
+ * integers.
+ * <p>
+ * JSON lines format: the first line is
+ * <code>{"table":"account","columns":["_id","name"]}</code>, then one JSON
+ * array per row. Blob values are written as <code>{"blob":"base64"}</code>.
+ *
+ */
+final class TableStreams {
+	private static final String CHARSET = "UTF-8";
+	private static final int MAGIC = 0x4F524D31; // "ORM1"
+
+	private static final int ROW = 1;
+	private static final int END = 0;
+
+	private static final int TYPE_NULL = 0;
+	private static final int TYPE_INTEGER = 1;
+	private static final int TYPE_FLOAT = 2;
+	private static final int TYPE_STRING = 3;
+	private static final int TYPE_BLOB = 4;
+
+	private static final String JSON_TABLE = "table";
+	private static final String JSON_COLUMNS = "columns";
+	private static final String JSON_BLOB = "blob";
+
+	private TableStreams() {
+	}
+
+	/**
+	 * Writer of rows, {@link #writeHeader(String, String[])} must be called
+	 * before rows are written, and {@link #finish()} after all rows.
+	 */
+	interface RowWriter {
+		void writeHeader(String tableName, String[] columns) throws IOException;
+
+		/**
+		 * Write current row of cursor, columns of cursor must be the same as
+		 * the header.
+		 */
+		void writeRow(Cursor cursor) throws IOException;
+
+		/**
+		 * Write end of stream and flush, the output stream is not closed.
+		 */
+		void finish() throws IOException;
+	}
+
+	interface RowReader {
+		/**
+		 * @return column names of rows
+		 */
+		String[] readHeader() throws IOException;
+
+		/**
+		 * Read next row into values.
+		 * 
+		 * @param values
+		 *            array with length of column count, values are Long,
+		 *            Double, String, byte[] or null.
+		 * @return false if there is no more row.
+		 */
+		boolean readRow(Object[] values) throws IOException;
+	}
+
+	static RowWriter newWriter(int format, OutputStream out) throws IOException {
+		switch (format) {
+		case DbUtils.FORMAT_BINARY:
+			return new BinaryWriter(out);
+		case DbUtils.FORMAT_JSON_LINES:
+			return new JsonLinesWriter(out);
+		default:
+			throw new IllegalArgumentException("Unknown format: " + format);
+		}
+	}
+
+	static RowReader newReader(int format, InputStream in) throws IOException {
+		switch (format) {
+		case DbUtils.FORMAT_BINARY:
+			return new BinaryReader(in);
+		case DbUtils.FORMAT_JSON_LINES:
+			return new JsonLinesReader(in);
+		default:
+			throw new IllegalArgumentException("Unknown format: " + format);
+		}
+	}
+
+	private static final class BinaryWriter implements RowWriter {
+		private final DataOutputStream out;
+
+		BinaryWriter(OutputStream out) {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+		}
+
+		@Override
+		public void writeHeader(String tableName, String[] columns) throws IOException {
+			out.writeInt(MAGIC);
+			writeString(tableName);
+			writeVarLong(columns.length);
+			for (String column : columns) {
+				writeString(column);
+			}
+		}
+
+		@Override
+		public void writeRow(Cursor cursor) throws IOException {
+			out.writeByte(ROW);
+			int columnCount = cursor.getColumnCount();
+			for (int i = 0; i < columnCount; i++) {
+				switch (cursor.getType(i)) {
+				case Cursor.FIELD_TYPE_NULL:
+					out.writeByte(TYPE_NULL);
+					break;
+				case Cursor.FIELD_TYPE_INTEGER:
+					out.writeByte(TYPE_INTEGER);
+					long value = cursor.getLong(i);
+					// zigzag encoding so small negative numbers are short too
+					writeVarLong((value << 1) ^ (value >> 63));
+					break;
+				case Cursor.FIELD_TYPE_FLOAT:
+					out.writeByte(TYPE_FLOAT);
+					out.writeDouble(cursor.getDouble(i));
+					break;
+				case Cursor.FIELD_TYPE_BLOB:
+					out.writeByte(TYPE_BLOB);
+					writeBytes(cursor.getBlob(i));
+					break;
+				default:
+					out.writeByte(TYPE_STRING);
+					writeString(cursor.getString(i));
+					break;
+				}
+			}
+		}
+
+		@Override
+		public void finish() throws IOException {
+			out.writeByte(END);
+			out.flush();
+		}
+
+		private void writeString(String value) throws IOException {
+			writeBytes(value.getBytes(CHARSET));
+		}
+
+		private void writeBytes(byte[] value) throws IOException {
+			writeVarLong(value.length);
+			out.write(value);
+		}
+
+		private void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				out.writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.writeByte((int) value);
+		}
+	}
+
+	private static final class BinaryReader implements RowReader {
+		private final DataInputStream in;
+		private int columnCount;
+
+		BinaryReader(InputStream in) {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+		}
+
+		@Override
+		public String[] readHeader() throws IOException {
+			if (in.readInt() != MAGIC) {
+				throw new SQLiteException("Not a table stream of binary format");
+			}
+			readString(); // table name, rows are imported into the given table class
+			columnCount = (int) readVarLong();
+			String[] columns = new String[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				columns[i] = readString();
+			}
+			return columns;
+		}
+
+		@Override
+		public boolean readRow(Object[] values) throws IOException {
+			int marker = in.readByte();
+			if (marker == END) {
+				return false;
+			} else if (marker != ROW) {
+				throw new SQLiteException("Corrupted table stream, unexpected marker " + marker);
+			}
+
+			for (int i = 0; i < columnCount; i++) {
+				int type = in.readByte();
+				switch (type) {
+				case TYPE_NULL:
+					values[i] = null;
+					break;
+				case TYPE_INTEGER:
+					long value = readVarLong();
+					values[i] = (value >>> 1) ^ -(value & 1);
+					break;
+				case TYPE_FLOAT:
+					values[i] = in.readDouble();
+					break;
+				case TYPE_STRING:
+					values[i] = readString();
+					break;
+				case TYPE_BLOB:
+					values[i] = readBytes();
+					break;
+				default:
+					throw new SQLiteException("Corrupted table stream, unknown value type " + type);
+				}
+			}
+			return true;
+		}
+
+		private String readString() throws IOException {
+			return new String(readBytes(), CHARSET);
+		}
+
+		private byte[] readBytes() throws IOException {
+			byte[] value = new byte[(int) readVarLong()];
+			in.readFully(value);
+			return value;
+		}
+
+		private long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = in.readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new SQLiteException("Corrupted table stream, variable length integer is too long");
+		}
+	}
+
+	private static final class JsonLinesWriter implements RowWriter {
+		private final Writer out;
+		private final JsonWriter writer;
+
+		JsonLinesWriter(OutputStream out) throws IOException {
+			this.out = new BufferedWriter(new OutputStreamWriter(out, CHARSET));
+			this.writer = new JsonWriter(this.out);
+			// allow more than one top level value
+			writer.setLenient(true);
+		}
+
+		@Override
+		public void writeHeader(String tableName, String[] columns) throws IOException {
+			writer.beginObject();
+			writer.name(JSON_TABLE).value(tableName);
+			writer.name(JSON_COLUMNS).beginArray();
+			for (String column : columns) {
+				writer.value(column);
+			}
+			writer.endArray();
+			writer.endObject();
+			newLine();
+		}
+
+		@Override
+		public void writeRow(Cursor cursor) throws IOException {
+			writer.beginArray();
+			int columnCount = cursor.getColumnCount();
+			for (int i = 0; i < columnCount; i++) {
+				switch (cursor.getType(i)) {
+				case Cursor.FIELD_TYPE_NULL:
+					writer.nullValue();
+					break;
+				case Cursor.FIELD_TYPE_INTEGER:
+					writer.value(cursor.getLong(i));
+					break;
+				case Cursor.FIELD_TYPE_FLOAT:
+					writer.value(cursor.getDouble(i));
+					break;
+				case Cursor.FIELD_TYPE_BLOB:
+					writer.beginObject();
+					writer.name(JSON_BLOB).value(Base64.encodeToString(cursor.getBlob(i), Base64.NO_WRAP));
+					writer.endObject();
+					break;
+				default:
+					writer.value(cursor.getString(i));
+					break;
+				}
+			}
+			writer.endArray();
+			newLine();
+		}
+
+		private void newLine() throws IOException {
+			writer.flush();
+			out.write('\n');
+		}
+
+		@Override
+		public void finish() throws IOException {
+			writer.flush();
+			out.flush();
+		}
+	}
+
+	private static final class JsonLinesReader implements RowReader {
+		private final JsonReader reader;
+
+		JsonLinesReader(InputStream in) throws IOException {
+			reader = new JsonReader(new BufferedReader(new InputStreamReader(in, CHARSET)));
+			reader.setLenient(true);
+		}
+
+		@Override
+		public String[] readHeader() throws IOException {
+			List<String> columns = new ArrayList<String>();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (JSON_COLUMNS.equals(reader.nextName())) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						columns.add(reader.nextString());
+					}
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (columns.isEmpty()) {
+				throw new SQLiteException("Table stream has no columns");
+			}
+			return columns.toArray(new String[columns.size()]);
+		}
+
+		@Override
+		public boolean readRow(Object[] values) throws IOException {
+			if (reader.peek() == JsonToken.END_DOCUMENT) {
+				return false;
+			}
+
+			reader.beginArray();
+			for (int i = 0; i < values.length; i++) {
+				switch (reader.peek()) {
+				case NULL:
+					reader.nextNull();
+					values[i] = null;
+					break;
+				case NUMBER:
+					values[i] = parseNumber(reader.nextString());
+					break;
+				case BOOLEAN:
+					values[i] = String.valueOf(reader.nextBoolean());
+					break;
+				case BEGIN_OBJECT:
+					values[i] = readBlob();
+					break;
+				default:
+					values[i] = reader.nextString();
+					break;
+				}
+			}
+			reader.endArray();
+			return true;
+		}
+
+		private byte[] readBlob() throws IOException {
+			byte[] blob = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (JSON_BLOB.equals(reader.nextName())) {
+					blob = Base64.decode(reader.nextString(), Base64.NO_WRAP);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return blob;
+		}
+
+		private static Object parseNumber(String number) {
+			if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+				try {
+					return Long.valueOf(number);
+				} catch (NumberFormatException e) {
+					// out of range of long, keep as double
+				}
+			}
+			return Double.valueOf(number);
+		}
+	}
+}
@@ -4,6 +4,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -12,7 +14,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import android.database.sqlite.SQLiteException;
 import android.text.TextUtils;
 
-import com.common.library.orm.annotation.DefaultOrderBy;
 import com.common.library.orm.annotation.Table;
 
 /**
@@ -23,19 +24,47 @@ import com.common.library.orm.annotation.Table;
  * 
  */
 final class Tables {
-	private Map<Class<? extends BaseTable>, TableCache> tableCaches =
+	private final ConcurrentHashMap<Class<? extends BaseTable>, TableCache> tableCaches =
 		new ConcurrentHashMap<Class<? extends BaseTable>, TableCache>();
 
-	private static Tables singleton = null;
+	private static volatile Tables singleton = null;
 	private static final Object lockObj = new Object();
 
 	/**
 	 * The table cache content.
 	 */
 	public static final class TableCache {
-		private String tableName;
-		private Field[] fields;
-		private String orderBy;
+		private volatile String tableName;
+		private volatile Field[] fields;
+		private volatile String orderBy;
+		private volatile boolean cacheable;
+		private volatile Plan plan;
+
+		/**
+		 * Column plans and the mapper compiled from them, it is immutable and
+		 * published at once, so other threads never see a half built plan.
+		 */
+		private static final class Plan {
+			final ColumnPlan[] columns;
+			final ColumnPlan[] persistentColumns;
+			final Map<String, ColumnPlan> columnsByName;
+			final TableMapper mapper;
+
+			Plan(ColumnPlan[] columns, TableMapper mapper) {
+				List<ColumnPlan> persistent = new ArrayList<ColumnPlan>();
+				Map<String, ColumnPlan> byName = new HashMap<String, ColumnPlan>();
+				for (ColumnPlan column : columns) {
+					if (!column.isTransient()) {
+						persistent.add(column);
+						byName.put(column.getName(), column);
+					}
+				}
+				this.columns = columns;
+				this.persistentColumns = persistent.toArray(new ColumnPlan[persistent.size()]);
+				this.columnsByName = Collections.unmodifiableMap(byName);
+				this.mapper = mapper;
+			}
+		}
 
 		public String getTableName() {
 			return tableName;
@@ -49,8 +78,18 @@ final class Tables {
 			return fields;
 		}
 
-		public void setFields(Field[] fields) {
+		public synchronized void setFields(Field[] fields) {
 			this.fields = fields;
+			// column plans must be built again with new fields
+			this.plan = null;
+		}
+
+		public boolean isCacheable() {
+			return cacheable;
+		}
+
+		public void setCacheable(boolean cacheable) {
+			this.cacheable = cacheable;
 		}
 
 		public String getOrderBy() {
@@ -61,6 +100,60 @@ final class Tables {
 			this.orderBy = orderBy;
 		}
 
+		boolean isPlanned() {
+			return plan != null;
+		}
+
+		/**
+		 * @return plans of all fields, including transient fields.
+		 */
+		public ColumnPlan[] getColumns() {
+			Plan current = plan;
+			return current == null ? null : current.columns;
+		}
+
+		/**
+		 * @return plans of fields which are saved as table columns.
+		 */
+		public ColumnPlan[] getPersistentColumns() {
+			Plan current = plan;
+			return current == null ? null : current.persistentColumns;
+		}
+
+		public ColumnPlan getColumn(String columnName) {
+			Plan current = plan;
+			return current == null ? null : current.columnsByName.get(columnName);
+		}
+
+		public TableMapper getMapper() {
+			Plan current = plan;
+			return current == null ? null : current.mapper;
+		}
+
+		/**
+		 * Save column plans and the mapper compiled from them together, so
+		 * they are always consistent with each other.
+		 */
+		public synchronized void setColumns(ColumnPlan[] columns, TableMapper mapper) {
+			this.plan = new Plan(columns, mapper);
+		}
+
+	}
+
+	/**
+	 * @return cache content of table class, it is created if not exist.
+	 */
+	private static TableCache getOrCreate(Class<? extends BaseTable> tableClass) {
+		ConcurrentHashMap<Class<? extends BaseTable>, TableCache> caches = getSingleton().tableCaches;
+		TableCache content = caches.get(tableClass);
+		if (content == null) {
+			TableCache created = new TableCache();
+			content = caches.putIfAbsent(tableClass, created);
+			if (content == null) {
+				content = created;
+			}
+		}
+		return content;
 	}
 
 	private Tables() {
@@ -70,7 +163,9 @@ final class Tables {
 	private static Tables getSingleton() {
 		if (singleton == null) {
 			synchronized (lockObj) {
-				singleton = new Tables();
+				if (singleton == null) {
+					singleton = new Tables();
+				}
 			}
 		}
 		return singleton;
@@ -99,15 +194,7 @@ final class Tables {
 	 */
 	public static void putFields(Class<? extends BaseTable> tableClass,
 			Field[] fields) {
-		Tables mappingCache = getSingleton();
-		TableCache content = mappingCache.tableCaches.get(tableClass);
-		if (content == null) {
-			content = new TableCache();
-			content.setFields(fields);
-			mappingCache.tableCaches.put(tableClass, content);
-		} else {
-			content.setFields(fields);
-		}
+		getOrCreate(tableClass).setFields(fields);
 	}
 
 	/**
@@ -155,14 +242,7 @@ final class Tables {
 			fields = totalFields.toArray(new Field[totalFields.size()]);
 
 			// save into cache
-			TableCache content = getSingleton().tableCaches.get(tableClass);
-			if (content == null) {
-				content = new TableCache();
-				content.setFields(fields);
-				getSingleton().tableCaches.put(tableClass, content);
-			} else {
-				content.setFields(fields);
-			}
+			getOrCreate(tableClass).setFields(fields);
 		}
 		return fields;
 	}
@@ -185,27 +265,16 @@ final class Tables {
 					+ tableClass.getSimpleName() + "]");
 		}
 
-		TableCache cachedObject = getSingleton().tableCaches.get(tableClass);
-
-		// save mapping if not saved before
-		if (cachedObject == null) {
-			cachedObject = new TableCache();
-			cachedObject.setTableName(table.name());
-			getSingleton().tableCaches.put(tableClass, cachedObject);
-		} /*
-		 * else { cachedObject.setTableName(table.name()); }
-		 */
+		// the entry may have been created by getPlannedCache() before, so the
+		// annotation is always applied
+		TableCache cachedObject = getOrCreate(tableClass);
+		cachedObject.setTableName(table.name());
+		cachedObject.setCacheable(table.cacheable());
 
 		// cache default order by for tables
-		Field[] fields = Tables.getAndSaveFields(tableClass);
-		String orderByStr = null;
-
-		for (Field field : fields) {
-			DefaultOrderBy orderBy = field.getAnnotation(DefaultOrderBy.class);
-			if (orderBy != null) {
-				String columnName = SQLBuilder.getColumnName(field);
-				orderByStr = columnName + " " + orderBy.sortType();
-				Tables.saveDefaultOrderBy(tableClass, orderByStr);
+		for (ColumnPlan column : getColumns(tableClass)) {
+			if (column.getSortType() != null) {
+				Tables.saveDefaultOrderBy(tableClass, column.getName() + " " + column.getSortType());
 				break;
 			}
 		}
@@ -229,6 +298,91 @@ final class Tables {
 		return content.getTableName();
 	}
 
+	/**
+	 * Get cached table content of table class, column plans and row mapper
+	 * will be built and cached at the first time.
+	 * 
+	 * @param tableClass
+	 * @return table cache content with column plans
+	 */
+	public static TableCache getPlannedCache(Class<? extends BaseTable> tableClass) {
+		TableCache content = getOrCreate(tableClass);
+		if (!content.isPlanned()) {
+			synchronized (content) {
+				if (!content.isPlanned()) {
+					Field[] fields = getAndSaveFields(tableClass);
+					Table table = tableClass.getAnnotation(Table.class);
+					String tableName = table == null ? tableClass.getSimpleName() : table.name();
+
+					ColumnPlan[] columns = new ColumnPlan[fields.length];
+					for (int i = 0; i < fields.length; i++) {
+						columns[i] = ColumnPlan.create(fields[i], tableName);
+					}
+					content.setColumns(columns, TableMapper.compile(tableClass, tableName, columns));
+				}
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * Get plans of columns which are saved into table.
+	 * 
+	 * @param tableClass
+	 * @return column plans without transient fields
+	 */
+	public static ColumnPlan[] getColumns(Class<? extends BaseTable> tableClass) {
+		return getPlannedCache(tableClass).getPersistentColumns();
+	}
+
+	/**
+	 * Get plan of column by column name.
+	 * 
+	 * @param tableClass
+	 * @param columnName
+	 * @return column plan, null if table has no such column
+	 */
+	public static ColumnPlan getColumn(Class<? extends BaseTable> tableClass, String columnName) {
+		return getPlannedCache(tableClass).getColumn(columnName);
+	}
+
+	/**
+	 * Whether records of table can be kept in entity cache, see
+	 * {@link Table#cacheable()}.
+	 * 
+	 * @param tableClass
+	 * @return true if cacheable.
+	 */
+	public static boolean isCacheable(Class<? extends BaseTable> tableClass) {
+		TableCache content = getSingleton().tableCaches.get(tableClass);
+		return content != null && content.isCacheable();
+	}
+
+	/**
+	 * Get plan of column which has @DefaultOrderBy.
+	 * 
+	 * @param tableClass
+	 * @return column plan, null if no default order by is defined.
+	 */
+	public static ColumnPlan getDefaultOrderByColumn(Class<? extends BaseTable> tableClass) {
+		for (ColumnPlan column : getColumns(tableClass)) {
+			if (column.getSortType() != null) {
+				return column;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get compiled row mapper of table class.
+	 * 
+	 * @param tableClass
+	 * @return row mapper of table class
+	 */
+	public static TableMapper getMapper(Class<? extends BaseTable> tableClass) {
+		return getPlannedCache(tableClass).getMapper();
+	}
+
 	/**
 	 * Get default order by of table.
 	 * 
@@ -246,14 +400,6 @@ final class Tables {
 
 	private static void saveDefaultOrderBy(
 			Class<? extends BaseTable> tableClass, String defaultOrderBy) {
-		Tables mappingCache = getSingleton();
-		TableCache content = mappingCache.tableCaches.get(tableClass);
-		if (content == null) {
-			content = new TableCache();
-			content.setOrderBy(defaultOrderBy);
-			mappingCache.tableCaches.put(tableClass, content);
-		} else {
-			content.setOrderBy(defaultOrderBy);
-		}
+		getOrCreate(tableClass).setOrderBy(defaultOrderBy);
 	}
 }
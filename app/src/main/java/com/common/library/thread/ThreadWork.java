@@ -11,6 +11,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -113,9 +114,10 @@ public abstract class ThreadWork<Params, Progress, Error, Result> {
             }
         }
 
+        // called when task has finished, so it is not cancelled here, that
+        // would turn its result into onCancelled()
         private void remove(ThreadWork<?, ?, ?, ?> task) {
             synchronized (mTasks) {
-            	task.cancel(true);
                 mTasks.remove(task);
             }
         }
@@ -346,19 +348,48 @@ public abstract class ThreadWork<Params, Progress, Error, Result> {
 		return executeInternal(SERIAL_EXECUTOR, cancelPreviewTasks, params);
 	}
 
+	/**
+	 * execute on specified executor, like a dedicated executor for database
+	 * or network jobs.
+	 * 
+	 * @see AsyncTask#executeOnExecutor
+	 */
+    public final ThreadWork<Params, Progress, Error, Result> executeOnExecutor(Executor executor, Params... params) {
+        return executeInternal(executor, false, params);
+    }
+
+	/**
+	 * execute on specified executor but with options to cancel all
+	 * previously created instances of the same class tracked by the same
+	 * {@link Tracker}
+	 * 
+	 * @see AsyncTask#executeOnExecutor
+	 */
+    public final ThreadWork<Params, Progress, Error, Result> executeOnExecutor(Executor executor,
+    		boolean cancelPreviewTasks, Params... params) {
+        return executeInternal(executor, cancelPreviewTasks, params);
+    }
+
     private final ThreadWork<Params, Progress, Error, Result> executeInternal(Executor executor,
     		boolean cancelPrevious, Params... params) {
-        if (cancelPrevious) {
-            if (mTracker == null) {
-                throw new IllegalStateException();
-            } else {
-                mTracker.cancelOthers(this);
+        if (cancelPrevious && mTracker == null) {
+            throw new IllegalStateException();
+        }
+        try {
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD){
+            	mInnerTask.executeOnExecutor(executor, params);
+            }else{
+            	mInnerTask.execute(params);
             }
+        } catch (RejectedExecutionException e) {
+            // not accepted by executor, e.g. its queue is full, it is cancelled
+            // before running so onCancelled() is posted, previous tasks are kept
+            unregisterSelf();
+            cancel(false);
+            return this;
         }
-        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD){
-        	mInnerTask.executeOnExecutor(executor, params);
-        }else{
-        	mInnerTask.execute(params);
+        if (cancelPrevious) {
+            mTracker.cancelOthers(this);
         }
         return this;
     }
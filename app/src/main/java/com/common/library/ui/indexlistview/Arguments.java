@@ -23,6 +23,7 @@ public class Arguments {
     private List<String> currentCity;
     private List<String> historyCity;
     private List<String> hotCity;
+    private boolean fullTextSearch;
 
     public DbUtils getDbUtils() {
         return dbUtils;
@@ -92,4 +93,18 @@ public class Arguments {
     public void setHotCity(List<String> hotCity) {
         this.hotCity = hotCity;
     }
+
+    public boolean isFullTextSearch() {
+        return fullTextSearch;
+    }
+
+    /**
+     * Search table by its @FullTextSearch columns instead of LIKE on pinyin,
+     * data and py columns. It avoids full table scan but matches prefixes of
+     * terms only, and results are ranked by matched terms instead of pinyin.
+     * Ignored if table has no @FullTextSearch column, default false.
+     */
+    public void setFullTextSearch(boolean fullTextSearch) {
+        this.fullTextSearch = fullTextSearch;
+    }
 }
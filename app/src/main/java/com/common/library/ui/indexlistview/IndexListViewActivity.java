@@ -33,6 +33,7 @@ import android.widget.TextView;
 
 import com.common.library.R;
 import com.common.library.orm.async.SQLiteCursorLoader;
+import com.common.library.orm.sqlite.DbUtils;
 import com.common.library.ui.indexlistview.IndexBar.OnTouchingLetterChangedListener;
 import com.common.library.ui.indexlistview.IndexListViewAdapter.OnLetterItemClickedListener;
 import com.google.gson.Gson;
@@ -165,6 +166,14 @@ public abstract class IndexListViewActivity extends FragmentActivity {
         @Override
         public Loader<Cursor> onCreateLoader(int id, Bundle args) {
             String queryContent = mQueryView.getText().toString().trim();
+            if (mArguments.isFullTextSearch() && DbUtils.isSearchable(mArguments.getTableClass())
+                    && queryContent.length() > 0) {
+                // columns with @FullTextSearch are searched without full table scan
+                Cursor cursor = mArguments.getDbUtils().searchToCursor(mArguments.getTableClass(),
+                        DbUtils.toPrefixQuery(queryContent), 0);
+                return new SQLiteCursorLoader(IndexListViewActivity.this, cursor);
+            }
+
             String whereArgs = "%" + queryContent + "%";
             Cursor cursor = mArguments.getDbUtils().findToCursor(
                     mArguments.getTableClass(),